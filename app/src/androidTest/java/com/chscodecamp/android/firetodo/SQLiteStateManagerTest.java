@@ -0,0 +1,108 @@
+package com.chscodecamp.android.firetodo;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that SQLiteStateManager's table reads back in creation order after updates, inserts and
+ * deletes, and that an upgrade from version 2 moves the tasks kept in SharedPreferences into it.
+ * Runs on a device since the table lives in a real SQLite database.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SQLiteStateManagerTest {
+    private Context context;
+
+    @Before
+    public void setUp() throws Exception {
+        context = InstrumentationRegistry.getTargetContext();
+        context.deleteDatabase("tasks.db");
+        context.getSharedPreferences(context.getPackageName(), Context.MODE_PRIVATE).edit().clear().commit();
+        context.getSharedPreferences(FireToDoApplication.class.getCanonicalName(), Context.MODE_PRIVATE).edit().clear().commit();
+    }
+
+    @Test
+    public void tasksAreReloadedInTheOrderTheyWereSaved() throws Exception {
+        SQLiteStateManager stateManager = new SQLiteStateManager(context, FireToDoApplication.DATA_SCHEMA_VERSION);
+        load(stateManager);
+        List<Task> taskList = Arrays.asList(new Task("c", "Third", false), new Task("a", "First", true), new Task("b", "Second", false));
+        stateManager.saveTasks(taskList);
+        stateManager.flush();
+
+        assertSameTasks(taskList, load(new SQLiteStateManager(context, FireToDoApplication.DATA_SCHEMA_VERSION)));
+    }
+
+    @Test
+    public void updatedTasksKeepTheirPlaceAndNewOnesGoLast() throws Exception {
+        SQLiteStateManager stateManager = new SQLiteStateManager(context, FireToDoApplication.DATA_SCHEMA_VERSION);
+        load(stateManager);
+        stateManager.saveTasks(Arrays.asList(new Task("a", "First", false), new Task("b", "Second", false), new Task("c", "Third", false)));
+
+        /**
+         * The update of "b" has to find its row rather than insert a new one, which would move it to
+         * the end.
+         */
+        TaskChangeSet changeSet = new TaskChangeSet();
+        changeSet.addRemovedTask("a");
+        changeSet.addUpdatedTask(new Task("d", "Fourth", false));
+        changeSet.addUpdatedTask(new Task("b", "Second, renamed", true));
+        stateManager.saveTaskChanges(changeSet, new ArrayList<Task>());
+        stateManager.saveTaskChanges(TaskChangeSet.of(new Task("a", "First, added again", false)), new ArrayList<Task>());
+        stateManager.flush();
+
+        assertSameTasks(Arrays.asList(new Task("b", "Second, renamed", true), new Task("c", "Third", false),
+                new Task("d", "Fourth", false), new Task("a", "First, added again", false)),
+                load(new SQLiteStateManager(context, FireToDoApplication.DATA_SCHEMA_VERSION)));
+    }
+
+    @Test
+    public void tasksInSharedPreferencesMoveToTheTableOnUpgrade() throws Exception {
+        SharedPreferenceStateManager oldStateManager = new SharedPreferenceStateManager(context, 2);
+        List<Task> saved = Arrays.asList(new Task("a", "Saved before the upgrade", false), new Task("b", "Also saved", true));
+        oldStateManager.saveTasks(saved);
+        oldStateManager.flush();
+
+        List<Task> loaded = load(new SQLiteStateManager(context, 3));
+
+        assertSameTasks(saved, loaded);
+        assertTrue(new SharedPreferenceStateManager(context, 3).readSavedTasks().isEmpty());
+
+        /**
+         * The tasks were moved, not copied, so opening the table again doesn't add them twice.
+         */
+        assertSameTasks(saved, load(new SQLiteStateManager(context, 3)));
+    }
+
+    private static List<Task> load(SQLiteStateManager stateManager) {
+        final List<Task> loaded = new ArrayList<>();
+        stateManager.setDataSetChangedListener(new DataSetChangedListener() {
+            @Override
+            public void onDataSetChanged(@NonNull List<Task> taskList) {
+                loaded.addAll(taskList);
+            }
+        });
+        stateManager.loadTasks();
+        return loaded;
+    }
+
+    private static void assertSameTasks(List<Task> expected, List<Task> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getId(), actual.get(i).getId());
+            assertEquals(expected.get(i).getTitle(), actual.get(i).getTitle());
+            assertEquals(expected.get(i).getCompleted(), actual.get(i).getCompleted());
+        }
+    }
+}
@@ -8,24 +8,23 @@ import android.support.annotation.NonNull;
 
 import java.util.List;
 
-import hugo.weaving.DebugLog;
-
 /**
  * Making an abstract base class that implements TaskListStateManager ensures that each class that
  * extends this base class will have a default implementation of setDataSetChangedListener() as well
  * as the same createDefaultEntries() method.  They can still, however, be overridden by the
  * concrete implementations.
  */
-@DebugLog
-abstract class BaseStateManager implements TaskListStateManager {
+abstract class BaseStateManager implements TaskListStateManager, TaskMigration.Destination {
     private static final String KEY_PREFS_DATA_SCHEMA_VERSION = "data_schema_version";
     DataSetChangedListener dataSetChangedListener;
-    List<Task> tasksFromUpgrade = null;
+    TaskChangedListener taskChangedListener;
     private int oldVersion;
 
     BaseStateManager(@NonNull final Context context, final int newVersion) {
         if (isUpgrade(context, newVersion)) {
+            StartupTrace.begin(StartupTrace.Phase.UPGRADE);
             this.onUpgrade(context, newVersion, this.oldVersion);
+            StartupTrace.end(StartupTrace.Phase.UPGRADE);
         }
     }
 
@@ -92,48 +91,56 @@ abstract class BaseStateManager implements TaskListStateManager {
             /**
              * Our first version should have been stored in Shared Preferences since this application
              * is a continuation of our BetterToDo class.
+             *
+             * We don't move any tasks yet since our subclass hasn't finished initializing.  We only
+             * remember that they need to be moved; migratePendingTasks() does the moving.
              */
-            final SharedPreferenceStateManager sharedPreferenceStateManager = new SharedPreferenceStateManager(context, newVersion);
-
-            /**
-             * We need to hold a reference to the tasks because we haven't finished initializing everything.
-             */
-            sharedPreferenceStateManager.setDataSetChangedListener(new DataSetChangedListener() {
-                @Override
-                public void onDataSetChanged(@NonNull final List<Task> taskList) {
-                    setTasks(taskList);
-
-                    /**
-                     * Now that we have an in-memory copy of our tasks go ahead and clean up the
-                     * copy in SharedPreferences.
-                     */
-                    sharedPreferenceStateManager.deleteAllTasks();
-                }
-            });
-            sharedPreferenceStateManager.loadTasks();
+            if (!(this instanceof SharedPreferenceStateManager)) {
+                TaskMigration.addPendingSource(context, TaskMigration.SOURCE_SHARED_PREFERENCES);
+            }
         }
 
         /**
          * From 2 to 3 ...
          */
-        //noinspection StatementWithEmptyBody
         if (this.oldVersion < 3) {
             /**
              * Notice that these version checks are _not_ chained together.  That's because we don't
              * know which version the user will be coming from.  In this way we can ensure that the
              * entire upgrade path will be supported.
+             *
+             * Version 3 added the SQLite and log file stores.  Version 2 only ever kept tasks on the
+             * device in SharedPreferences, so those are the tasks moved into a new store when
+             * FireToDoApplication switches to one.  The new stores are only migrated from once a
+             * later version replaces them.
              */
+            if (!(this instanceof SharedPreferenceStateManager)) {
+                TaskMigration.addPendingSource(context, TaskMigration.SOURCE_SHARED_PREFERENCES);
+            }
         }
     }
 
     /**
-     * We need to hold on to an in-memory copy of tasks if we're coming from an upgrade because
-     * everything isn't finished initializing.
+     * Move the tasks from any storage an upgrade left behind into ours.  Subclasses call this at the
+     * end of their constructor, once they are ready for commitMigratedTasks().  The tasks are moved
+     * in batches and the migration resumes where it left off if the process died during an earlier
+     * attempt, so this also finishes migrations from earlier starts.
+     *
+     * @param context our application context
+     */
+    void migratePendingTasks(@NonNull final Context context) {
+        TaskMigration.run(context, this);
+    }
+
+    /**
+     * Storage that writes each Task on its own takes migrated tasks in batches of
+     * TaskMigration.BATCH_SIZE, so a migration never needs more than a batch of tasks in memory.
      *
-     * @param taskList the tasks from a previous version of the app that required a data upgrade
+     * @return how many tasks commitMigratedTasks() is given at a time
      */
-    private void setTasks(@NonNull final List<Task> taskList) {
-        this.tasksFromUpgrade = taskList;
+    @Override
+    public int getMigrationBatchSize() {
+        return TaskMigration.BATCH_SIZE;
     }
 
     /**
@@ -147,6 +154,46 @@ abstract class BaseStateManager implements TaskListStateManager {
         this.dataSetChangedListener = dataSetChangedListener;
     }
 
+    /**
+     * Allow our TaskManager to tell the state manager class that it wants to be notified when a
+     * single task changes in long term storage.  Only state managers that can see changes made
+     * elsewhere, e.g. on another device, will ever call it.
+     *
+     * @param taskChangedListener the listener we will notify when a task changes.
+     */
+    @Override
+    public void setTaskChangedListener(@NonNull final TaskChangedListener taskChangedListener) {
+        this.taskChangedListener = taskChangedListener;
+    }
+
+    /**
+     * Storage that cannot write individual Tasks falls back to saving the whole list.  Override
+     * this when the storage solution can write only the Tasks that changed.
+     *
+     * @param changeSet the Tasks that changed
+     * @param taskList  the complete list of Tasks, including the changes
+     */
+    @Override
+    public void saveTaskChanges(@NonNull final TaskChangeSet changeSet, @NonNull final List<Task> taskList) {
+        saveTasks(taskList);
+    }
+
+    /**
+     * Storage that writes right away has nothing to flush.  Override this when saves are written
+     * later, e.g. on a background thread.
+     */
+    @Override
+    public void flush() {
+    }
+
+    /**
+     * Storage that doesn't listen for changes has nothing to stop.  Saves already handed to a
+     * background thread still get written.  Override this when the storage keeps a sync running.
+     */
+    @Override
+    public void close() {
+    }
+
     /**
      * Call to set see our Task list with items.
      *
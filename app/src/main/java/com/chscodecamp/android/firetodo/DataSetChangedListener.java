@@ -9,5 +9,10 @@ import java.util.List;
  * the adapter that the data has changed.
  */
 interface DataSetChangedListener {
+
+    /**
+     * @param taskList the Tasks that were loaded; the list is handed over and never changed by the
+     *                 caller again, so it can be kept without copying it
+     */
     void onDataSetChanged(@NonNull final List<Task> taskList);
 }
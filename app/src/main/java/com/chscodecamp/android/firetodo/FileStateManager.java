@@ -0,0 +1,291 @@
+package com.chscodecamp.android.firetodo;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Stores our tasks in a file of their own instead of a single SharedPreferences value.  The file is
+ * a log with one JSON record per line.  Saving a change appends a record for each Task that
+ * changed, so the cost of a save depends on the size of the change rather than the size of the
+ * list.  Loading replays the log from the top; the last record for a Task wins.
+ * <p>
+ * Once the log holds a lot more records than there are tasks it is compacted, i.e. replaced by a
+ * record for each task of the current list.  See RecordLog.
+ */
+class FileStateManager extends BaseStateManager {
+
+    private static final String TAG = FileStateManager.class.getSimpleName();
+    private static final String LOG_FILE_NAME = "tasks.log";
+    private static final String RECORD_PUT = "put";
+    private static final String RECORD_REMOVE = "remove";
+    private static final int MIN_RECORDS_BEFORE_COMPACTION = 100;
+
+    /**
+     * Records are written one at a time, in order, on this thread so the UI never waits on the disk.
+     */
+    private static final ExecutorService PERSISTENCE_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    /**
+     * Only used on our persistence thread.
+     */
+    private final RecordLog log;
+    private int recordCount;
+
+    FileStateManager(@NonNull final Context context, final int dataSchemaVersion) {
+        super(context, dataSchemaVersion);
+        log = new RecordLog(new File(context.getFilesDir(), LOG_FILE_NAME));
+        migratePendingTasks(context);
+    }
+
+    /**
+     * Replace the log with one record per task.
+     *
+     * @param taskList the list of Tasks to be saved.
+     */
+    @Override
+    public void saveTasks(@NonNull final List<Task> taskList) {
+        final List<String> records = toPutRecords(taskList);
+        recordCount = records.size();
+        PERSISTENCE_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                compact(records);
+            }
+        });
+    }
+
+    /**
+     * Append a record for each Task that changed or was removed.  The records are created right
+     * away so they hold the Tasks as they are now, even if they change again before the records are
+     * written.  All the records of a change set are appended with a single write.
+     *
+     * @param changeSet the Tasks that changed
+     * @param taskList  the complete list of Tasks, used when the log needs compacting
+     */
+    @Override
+    public void saveTaskChanges(@NonNull final TaskChangeSet changeSet, @NonNull final List<Task> taskList) {
+        if (changeSet.isEmpty()) {
+            return;
+        }
+        if (recordCount + changeSet.size() > Math.max(MIN_RECORDS_BEFORE_COMPACTION, taskList.size() * 2)) {
+            saveTasks(taskList);
+            return;
+        }
+        final List<String> records = toPutRecords(changeSet.getUpdatedTasks());
+        for (String id : changeSet.getRemovedTaskIds()) {
+            records.add(toRemoveRecord(id));
+        }
+        recordCount += records.size();
+        PERSISTENCE_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                append(records);
+            }
+        });
+    }
+
+    /**
+     * Wait until every record has been written.
+     */
+    @Override
+    public void flush() {
+        try {
+            PERSISTENCE_EXECUTOR.submit(new Runnable() {
+                @Override
+                public void run() {
+                }
+            }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * Get our tasks by replaying the log.
+     */
+    @Override
+    public void loadTasks() {
+
+        /**
+         * Make sure we read back anything that was saved but not yet written.
+         */
+        flush();
+
+        final List<Task> taskList = replay();
+
+        /**
+         * If the log is empty then add default tasks so our user has something to see when they
+         * launch the app.  Save them right away since later saves only write the tasks that changed.
+         */
+        if (taskList.isEmpty()) {
+            createDefaultEntries(taskList);
+            saveTasks(taskList);
+        }
+
+        /**
+         * After this method completes we will have update our taskList and we need to tell
+         * the adapter to refresh its dataset so they can be displayed on the screen.
+         */
+        if (dataSetChangedListener != null) {
+            dataSetChangedListener.onDataSetChanged(taskList);
+        }
+    }
+
+    /**
+     * Append a batch of migrated tasks to the log and wait until they reach the disk.
+     *
+     * @param batch the tasks to write
+     */
+    @Override
+    public void commitMigratedTasks(@NonNull final List<Task> batch) {
+        final List<String> records = toPutRecords(batch);
+        recordCount += records.size();
+        try {
+            PERSISTENCE_EXECUTOR.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    log.append(records);
+                    return null;
+                }
+            }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while writing migrated tasks.", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Migrated tasks could not be written.", e.getCause());
+        }
+    }
+
+    /**
+     * Read the log from the top.  A Task keeps the position of its first record and the contents of
+     * its last one.  A record that cannot be read, e.g. one cut short by a crash while it was
+     * being appended, is skipped.  A torn last record is cut off before the log is appended to
+     * again.
+     *
+     * @return the Tasks in the log
+     */
+    @NonNull
+    private List<Task> replay() {
+        final Map<String, Task> tasksById = new LinkedHashMap<>();
+        recordCount = 0;
+        try {
+            log.read(new RecordLog.RecordReader() {
+                @Override
+                public void onRecord(@NonNull final String record) {
+                    recordCount++;
+                    try {
+                        applyRecord(record, tasksById);
+                    } catch (IOException | IllegalStateException e) {
+                        Log.w(TAG, "Skipping unreadable task record", e);
+                    }
+                }
+            });
+        } catch (IOException e) {
+            Log.e(TAG, "Could not read " + log.getFile(), e);
+        }
+        return new ArrayList<>(tasksById.values());
+    }
+
+    private static void applyRecord(@NonNull final String record, @NonNull final Map<String, Task> tasksById) throws IOException {
+        final JsonReader in = new JsonReader(new StringReader(record));
+        in.beginObject();
+        while (in.hasNext()) {
+            final String name = in.nextName();
+            if (RECORD_PUT.equals(name)) {
+                final Task task = TaskCodec.TYPE_ADAPTER.read(in);
+                if (task != null) {
+                    tasksById.put(task.getId(), task);
+                }
+            } else if (RECORD_REMOVE.equals(name) && in.peek() == JsonToken.STRING) {
+                tasksById.remove(in.nextString());
+            } else {
+                in.skipValue();
+            }
+        }
+        in.endObject();
+    }
+
+    @NonNull
+    private static List<String> toPutRecords(@NonNull final Iterable<Task> tasks) {
+        final List<String> records = new ArrayList<>();
+        for (Task task : tasks) {
+            records.add(toPutRecord(task));
+        }
+        return records;
+    }
+
+    @NonNull
+    private static String toPutRecord(@NonNull final Task task) {
+        final StringWriter stringWriter = new StringWriter(80);
+        final JsonWriter out = new JsonWriter(stringWriter);
+        try {
+            out.beginObject();
+            out.name(RECORD_PUT);
+            TaskCodec.TYPE_ADAPTER.write(out, task);
+            out.endObject();
+            out.close();
+        } catch (IOException e) {
+            // A StringWriter never throws
+            throw new IllegalStateException(e);
+        }
+        return stringWriter.toString();
+    }
+
+    @NonNull
+    private static String toRemoveRecord(@NonNull final String id) {
+        final StringWriter stringWriter = new StringWriter(48);
+        final JsonWriter out = new JsonWriter(stringWriter);
+        try {
+            out.beginObject();
+            out.name(RECORD_REMOVE).value(id);
+            out.endObject();
+            out.close();
+        } catch (IOException e) {
+            // A StringWriter never throws
+            throw new IllegalStateException(e);
+        }
+        return stringWriter.toString();
+    }
+
+    /**
+     * Runs on our persistence thread.
+     */
+    private void append(@NonNull final List<String> records) {
+        try {
+            log.append(records);
+        } catch (IOException e) {
+            Log.e(TAG, "Could not append to " + log.getFile(), e);
+        }
+    }
+
+    /**
+     * Runs on our persistence thread.
+     */
+    private void compact(@NonNull final List<String> records) {
+        try {
+            log.replace(records);
+        } catch (IOException e) {
+            Log.e(TAG, "Could not compact " + log.getFile(), e);
+        }
+    }
+}
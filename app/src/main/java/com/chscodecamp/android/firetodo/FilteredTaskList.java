@@ -0,0 +1,246 @@
+package com.chscodecamp.android.firetodo;
+
+import android.support.annotation.NonNull;
+import android.support.v7.util.ListUpdateCallback;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A live view of the Tasks in a source list that are accepted by a Filter.  Instead of copying
+ * the accepted Tasks into a second list it counts them in a Fenwick (binary indexed) tree, so
+ * adding a Task, changing a Task and finding the n-th accepted Task all take O(log n) time no
+ * matter how long the list is.  Removing a Task shifts the ones after it, which takes O(n) but
+ * still doesn't ask the filter about any other Task.
+ * <p>
+ * Every change to the view is reported to a ListUpdateCallback using positions within the view
+ * so a RecyclerView adapter can animate just the affected row.
+ */
+class FilteredTaskList {
+    private static final boolean[] NOTHING_DECIDED = new boolean[0];
+
+    private final List<Task> source;
+    private final Filter filter;
+    private final ListUpdateCallback listUpdateCallback;
+    private int[] tree = new int[1];
+    private boolean[] accepted = new boolean[0];
+    private int sourceSize;
+    private int size;
+
+    FilteredTaskList(@NonNull final List<Task> source, @NonNull final Filter filter, @NonNull final ListUpdateCallback listUpdateCallback) {
+        this.source = source;
+        this.filter = filter;
+        this.listUpdateCallback = listUpdateCallback;
+        rebuild();
+    }
+
+    /**
+     * Re-apply the filter to the whole source list.  Use this when the source list was replaced;
+     * no callbacks are made so the caller is responsible for refreshing the view.
+     */
+    void rebuild() {
+        rebuild(NOTHING_DECIDED);
+    }
+
+    /**
+     * Rebuild the view from decisions made elsewhere, e.g. on a background thread, instead of
+     * asking the filter about every Task.  Like rebuild() no callbacks are made.
+     *
+     * @param isAccepted whether each Task in the source list is accepted; the filter is asked
+     *                   about the Tasks past the end of the array
+     */
+    void rebuild(@NonNull final boolean[] isAccepted) {
+        sourceSize = source.size();
+        size = 0;
+        ensureCapacity(sourceSize);
+        for (int i = 0; i < sourceSize; i++) {
+            accepted[i] = i < isAccepted.length ? isAccepted[i] : filter.accept(source.get(i));
+            if (accepted[i]) {
+                size++;
+            }
+        }
+        buildTree();
+    }
+
+    /**
+     * @return whether each Task in the source list is accepted, in a copy the caller may keep
+     */
+    @NonNull
+    boolean[] getAccepted() {
+        return Arrays.copyOf(accepted, sourceSize);
+    }
+
+    /**
+     * @return the number of accepted Tasks
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @param position a position within this view
+     * @return the accepted Task at that position
+     */
+    @NonNull
+    Task get(final int position) {
+        return source.get(getSourcePosition(position));
+    }
+
+    /**
+     * Find where the Task at a position in this view lives in the source list.
+     *
+     * @param position a position within this view
+     * @return the position of the same Task in the source list
+     */
+    int getSourcePosition(final int position) {
+        if (position < 0 || position >= size) {
+            throw new IndexOutOfBoundsException("Position " + position + " is not in a view of size " + size);
+        }
+        int remaining = position + 1;
+        int index = 0;
+        for (int step = Integer.highestOneBit(sourceSize); step > 0; step >>= 1) {
+            final int next = index + step;
+            if (next <= sourceSize && tree[next] < remaining) {
+                index = next;
+                remaining -= tree[next];
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Find where a Task from the source list appears in this view.
+     *
+     * @param sourcePosition a position in the source list
+     * @return the position within this view, or -1 if the Task is not accepted
+     */
+    int getPosition(final int sourcePosition) {
+        return accepted[sourcePosition] ? countAcceptedBefore(sourcePosition) : -1;
+    }
+
+    /**
+     * Tell the view a Task was appended to the source list.  Insertions anywhere else shift
+     * positions in the tree so they should be followed by a rebuild() instead.
+     */
+    void onSourceAppended() {
+        if (source.size() != sourceSize + 1) {
+            throw new IllegalStateException("Expected one appended Task but the source list went from " + sourceSize + " to " + source.size());
+        }
+        final int sourcePosition = sourceSize;
+        ensureCapacity(sourceSize + 1);
+        final boolean isAccepted = filter.accept(source.get(sourcePosition));
+        accepted[sourcePosition] = isAccepted;
+        sourceSize++;
+
+        /**
+         * A new last node covers itself plus the nodes below it in its range, which we can read
+         * from the prefix sums we already have.
+         */
+        final int node = sourceSize;
+        final int rangeStart = node - (node & -node);
+        tree[node] = (isAccepted ? 1 : 0) + countAcceptedBefore(node - 1) - countAcceptedBefore(rangeStart);
+
+        if (isAccepted) {
+            size++;
+            listUpdateCallback.onInserted(size - 1, 1);
+        }
+    }
+
+    /**
+     * Tell the view a Task in the source list changed.  Depending on whether the filter still
+     * accepts it the Task is inserted into, removed from or changed in this view.
+     *
+     * @param sourcePosition the position of the changed Task in the source list
+     */
+    void onSourceChanged(final int sourcePosition) {
+        final boolean wasAccepted = accepted[sourcePosition];
+        final boolean isAccepted = filter.accept(source.get(sourcePosition));
+        final int position = countAcceptedBefore(sourcePosition);
+        if (wasAccepted && isAccepted) {
+            listUpdateCallback.onChanged(position, 1, null);
+        } else if (wasAccepted) {
+            accepted[sourcePosition] = false;
+            add(sourcePosition, -1);
+            size--;
+            listUpdateCallback.onRemoved(position, 1);
+        } else if (isAccepted) {
+            accepted[sourcePosition] = true;
+            add(sourcePosition, 1);
+            size++;
+            listUpdateCallback.onInserted(position, 1);
+        }
+    }
+
+    /**
+     * Tell the view a Task was removed from the source list.  Every Task after it moves up one
+     * position, so the tree is rebuilt from the decisions we already have; the filter isn't asked
+     * about any Task.
+     *
+     * @param sourcePosition the position the removed Task had in the source list
+     */
+    void onSourceRemoved(final int sourcePosition) {
+        if (source.size() != sourceSize - 1) {
+            throw new IllegalStateException("Expected one removed Task but the source list went from " + sourceSize + " to " + source.size());
+        }
+        final boolean wasAccepted = accepted[sourcePosition];
+        final int position = countAcceptedBefore(sourcePosition);
+        System.arraycopy(accepted, sourcePosition + 1, accepted, sourcePosition, sourceSize - sourcePosition - 1);
+        sourceSize--;
+        buildTree();
+        if (wasAccepted) {
+            size--;
+            listUpdateCallback.onRemoved(position, 1);
+        }
+    }
+
+    /**
+     * Build the tree from our decisions in O(n) by pushing each node's count up to its parent.
+     */
+    private void buildTree() {
+        Arrays.fill(tree, 0);
+        for (int i = 0; i < sourceSize; i++) {
+            if (accepted[i]) {
+                tree[i + 1]++;
+            }
+        }
+        for (int i = 1; i <= sourceSize; i++) {
+            final int parent = i + (i & -i);
+            if (parent <= sourceSize) {
+                tree[parent] += tree[i];
+            }
+        }
+    }
+
+    /**
+     * @param sourcePosition a position in the source list
+     * @return how many accepted Tasks come before that position
+     */
+    private int countAcceptedBefore(final int sourcePosition) {
+        int count = 0;
+        for (int i = sourcePosition; i > 0; i -= i & -i) {
+            count += tree[i];
+        }
+        return count;
+    }
+
+    private void add(final int sourcePosition, final int delta) {
+        for (int i = sourcePosition + 1; i <= sourceSize; i += i & -i) {
+            tree[i] += delta;
+        }
+    }
+
+    private void ensureCapacity(final int capacity) {
+        if (accepted.length < capacity) {
+            final int newCapacity = Math.max(capacity, accepted.length * 2);
+            accepted = Arrays.copyOf(accepted, newCapacity);
+            tree = Arrays.copyOf(tree, newCapacity + 1);
+        }
+    }
+
+    /**
+     * Decides which Tasks from the source list belong in the view.
+     */
+    interface Filter {
+        boolean accept(@NonNull final Task task);
+    }
+}
@@ -9,33 +9,70 @@ import android.text.TextUtils;
 import com.crashlytics.android.Crashlytics;
 
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
-import hugo.weaving.DebugLog;
 import io.fabric.sdk.android.Fabric;
 
 /**
  * The Application Class in Android is effectively a singleton and allows you to setup things that
  * should be used application-wide.
  */
-@DebugLog
 public class FireToDoApplication extends Application {
 
     public static final String KEY_PREFS_APPLICATION_ID = "applicationId";
-    public static final int DATA_SCHEMA_VERSION = 2;
+    public static final int DATA_SCHEMA_VERSION = 3;
+    private static final long METRICS_SUMMARY_PERIOD_MINUTES = 5;
 
     @Override
     public void onCreate() {
+        StartupTrace.begin(StartupTrace.Phase.APPLICATION_CREATE);
         super.onCreate();
         Fabric.with(this, new Crashlytics());
 
+        /**
+         * Log how long our hot paths took every few minutes, in release builds too.
+         */
+        Metrics.startPeriodicSummary(METRICS_SUMMARY_PERIOD_MINUTES, TimeUnit.MINUTES);
+
         /**
          * Init our TaskManager with a new instance of a FirebaseStateManager so we can store our
          * Tasks in the cloud!  The FirebaseStateManager takes a String in its constructor.  This
          * String will be used to uniquely identify "this" installation of the application so each
          * user's tasks can be stored independently of each others.
+         *
+         * The SnapshotStateManager around it shows the list we had last time while Firebase is
+         * still loading.
+         *
+         * The state manager is created on a background thread so our Activity can draw right away.
+         * ToDoListActivity waits for TaskManager.whenReady() before it shows any tasks.  Each of
+         * our TaskLists gets a state manager of its own when it is opened, starting with the list
+         * that was open last time.
          */
-        //TaskManager.init(new SharedPreferenceStateManager(this, DATA_SCHEMA_VERSION));
-        TaskManager.init(new FirebaseStateManager(this, this.getApplicationId(), DATA_SCHEMA_VERSION));
+        TaskManager.initAsync(new TaskManager.StateManagerFactory() {
+            @NonNull
+            @Override
+            public TaskListStateManager create(@NonNull String listId) {
+                // These keep a single list, whichever list is opened
+                //return new SharedPreferenceStateManager(FireToDoApplication.this, DATA_SCHEMA_VERSION);
+                //return new FileStateManager(FireToDoApplication.this, DATA_SCHEMA_VERSION);
+                //return new SQLiteStateManager(FireToDoApplication.this, DATA_SCHEMA_VERSION);
+                return new SnapshotStateManager(FireToDoApplication.this, listId,
+                        new FirebaseStateManager(FireToDoApplication.this, getApplicationId(), listId, DATA_SCHEMA_VERSION), DATA_SCHEMA_VERSION);
+            }
+        }, TaskLists.getOpenListId(this));
+        StartupTrace.end(StartupTrace.Phase.APPLICATION_CREATE);
+    }
+
+    /**
+     * The system is running low on memory.  Our TaskManager drops the task lists we aren't showing,
+     * or all of them once we're in the background, and loads them again when they're needed.
+     *
+     * @param level how badly memory is needed, one of the ComponentCallbacks2 TRIM_MEMORY_ levels
+     */
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        TaskManager.onTrimMemory(level);
     }
 
     /**
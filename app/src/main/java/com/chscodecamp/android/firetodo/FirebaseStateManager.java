@@ -5,35 +5,74 @@ import android.support.annotation.NonNull;
 import android.support.annotation.Size;
 import android.util.Log;
 
-import com.google.firebase.database.DataSnapshot;
-import com.google.firebase.database.DatabaseError;
 import com.google.firebase.database.DatabaseReference;
 import com.google.firebase.database.FirebaseDatabase;
-import com.google.firebase.database.ValueEventListener;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
-import hugo.weaving.DebugLog;
-
-@DebugLog
 class FirebaseStateManager extends BaseStateManager {
 
     private static final String TAG = FirebaseStateManager.class.getSimpleName();
-    private final DatabaseReference databaseReference;
 
-    FirebaseStateManager(@NonNull final Context context, @NonNull @Size(min = 1) final String uniqueId, final int dataSchemaVersion) {
+    /**
+     * Named lists are kept apart from the default list, under lists/[installation id]/[list id].
+     * Nesting them under the default list's own reference would mean downloading every list
+     * whenever the default list is loaded.
+     */
+    private static final String LISTS_PATH = "lists";
+    private static final String CONNECTED_PATH = ".info/connected";
+    private static boolean persistenceEnabled;
+    private final TaskDatabase taskDatabase;
+    private final TaskOutbox outbox;
+    private final boolean defaultList;
+
+    FirebaseStateManager(@NonNull final Context context, @NonNull @Size(min = 1) final String uniqueId, @NonNull final String listId, final int dataSchemaVersion) {
+        this(context, createTaskDatabase(uniqueId, listId), listId, dataSchemaVersion);
+    }
+
+    /**
+     * Use any TaskDatabase, e.g. an in-process one for tests, in place of Firebase.
+     *
+     * @param context           our application context
+     * @param taskDatabase      the database holding the list's tasks
+     * @param listId            the id of the list in TaskLists
+     * @param dataSchemaVersion the schema version number
+     */
+    FirebaseStateManager(@NonNull final Context context, @NonNull final TaskDatabase taskDatabase, @NonNull final String listId, final int dataSchemaVersion) {
         /**
          * Tell our parent class the version number of our data schema so we can handle upgrades
          */
         super(context, dataSchemaVersion);
+        this.taskDatabase = taskDatabase;
+        this.outbox = new TaskOutbox(context, listId, taskDatabase);
+        this.defaultList = TaskLists.DEFAULT_LIST_ID.equals(listId);
+
+        /**
+         * Tasks left behind by older versions of the app were all in the one list we had then.
+         */
+        if (defaultList) {
+            migratePendingTasks(context);
+        }
+    }
 
+    @NonNull
+    private static TaskDatabase createTaskDatabase(@NonNull @Size(min = 1) final String uniqueId, @NonNull final String listId) {
         /**
          * Get an instance of the FirebaseDatabase and set it to persist data locally so the app
-         * may be used even if network connectivity is not present.
+         * may be used even if network connectivity is not present.  Persistence can only be
+         * enabled once, before the first reference is made, and we make a state manager per list.
          */
         final FirebaseDatabase firebaseDatabase = FirebaseDatabase.getInstance();
-        firebaseDatabase.setPersistenceEnabled(true);
+        synchronized (FirebaseStateManager.class) {
+            if (!persistenceEnabled) {
+                firebaseDatabase.setPersistenceEnabled(true);
+                persistenceEnabled = true;
+            }
+        }
 
         /**
          * Use our Application ID as the unique identifier for our list of tasks.  This will allow
@@ -43,81 +82,144 @@ class FirebaseStateManager extends BaseStateManager {
          * We'll leave it up to you to handle users/authentication such that you can get to your
          * tasks regardless of which device you're on.
          */
-        databaseReference = firebaseDatabase.getReference(uniqueId);
+        final DatabaseReference connectedReference = firebaseDatabase.getReference(CONNECTED_PATH);
+        if (TaskLists.DEFAULT_LIST_ID.equals(listId)) {
+            return new FirebaseTaskDatabase(firebaseDatabase.getReference(uniqueId), connectedReference);
+        }
+        return new FirebaseTaskDatabase(firebaseDatabase.getReference(LISTS_PATH).child(uniqueId).child(listId), connectedReference);
     }
 
     /**
-     * Save our tasks to our long term storage solution.
+     * Save our tasks to our long term storage solution.  Each Task is stored under its id so it
+     * can be updated on its own later.
      *
      * @param taskList the list of Tasks to be saved.
      */
     @Override
     public void saveTasks(@NonNull final List<Task> taskList) {
-        databaseReference.setValue(taskList);
+        taskDatabase.setTasks(toTaskMap(taskList));
     }
 
     /**
-     * Get our tasks from our long term storage solution.
+     * Write only the Tasks that changed.  They go through our outbox, which sends them only while
+     * we are connected, as updates that leave every other child of our database reference alone, so
+     * a single checkbox tap uploads a single Task.  Changes made offline are merged per Task and
+     * sent in batches once we are back online, rather than replayed one by one from Firebase's own
+     * queue.
+     *
+     * @param changeSet the Tasks that changed
+     * @param taskList  the complete list of Tasks, not needed here
      */
     @Override
-    public void loadTasks() {
+    public void saveTaskChanges(@NonNull final TaskChangeSet changeSet, @NonNull final List<Task> taskList) {
+        outbox.add(changeSet);
+    }
 
-        /**
-         * If there were tasks available as a result of an application & data schema upgrade then
-         * fetch those and return as we shouldn't have anything to load after getting these.
-         */
-        if (tasksFromUpgrade != null && !tasksFromUpgrade.isEmpty()) {
-
-            /**
-             * After this method completes we will have update our taskList and we need to tell
-             * the adapter to refresh its dataset so they can be displayed on the screen.
-             */
-            if (dataSetChangedListener != null) {
-                dataSetChangedListener.onDataSetChanged(tasksFromUpgrade);
-            }
+    /**
+     * Write a batch of migrated tasks through our outbox.  The outbox keeps them on the device
+     * until the server has them, so they survive the app being killed and we treat them as
+     * committed once they are queued.  They are committed to the disk before we return, like
+     * TaskMigration's checkpoint after them.  Runs in our constructor, on the thread creating us.
+     *
+     * @param batch the tasks to write
+     */
+    @Override
+    public void commitMigratedTasks(@NonNull final List<Task> batch) {
+        final TaskChangeSet changeSet = new TaskChangeSet();
+        for (Task task : batch) {
+            changeSet.addUpdatedTask(task);
+        }
+        outbox.commit(changeSet);
+    }
+
+    /**
+     * Wait until our outbox has written its records, so writes that haven't reached the server yet
+     * survive the process being killed.
+     */
+    @Override
+    public void flush() {
+        outbox.flush();
+    }
+
+    /**
+     * @return the writes that haven't reached the server yet
+     */
+    @NonNull
+    TaskOutbox getOutbox() {
+        return outbox;
+    }
 
-            /**
-             * Once we've been through this due to an upgrade set the in-memory list to null as we
-             * no longer need it.
-             */
-            tasksFromUpgrade = null;
-            return;
+    /**
+     * Key every Task by its id, keeping the order of the list.
+     *
+     * @param taskList the Tasks to be keyed
+     * @return the value to store at our database reference
+     */
+    @NonNull
+    static Map<String, Object> toTaskMap(@NonNull final List<Task> taskList) {
+        final Map<String, Object> taskMap = new LinkedHashMap<>();
+        for (Task task : taskList) {
+            taskMap.put(task.getId(), TaskCodec.toMap(task));
         }
+        return taskMap;
+    }
 
-        /**
-         * Create an empty list of tasks that we will pass back.  This ensures that we're never
-         * working with a null task list.
-         */
-        final List<Task> taskList = new ArrayList<>();
+    /**
+     * Build the child path updates for a change set.  A removed Task's path is set to null, which
+     * deletes it, so a whole batch of additions, updates and removals is one multi-path update.
+     *
+     * @param changeSet the Tasks that changed
+     * @return a map of child path to new value suitable for updateChildren()
+     */
+    @NonNull
+    static Map<String, Object> toChildUpdates(@NonNull final TaskChangeSet changeSet) {
+        final Map<String, Object> childUpdates = new HashMap<>();
+        for (Task task : changeSet.getUpdatedTasks()) {
+            TaskCodec.putChildUpdates(childUpdates, task.getId(), task, changeSet.getChangedFields(task.getId()));
+        }
+        for (String id : changeSet.getRemovedTaskIds()) {
+            childUpdates.put(id, null);
+        }
+        return childUpdates;
+    }
 
-        /**
-         * We only care about listening for a single update on this database when the loadTasks()
-         * method is called.  addListenerForSingleValueEvent() will run once then remove the
-         * listener.
-         */
-        databaseReference.addListenerForSingleValueEvent(new ValueEventListener() {
+    /**
+     * Get our tasks from our long term storage solution and keep listening for changes.  We are
+     * given the whole list once and after that only the tasks that changed, e.g. on another device.
+     * <p>
+     * A Task we changed ourselves but whose write hasn't reached the server yet is loaded as we
+     * changed it, not as the database has it.  Later changes are merged with ours by TaskManager.
+     */
+    @Override
+    public void loadTasks() {
+
+        taskDatabase.setConnectionListener(new TaskDatabase.ConnectionListener() {
             @Override
-            public void onDataChange(DataSnapshot dataSnapshot) {
+            public void onConnectionChanged(final boolean connected) {
+                outbox.setConnected(connected);
+            }
+        });
+
+        taskDatabase.startSync(new TaskDatabase.SyncListener() {
+            @Override
+            public void onInitialTasks(@NonNull final List<Task> tasks) {
 
                 /**
-                 * For each Task in our saved Tasks ...
+                 * Create a list of tasks that we will pass back.  This ensures that we're never
+                 * working with a list we don't own.
                  */
-                for (DataSnapshot taskDbEntry : dataSnapshot.getChildren()) {
-
-                    /**
-                     * If getValue() results in a Task then add it to the taskList.
-                     */
-                    if (taskDbEntry.getValue(Task.class) != null) {
-                        taskList.add(taskDbEntry.getValue(Task.class));
-                    }
-                }
+                final List<Task> taskList = new ArrayList<>(tasks);
+                outbox.applyPendingWrites(taskList);
 
                 /**
                  * If the list is empty after processing all database entries then add default
-                 * tasks so our user has something to see when they launch the app.
+                 * tasks so our user has something to see when they launch the app.  Save them
+                 * right away since later saves only write the tasks that changed.  A new named
+                 * list starts out empty.
                  */
-                if (taskList.isEmpty()) {
+                if (taskList.isEmpty() && defaultList) {
                     createDefaultEntries(taskList);
+                    saveTasks(taskList);
                 }
 
                 /**
@@ -130,12 +232,43 @@ class FirebaseStateManager extends BaseStateManager {
             }
 
             @Override
-            public void onCancelled(DatabaseError databaseError) {
-                Log.e(TAG, databaseError.getMessage());
+            public void onTaskAdded(@NonNull final Task task) {
+                if (taskChangedListener != null) {
+                    taskChangedListener.onTaskAdded(task);
+                }
+            }
+
+            @Override
+            public void onTaskChanged(@NonNull final Task task) {
+                if (taskChangedListener != null) {
+                    taskChangedListener.onTaskChanged(task);
+                }
+            }
+
+            @Override
+            public void onTaskRemoved(@NonNull final String id) {
+                if (taskChangedListener != null) {
+                    taskChangedListener.onTaskRemoved(id);
+                }
+            }
+
+            @Override
+            public void onCancelled(@NonNull final String message) {
+                Log.e(TAG, message);
             }
         });
     }
 
+    /**
+     * Stop listening for changes to our list once it is closed.  Writes still in our outbox stay on
+     * the device and are sent the next time the list is opened.
+     */
+    @Override
+    public void close() {
+        taskDatabase.setConnectionListener(null);
+        taskDatabase.stopSync();
+    }
+
     /**
      * If you're starting off with FireToDo then populate some tasks that everyone should have, but add
      * a task for this class :)
@@ -0,0 +1,251 @@
+package com.chscodecamp.android.firetodo;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.google.firebase.database.ChildEventListener;
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.ValueEventListener;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A TaskDatabase stored in the Firebase Realtime Database.  How long our listeners take and how long
+ * the server takes to confirm a write are recorded with Metrics.
+ */
+class FirebaseTaskDatabase implements TaskDatabase {
+
+    private final DatabaseReference databaseReference;
+    private final DatabaseReference connectedReference;
+    private Sync sync;
+    private ValueEventListener connectionEventListener;
+
+    /**
+     * @param databaseReference  where the Tasks are stored
+     * @param connectedReference Firebase's .info/connected, which is true while we can reach the
+     *                           server
+     */
+    FirebaseTaskDatabase(@NonNull final DatabaseReference databaseReference, @NonNull final DatabaseReference connectedReference) {
+        this.databaseReference = databaseReference;
+        this.connectedReference = connectedReference;
+    }
+
+    @Override
+    public void setTasks(@NonNull final Map<String, Object> tasks) {
+        databaseReference.setValue(tasks);
+    }
+
+    @Override
+    public void updateTasks(@NonNull final Map<String, Object> childUpdates) {
+        databaseReference.updateChildren(childUpdates);
+    }
+
+    @Override
+    public void updateTasks(@NonNull final Map<String, Object> childUpdates, @NonNull final WriteListener listener) {
+        final long startNanos = Metrics.start();
+        databaseReference.updateChildren(childUpdates, new DatabaseReference.CompletionListener() {
+            @Override
+            public void onComplete(DatabaseError databaseError, DatabaseReference databaseReference) {
+                Metrics.stop(Metrics.Timer.FIREBASE_WRITE, startNanos);
+                listener.onWriteComplete(databaseError == null ? null : databaseError.getMessage());
+            }
+        });
+    }
+
+    @Override
+    public void setConnectionListener(@Nullable final ConnectionListener listener) {
+        if (connectionEventListener != null) {
+            connectedReference.removeEventListener(connectionEventListener);
+            connectionEventListener = null;
+        }
+        if (listener == null) {
+            return;
+        }
+        connectionEventListener = new ValueEventListener() {
+            @Override
+            public void onDataChange(DataSnapshot dataSnapshot) {
+                listener.onConnectionChanged(Boolean.TRUE.equals(dataSnapshot.getValue(Boolean.class)));
+            }
+
+            @Override
+            public void onCancelled(DatabaseError databaseError) {
+                listener.onConnectionChanged(false);
+            }
+        };
+        connectedReference.addValueEventListener(connectionEventListener);
+    }
+
+    /**
+     * Firebase calls onChildAdded() once for every Task that is already stored when a
+     * ChildEventListener is added.  We collect those into a single list and hand it over when a
+     * single value event fires, because Firebase always fires value events after the child events
+     * they contain.  From then on each child event is passed along as it arrives.
+     *
+     * @param listener told about the stored Tasks
+     */
+    @Override
+    public void startSync(@NonNull final SyncListener listener) {
+        stopSync();
+        sync = new Sync(listener);
+        databaseReference.addChildEventListener(sync);
+        databaseReference.addListenerForSingleValueEvent(sync);
+    }
+
+    @Override
+    public void stopSync() {
+        if (sync != null) {
+            databaseReference.removeEventListener((ChildEventListener) sync);
+            databaseReference.removeEventListener((ValueEventListener) sync);
+            sync = null;
+        }
+    }
+
+    /**
+     * The Task's id is the key it is stored under.  Lists saved by older versions of the app were
+     * stored as an array so those Tasks simply keep their index as their id.  getValue() hands us
+     * the raw Map in a single pass and TaskCodec maps it without reflection.
+     *
+     * @param taskDbEntry the stored Task
+     * @return the Task or null if the entry is not a Task
+     */
+    @Nullable
+    private static Task toTask(@NonNull final DataSnapshot taskDbEntry) {
+        return TaskCodec.fromMap(taskDbEntry.getKey(), taskDbEntry.getValue());
+    }
+
+    /**
+     * A Task that is only partly written once we have every stored Task, so nothing of it is still
+     * on its way, had a field written after another device removed it.  The removal wins: we tell
+     * our listener the Task is gone and remove what is left of it, so every device ends up without
+     * it.
+     */
+    private class Sync implements ChildEventListener, ValueEventListener {
+        private final SyncListener listener;
+        private List<Task> initialTasks = new ArrayList<>();
+
+        /**
+         * The ids of the Tasks that are partly written while the stored Tasks are still arriving.
+         */
+        private final Set<String> partlyWrittenIds = new HashSet<>();
+
+        Sync(@NonNull final SyncListener listener) {
+            this.listener = listener;
+        }
+
+        @Override
+        public void onChildAdded(DataSnapshot dataSnapshot, String previousChildName) {
+            final long startNanos = Metrics.start();
+            final Task task = toTask(dataSnapshot);
+            if (task != null && initialTasks != null) {
+                initialTasks.add(task);
+            } else if (task != null) {
+                listener.onTaskAdded(task);
+            } else if (TaskCodec.isPartlyWritten(dataSnapshot.getValue())) {
+                onPartlyWritten(dataSnapshot.getKey());
+            }
+            Metrics.stop(Metrics.Timer.FIREBASE_CALLBACK, startNanos);
+        }
+
+        /**
+         * A Task we wrote a field of before it was loaded is added partly written and changed once
+         * the rest of it arrives.  Until the stored Tasks have been handed over it goes in with
+         * them.
+         */
+        @Override
+        public void onChildChanged(DataSnapshot dataSnapshot, String previousChildName) {
+            final long startNanos = Metrics.start();
+            final Task task = toTask(dataSnapshot);
+            if (task != null && initialTasks != null) {
+                partlyWrittenIds.remove(task.getId());
+                replaceInitialTask(task);
+            } else if (task != null) {
+                listener.onTaskChanged(task);
+            } else if (TaskCodec.isPartlyWritten(dataSnapshot.getValue())) {
+                onPartlyWritten(dataSnapshot.getKey());
+            }
+            Metrics.stop(Metrics.Timer.FIREBASE_CALLBACK, startNanos);
+        }
+
+        /**
+         * A Task can be added and then removed again while the stored Tasks are still arriving,
+         * e.g. by our own write; it is then left out of them.
+         */
+        @Override
+        public void onChildRemoved(DataSnapshot dataSnapshot) {
+            final long startNanos = Metrics.start();
+            if (initialTasks == null) {
+                listener.onTaskRemoved(dataSnapshot.getKey());
+            } else {
+                partlyWrittenIds.remove(dataSnapshot.getKey());
+                removeInitialTask(dataSnapshot.getKey());
+            }
+            Metrics.stop(Metrics.Timer.FIREBASE_CALLBACK, startNanos);
+        }
+
+        private void onPartlyWritten(@NonNull final String id) {
+            if (initialTasks != null) {
+                partlyWrittenIds.add(id);
+                return;
+            }
+            listener.onTaskRemoved(id);
+            databaseReference.child(id).removeValue();
+        }
+
+        private void replaceInitialTask(@NonNull final Task task) {
+            for (int i = 0; i < initialTasks.size(); i++) {
+                if (initialTasks.get(i).getId().equals(task.getId())) {
+                    initialTasks.set(i, task);
+                    return;
+                }
+            }
+            initialTasks.add(task);
+        }
+
+        private void removeInitialTask(@NonNull final String id) {
+            for (int i = 0; i < initialTasks.size(); i++) {
+                if (initialTasks.get(i).getId().equals(id)) {
+                    initialTasks.remove(i);
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Tasks are ordered by their id, which never changes, so there is nothing to do when
+         * Firebase reports a move.
+         */
+        @Override
+        public void onChildMoved(DataSnapshot dataSnapshot, String previousChildName) {
+        }
+
+        /**
+         * Every Task that was stored when we started has been added.
+         */
+        @Override
+        public void onDataChange(DataSnapshot dataSnapshot) {
+            if (sync != this || initialTasks == null) {
+                return;
+            }
+            final long startNanos = Metrics.start();
+            final List<Task> tasks = initialTasks;
+            initialTasks = null;
+            for (String id : partlyWrittenIds) {
+                databaseReference.child(id).removeValue();
+            }
+            partlyWrittenIds.clear();
+            listener.onInitialTasks(tasks);
+            Metrics.stop(Metrics.Timer.FIREBASE_CALLBACK, startNanos);
+        }
+
+        @Override
+        public void onCancelled(DatabaseError databaseError) {
+            listener.onCancelled(databaseError.getMessage());
+        }
+    }
+}
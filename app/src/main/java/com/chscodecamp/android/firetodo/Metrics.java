@@ -0,0 +1,296 @@
+package com.chscodecamp.android.firetodo;
+
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters and latency histograms for our hot paths, cheap enough to leave on in release builds.
+ * Recording a value is a few atomic adds into arrays that are allocated once, so it never creates
+ * garbage and is safe from any thread.  Every so often a summary of what was recorded since the
+ * last one is logged, so we can see where the time goes on real devices.
+ * <p>
+ * Latencies go into buckets that double in size, starting below 1 &micro;s, so percentiles are
+ * only known to within a factor of two; the summary reports each as the bucket's upper bound.  A
+ * summary taken while values are being recorded may be off by those values.
+ */
+final class Metrics {
+    private static final String TAG = Metrics.class.getSimpleName();
+
+    /**
+     * Operations whose duration we record.
+     */
+    enum Timer {
+        /**
+         * A TaskManager mutation, i.e. addTask(), updateTask() or a committed batch, on the writer.
+         */
+        TASK_MUTATION,
+        /**
+         * TaskManager handing changes to TaskListStateManager.saveTaskChanges(), which in turn may
+         * call saveTasks().  Only the time the caller waits is counted; most state managers write
+         * on a thread of their own.
+         */
+        SAVE_TASKS,
+        /**
+         * From TaskListStateManager.loadTasks() until the list arrives at the TaskManager.
+         */
+        LOAD_TASKS,
+        /**
+         * Time spent in a Firebase listener callback.
+         */
+        FIREBASE_CALLBACK,
+        /**
+         * From handing Firebase an update until the server has it.
+         */
+        FIREBASE_WRITE,
+        /**
+         * TaskRecyclerAdapter.onBindViewHolder().
+         */
+        ADAPTER_BIND,
+        /**
+         * Keeping the adapter's views of the incomplete tasks and of search results up to date.
+         */
+        FILTER_UPDATE,
+        /**
+         * Looking up a search in a TaskSearchIndex, on the search thread.
+         */
+        TASK_SEARCH
+    }
+
+    /**
+     * Things we only count.
+     */
+    enum Counter {
+        /**
+         * Tasks added, changed or removed by a TaskManager mutation.
+         */
+        TASKS_CHANGED,
+        /**
+         * Tasks added, changed or removed somewhere else and reported by the state manager.
+         */
+        REMOTE_CHANGES,
+        /**
+         * Changes that were merged into an earlier change to the same Task in the TaskOutbox.
+         */
+        OUTBOX_COALESCED,
+        /**
+         * Writes the TaskOutbox gave up on after the database kept rejecting them.
+         */
+        OUTBOX_QUARANTINED,
+        /**
+         * Task lists dropped by the TaskListCache.
+         */
+        LISTS_EVICTED
+    }
+
+    /**
+     * Enough buckets to tell latencies of up to 2^(BUCKET_COUNT - 1) &micro;s, about 8 s, apart.
+     * Anything slower goes into the last bucket.
+     */
+    private static final int BUCKET_COUNT = 24;
+    private static final double[] PERCENTILES = {0.5, 0.9, 0.99};
+
+    /**
+     * values() makes a new array on each call, so we keep our own.
+     */
+    private static final Timer[] TIMERS = Timer.values();
+    private static final Counter[] COUNTERS = Counter.values();
+
+    private static final AtomicLongArray COUNTS = new AtomicLongArray(TIMERS.length);
+    private static final AtomicLongArray TOTAL_NANOS = new AtomicLongArray(TIMERS.length);
+    private static final AtomicLongArray MAX_NANOS = new AtomicLongArray(TIMERS.length);
+    private static final AtomicLongArray BUCKETS = new AtomicLongArray(TIMERS.length * BUCKET_COUNT);
+    private static final AtomicLongArray COUNTER_VALUES = new AtomicLongArray(COUNTERS.length);
+
+    private static ScheduledExecutorService summaryExecutor;
+
+    private Metrics() {
+    }
+
+    /**
+     * @return the time to pass to stop() once the operation is done
+     */
+    static long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Record how long an operation took.
+     *
+     * @param timer      the operation
+     * @param startNanos what start() returned when the operation began
+     */
+    static void stop(@NonNull final Timer timer, final long startNanos) {
+        record(timer, System.nanoTime() - startNanos);
+    }
+
+    /**
+     * @param timer the operation
+     * @param nanos how long it took
+     */
+    static void record(@NonNull final Timer timer, final long nanos) {
+        final int index = timer.ordinal();
+        COUNTS.incrementAndGet(index);
+        TOTAL_NANOS.addAndGet(index, nanos);
+        BUCKETS.incrementAndGet(index * BUCKET_COUNT + toBucket(nanos));
+        long max = MAX_NANOS.get(index);
+        while (nanos > max && !MAX_NANOS.compareAndSet(index, max, nanos)) {
+            max = MAX_NANOS.get(index);
+        }
+    }
+
+    static void increment(@NonNull final Counter counter) {
+        COUNTER_VALUES.incrementAndGet(counter.ordinal());
+    }
+
+    static void add(@NonNull final Counter counter, final long delta) {
+        COUNTER_VALUES.addAndGet(counter.ordinal(), delta);
+    }
+
+    /**
+     * @param timer an operation
+     * @return how many times the operation was recorded since the last reset
+     */
+    static long getCount(@NonNull final Timer timer) {
+        return COUNTS.get(timer.ordinal());
+    }
+
+    /**
+     * @param counter a counter
+     * @return its value since the last reset
+     */
+    static long getCount(@NonNull final Counter counter) {
+        return COUNTER_VALUES.get(counter.ordinal());
+    }
+
+    /**
+     * @param timer      an operation
+     * @param percentile between 0 and 1, e.g. 0.99
+     * @return a latency, in nanoseconds, that at least that share of the recorded operations took no
+     * longer than; 0 if nothing was recorded
+     */
+    static long getPercentileNanos(@NonNull final Timer timer, final double percentile) {
+        final long count = COUNTS.get(timer.ordinal());
+        if (count == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(percentile * count));
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+            seen += BUCKETS.get(timer.ordinal() * BUCKET_COUNT + bucket);
+            if (seen >= rank) {
+                return toUpperBoundNanos(bucket);
+            }
+        }
+        return toUpperBoundNanos(BUCKET_COUNT - 1);
+    }
+
+    /**
+     * @return everything recorded since the last reset, e.g. "ADAPTER_BIND n=120 mean=0.08 ms
+     * p50<=0.07 ms p90<=0.13 ms p99<=0.26 ms max=0.21 ms, ..., TASKS_CHANGED 4"
+     */
+    @NonNull
+    static String getSummary() {
+        final StringBuilder summary = new StringBuilder("Metrics:");
+        for (Timer timer : TIMERS) {
+            final int index = timer.ordinal();
+            final long count = COUNTS.get(index);
+            if (count == 0) {
+                continue;
+            }
+            summary.append(' ').append(timer)
+                    .append(" n=").append(count)
+                    .append(" mean=").append(toMillis(TOTAL_NANOS.get(index) / count));
+            for (double percentile : PERCENTILES) {
+                summary.append(" p").append(Math.round(percentile * 100))
+                        .append("<=").append(toMillis(getPercentileNanos(timer, percentile)));
+            }
+            summary.append(" max=").append(toMillis(MAX_NANOS.get(index))).append(',');
+        }
+        for (Counter counter : COUNTERS) {
+            final long value = COUNTER_VALUES.get(counter.ordinal());
+            if (value != 0) {
+                summary.append(' ').append(counter).append(' ').append(value).append(',');
+            }
+        }
+        summary.setLength(summary.length() - 1);
+        return summary.toString();
+    }
+
+    /**
+     * Forget everything recorded so far.
+     */
+    static void reset() {
+        for (int i = 0; i < TIMERS.length; i++) {
+            COUNTS.set(i, 0);
+            TOTAL_NANOS.set(i, 0);
+            MAX_NANOS.set(i, 0);
+        }
+        for (int i = 0; i < BUCKETS.length(); i++) {
+            BUCKETS.set(i, 0);
+        }
+        for (int i = 0; i < COUNTER_VALUES.length(); i++) {
+            COUNTER_VALUES.set(i, 0);
+        }
+    }
+
+    /**
+     * Log a summary of each period and start the next one afresh.  Periods with nothing recorded
+     * aren't logged.  Calling this again changes nothing.
+     *
+     * @param period how often to log
+     * @param unit   the unit of period
+     */
+    static synchronized void startPeriodicSummary(final long period, @NonNull final TimeUnit unit) {
+        if (summaryExecutor != null) {
+            return;
+        }
+        summaryExecutor = Executors.newSingleThreadScheduledExecutor();
+        summaryExecutor.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                if (hasRecordedAnything()) {
+                    Log.i(TAG, getSummary());
+                    reset();
+                }
+            }
+        }, period, period, unit);
+    }
+
+    private static boolean hasRecordedAnything() {
+        for (int i = 0; i < COUNTS.length(); i++) {
+            if (COUNTS.get(i) != 0) {
+                return true;
+            }
+        }
+        for (int i = 0; i < COUNTER_VALUES.length(); i++) {
+            if (COUNTER_VALUES.get(i) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Bucket 0 holds anything under 1 &micro;s and bucket b anything from 2^(b - 1) up to 2^b
+     * &micro;s.
+     */
+    private static int toBucket(final long nanos) {
+        final long micros = nanos / 1000;
+        return Math.min(BUCKET_COUNT - 1, 64 - Long.numberOfLeadingZeros(Math.max(0, micros)));
+    }
+
+    private static long toUpperBoundNanos(final int bucket) {
+        return (1L << bucket) * 1000;
+    }
+
+    @NonNull
+    private static String toMillis(final long nanos) {
+        return String.format(Locale.US, "%.2f ms", nanos / 1000000.0);
+    }
+}
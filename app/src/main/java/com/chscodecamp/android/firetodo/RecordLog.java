@@ -0,0 +1,170 @@
+package com.chscodecamp.android.firetodo;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.util.List;
+
+/**
+ * A file with one record per line.  Records are appended a few at a time, so the cost of a write
+ * depends on the number of records written rather than the size of the file, and now and then the
+ * whole file is replaced, e.g. to compact it.  A replacement is written to a temporary file which
+ * then takes the log's place in a single rename, so a crash leaves either the old log or the new one
+ * but never half of either.  Every write reaches the disk before it returns.
+ * <p>
+ * Not thread safe: all calls for one log must be made on the same thread, e.g. a single thread
+ * executor of its owner's.
+ */
+class RecordLog {
+
+    private static final String TAG = RecordLog.class.getSimpleName();
+    private static final String REPLACEMENT_FILE_SUFFIX = ".tmp";
+    private final File file;
+    private final File replacementFile;
+
+    /**
+     * Whether a record cut short by a crash has been cut off the end of the log.
+     */
+    private boolean tailChecked;
+
+    RecordLog(@NonNull final File file) {
+        this.file = file;
+        this.replacementFile = new File(file.getPath() + REPLACEMENT_FILE_SUFFIX);
+    }
+
+    /**
+     * Hand every record in the log to a reader, in the order they were written.  A log that doesn't
+     * exist yet has no records.  A torn last record is handed over too, and is cut off before the
+     * log is appended to again.
+     *
+     * @param recordReader gets the records
+     * @throws IOException if the log cannot be read
+     */
+    void read(@NonNull final RecordReader recordReader) throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+            String record;
+            while ((record = reader.readLine()) != null) {
+                recordReader.onRecord(record);
+            }
+        } finally {
+            closeQuietly(reader);
+        }
+    }
+
+    /**
+     * Add records to the end of the log with a single write.
+     *
+     * @param records the records, none of which may contain a '\n'
+     * @throws IOException if the records could not be written
+     */
+    void append(@NonNull final List<String> records) throws IOException {
+        cutOffTornRecord();
+        write(file, true, records);
+    }
+
+    /**
+     * Replace every record in the log.
+     *
+     * @param records the records, none of which may contain a '\n'
+     * @throws IOException if the log could not be replaced; it is then left as it was
+     */
+    void replace(@NonNull final List<String> records) throws IOException {
+        write(replacementFile, false, records);
+        if (!replacementFile.renameTo(file)) {
+            throw new IOException("Could not rename " + replacementFile + " to " + file);
+        }
+        tailChecked = true;
+    }
+
+    @NonNull
+    File getFile() {
+        return file;
+    }
+
+    /**
+     * A crash while a record was being appended can leave the log without a '\n' at the end.  The
+     * next record would then be appended to the same line and be unreadable along with the torn one
+     * every time the log is read, so before we first append to the log we cut it back to the end of
+     * its last complete record.
+     */
+    private void cutOffTornRecord() throws IOException {
+        if (tailChecked) {
+            return;
+        }
+        if (file.exists()) {
+            final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+            try {
+                final long length = randomAccessFile.length();
+                long end = length;
+                while (end > 0) {
+                    randomAccessFile.seek(end - 1);
+                    if (randomAccessFile.read() == '\n') {
+                        break;
+                    }
+                    end--;
+                }
+                if (end < length) {
+                    Log.w(TAG, "Cutting off a record that was cut short, " + (length - end) + " bytes, in " + file);
+                    randomAccessFile.setLength(end);
+                    randomAccessFile.getFD().sync();
+                }
+            } finally {
+                closeQuietly(randomAccessFile);
+            }
+        }
+        tailChecked = true;
+    }
+
+    /**
+     * Write records, one per line, and make sure they reach the disk before returning.
+     */
+    private static void write(@NonNull final File file, final boolean append, @NonNull final List<String> records) throws IOException {
+        final FileOutputStream outputStream = new FileOutputStream(file, append);
+        Writer writer = null;
+        try {
+            writer = new BufferedWriter(new OutputStreamWriter(outputStream, "UTF-8"));
+            for (String record : records) {
+                writer.write(record);
+                writer.write('\n');
+            }
+            writer.flush();
+            outputStream.getFD().sync();
+        } finally {
+            closeQuietly(writer != null ? writer : outputStream);
+        }
+    }
+
+    private static void closeQuietly(@Nullable final Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+                // Nothing more we can do
+            }
+        }
+    }
+
+    /**
+     * Gets the records of a log as it is read.
+     */
+    interface RecordReader {
+        void onRecord(@NonNull String record);
+    }
+}
@@ -0,0 +1,314 @@
+package com.chscodecamp.android.firetodo;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Stores our tasks in a SQLite table with one row per Task.  Saving a change updates only the rows
+ * of the Tasks that changed, so the cost of a save depends on the size of the change rather than the
+ * size of the list.
+ * <p>
+ * Rows are read back in creation order, which is the order of the table's integer primary key.  An
+ * index on the completed state (and creation order within it) lets queries that only care about
+ * completed or incomplete tasks skip the rest of the table.
+ */
+class SQLiteStateManager extends BaseStateManager {
+
+    private static final String DATABASE_NAME = "tasks.db";
+    private static final int DATABASE_VERSION = 1;
+
+    static final String TABLE_TASKS = "tasks";
+    static final String COLUMN_ROW_ID = "_id";
+    static final String COLUMN_ID = "id";
+    static final String COLUMN_TITLE = "title";
+    static final String COLUMN_COMPLETED = "completed";
+
+    private static final String SQL_UPDATE_TASK = "UPDATE " + TABLE_TASKS + " SET " + COLUMN_TITLE + " = ?, " + COLUMN_COMPLETED + " = ? WHERE " + COLUMN_ID + " = ?";
+    private static final String SQL_INSERT_TASK = "INSERT INTO " + TABLE_TASKS + " (" + COLUMN_TITLE + ", " + COLUMN_COMPLETED + ", " + COLUMN_ID + ") VALUES (?, ?, ?)";
+    private static final String SQL_DELETE_TASK = "DELETE FROM " + TABLE_TASKS + " WHERE " + COLUMN_ID + " = ?";
+
+    /**
+     * All writes happen one at a time on this thread so the UI never waits on the disk.
+     */
+    private static final ExecutorService PERSISTENCE_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    private final OpenHelper openHelper;
+
+    SQLiteStateManager(@NonNull final Context context, final int dataSchemaVersion) {
+        super(context, dataSchemaVersion);
+        openHelper = new OpenHelper(context);
+        migratePendingTasks(context);
+    }
+
+    /**
+     * Replace every row with the given list.
+     *
+     * @param taskList the list of Tasks to be saved.
+     */
+    @Override
+    public void saveTasks(@NonNull final List<Task> taskList) {
+        final List<Row> rows = toRows(taskList);
+        PERSISTENCE_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                replaceAll(rows);
+            }
+        });
+    }
+
+    /**
+     * Update the row of each Task that changed, adding a row for Tasks that are new and deleting
+     * the rows of Tasks that were removed, all in one transaction.  The rows are copied right away
+     * so they hold the Tasks as they are now, even if they change again before they are written.
+     *
+     * @param changeSet the Tasks that changed
+     * @param taskList  the complete list of Tasks, not needed since we never rewrite the table
+     */
+    @Override
+    public void saveTaskChanges(@NonNull final TaskChangeSet changeSet, @NonNull final List<Task> taskList) {
+        if (changeSet.isEmpty()) {
+            return;
+        }
+        final List<Row> rows = toRows(changeSet.getUpdatedTasks());
+        final List<String> removedIds = new ArrayList<>(changeSet.getRemovedTaskIds());
+        PERSISTENCE_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                writeChanges(rows, removedIds);
+            }
+        });
+    }
+
+    /**
+     * Wait until every save has been written.
+     */
+    @Override
+    public void flush() {
+        try {
+            PERSISTENCE_EXECUTOR.submit(new Runnable() {
+                @Override
+                public void run() {
+                }
+            }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * Add or update the rows of a batch of migrated tasks in one transaction and wait until it is
+     * committed.
+     *
+     * @param batch the tasks to write
+     */
+    @Override
+    public void commitMigratedTasks(@NonNull final List<Task> batch) {
+        final List<Row> rows = toRows(batch);
+        try {
+            PERSISTENCE_EXECUTOR.submit(new Runnable() {
+                @Override
+                public void run() {
+                    writeChanges(rows, Collections.<String>emptyList());
+                }
+            }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while writing migrated tasks.", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Migrated tasks could not be written.", e.getCause());
+        }
+    }
+
+    /**
+     * Get our tasks from the table in creation order.
+     */
+    @Override
+    public void loadTasks() {
+
+        /**
+         * Make sure we read back anything that was saved but not yet written.
+         */
+        flush();
+
+        final List<Task> taskList = readTasks();
+
+        /**
+         * If the table is empty then add default tasks so our user has something to see when they
+         * launch the app.  Save them right away since later saves only write the tasks that changed.
+         */
+        if (taskList.isEmpty()) {
+            createDefaultEntries(taskList);
+            saveTasks(taskList);
+        }
+
+        /**
+         * After this method completes we will have update our taskList and we need to tell
+         * the adapter to refresh its dataset so they can be displayed on the screen.
+         */
+        if (dataSetChangedListener != null) {
+            dataSetChangedListener.onDataSetChanged(taskList);
+        }
+    }
+
+    /**
+     * Read every row in creation order.  The cursor hands us the rows a window at a time and we
+     * look up the column indexes once instead of once per row.
+     */
+    @NonNull
+    private List<Task> readTasks() {
+        final Cursor cursor = openHelper.getReadableDatabase().query(TABLE_TASKS,
+                new String[]{COLUMN_ID, COLUMN_TITLE, COLUMN_COMPLETED},
+                null, null, null, null, COLUMN_ROW_ID);
+        try {
+            final List<Task> taskList = new ArrayList<>(cursor.getCount());
+            final int idIndex = cursor.getColumnIndexOrThrow(COLUMN_ID);
+            final int titleIndex = cursor.getColumnIndexOrThrow(COLUMN_TITLE);
+            final int completedIndex = cursor.getColumnIndexOrThrow(COLUMN_COMPLETED);
+            while (cursor.moveToNext()) {
+                taskList.add(new Task(cursor.getString(idIndex), cursor.getString(titleIndex), cursor.getInt(completedIndex) != 0));
+            }
+            return taskList;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Runs on our persistence thread.  Deleting and inserting inside one transaction means a crash
+     * leaves either the old rows or the new ones but never a mix.
+     */
+    private void replaceAll(@NonNull final List<Row> rows) {
+        final SQLiteDatabase database = openHelper.getWritableDatabase();
+        database.beginTransaction();
+        try {
+            database.delete(TABLE_TASKS, null, null);
+            final SQLiteStatement insert = database.compileStatement(SQL_INSERT_TASK);
+            try {
+                for (Row row : rows) {
+                    row.bind(insert);
+                    insert.executeInsert();
+                }
+            } finally {
+                insert.close();
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    /**
+     * Runs on our persistence thread.  Most changes are edits to a Task we already have, so we try
+     * the one-row UPDATE first and only INSERT when no row matched.  INSERT OR REPLACE would be
+     * shorter but it deletes the old row, which would move the Task to the end of the creation order.
+     */
+    private void writeChanges(@NonNull final List<Row> rows, @NonNull final List<String> removedIds) {
+        final SQLiteDatabase database = openHelper.getWritableDatabase();
+        database.beginTransaction();
+        try {
+            final SQLiteStatement update = database.compileStatement(SQL_UPDATE_TASK);
+            final SQLiteStatement insert = database.compileStatement(SQL_INSERT_TASK);
+            final SQLiteStatement delete = database.compileStatement(SQL_DELETE_TASK);
+            try {
+                for (Row row : rows) {
+                    row.bind(update);
+                    if (update.executeUpdateDelete() == 0) {
+                        row.bind(insert);
+                        insert.executeInsert();
+                    }
+                }
+                for (String id : removedIds) {
+                    delete.clearBindings();
+                    delete.bindString(1, id);
+                    delete.executeUpdateDelete();
+                }
+            } finally {
+                update.close();
+                insert.close();
+                delete.close();
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    @NonNull
+    private static List<Row> toRows(@NonNull final Iterable<Task> tasks) {
+        final List<Row> rows = new ArrayList<>();
+        for (Task task : tasks) {
+            rows.add(new Row(task));
+        }
+        return rows;
+    }
+
+    /**
+     * A copy of the columns of one Task.  Both statements take the title, the completed state and
+     * the id in that order so a Row can be bound to either.
+     */
+    private static class Row {
+        private final String id;
+        private final String title;
+        private final boolean completed;
+
+        Row(@NonNull final Task task) {
+            id = task.getId();
+            title = task.getTitle();
+            completed = task.getCompleted();
+        }
+
+        void bind(@NonNull final SQLiteStatement statement) {
+            statement.clearBindings();
+            if (title == null) {
+                statement.bindNull(1);
+            } else {
+                statement.bindString(1, title);
+            }
+            statement.bindLong(2, completed ? 1 : 0);
+            statement.bindString(3, id);
+        }
+    }
+
+    /**
+     * Creates the table the first time it is opened.  Future changes to the table bump
+     * DATABASE_VERSION and are handled in onUpgrade().
+     */
+    private static class OpenHelper extends SQLiteOpenHelper {
+
+        OpenHelper(@NonNull final Context context) {
+            super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        }
+
+        @Override
+        public void onCreate(final SQLiteDatabase db) {
+            /**
+             * AUTOINCREMENT keeps row ids from being reused, so a new row always sorts after every
+             * existing one and the primary key doubles as our creation order.
+             */
+            db.execSQL("CREATE TABLE " + TABLE_TASKS + " ("
+                    + COLUMN_ROW_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                    + COLUMN_ID + " TEXT NOT NULL UNIQUE, "
+                    + COLUMN_TITLE + " TEXT, "
+                    + COLUMN_COMPLETED + " INTEGER NOT NULL DEFAULT 0)");
+            db.execSQL("CREATE INDEX index_" + TABLE_TASKS + "_" + COLUMN_COMPLETED + " ON " + TABLE_TASKS
+                    + " (" + COLUMN_COMPLETED + ", " + COLUMN_ROW_ID + ")");
+        }
+
+        @Override
+        public void onUpgrade(final SQLiteDatabase db, final int oldVersion, final int newVersion) {
+        }
+    }
+}
@@ -4,60 +4,136 @@ import android.annotation.SuppressLint;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 
-import com.google.gson.Gson;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 
+import java.io.IOException;
+import java.io.StringReader;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
-import hugo.weaving.DebugLog;
-
-@DebugLog
 class SharedPreferenceStateManager extends BaseStateManager {
 
     private static final String SAVED_TASKS = "savedTasks";
+
+    /**
+     * How long we wait for more changes before writing.  Every change within this window ends up
+     * in a single write.
+     */
+    private static final long WRITE_DELAY_MS = 250;
+
+    /**
+     * All writes happen one at a time on this thread so the UI never waits on the disk.
+     */
+    private static final ScheduledExecutorService PERSISTENCE_EXECUTOR = Executors.newSingleThreadScheduledExecutor();
+
+    private final Object writeLock = new Object();
+    private final Runnable writePendingTasks = new Runnable() {
+        @Override
+        public void run() {
+            writePendingTasks();
+        }
+    };
+    private final long writeDelayMs;
     private SharedPreferences sharedPreferences;
+    private List<Task> pendingTasks;
+    private ScheduledFuture<?> scheduledWrite;
 
     SharedPreferenceStateManager(@NonNull Context context, int dataSchemaVersion) {
+        this(context, dataSchemaVersion, WRITE_DELAY_MS);
+    }
+
+    /**
+     * @param writeDelayMs how long to wait for more changes before writing, e.g. longer than a test
+     *                     takes so only flush() writes
+     */
+    SharedPreferenceStateManager(@NonNull Context context, int dataSchemaVersion, long writeDelayMs) {
         super(context, dataSchemaVersion);
+        this.writeDelayMs = writeDelayMs;
         sharedPreferences = context.getSharedPreferences(context.getPackageName(), Context.MODE_PRIVATE);
+        migratePendingTasks(context);
     }
 
     /**
-     * Save our tasks to our long term storage solution.
+     * Save our tasks to our long term storage solution.  The write happens shortly afterwards on a
+     * background thread.  If more saves arrive in the meantime only the latest list is written.
      *
      * @param taskList the list of Tasks to be saved.
      */
-    @SuppressLint("CommitPrefEdits")
     @Override
     public void saveTasks(@NonNull List<Task> taskList) {
-        sharedPreferences.edit().putString(SAVED_TASKS, new Gson().toJson(taskList)).commit();
+        synchronized (writeLock) {
+            /**
+             * Copy the list since the caller keeps changing it.  The Tasks themselves are shared so
+             * a Task changed before the write happens is written with its newest state, which its
+             * own save would have written anyway.
+             */
+            pendingTasks = new ArrayList<>(taskList);
+            if (scheduledWrite == null) {
+                scheduledWrite = PERSISTENCE_EXECUTOR.schedule(writePendingTasks, writeDelayMs, TimeUnit.MILLISECONDS);
+            }
+        }
     }
 
     /**
-     * Get our tasks from our long term storage solution.
+     * Write any saved tasks that are still waiting and wait for the write to finish.  Call this
+     * when the app is about to go into the background.
+     * <p>
+     * This blocks the calling thread, which is the main thread from onPause() and loadTasks(), on
+     * the disk.  Saves are coalesced so the wait is for at most two writes of the list: one that
+     * may already be running and the newest one.  We accept that since onPause() is the last
+     * callback we are guaranteed before our process may be killed, and loadTasks() only waits
+     * when a list that is still being written is loaded again.
      */
     @Override
-    public void loadTasks() {
+    public void flush() {
+        synchronized (writeLock) {
+            if (scheduledWrite != null) {
+                scheduledWrite.cancel(false);
+            }
+        }
+        try {
+            PERSISTENCE_EXECUTOR.submit(writePendingTasks).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
 
-        /**
-         * Create an empty list of tasks that we will pass back.  This ensures that we're never
-         * working with a null task list.
-         */
-        final List<Task> taskList = new ArrayList<>();
+    /**
+     * Runs on our persistence thread.  commit() writes to disk synchronously which is fine here
+     * and lets a flush() know the tasks are really stored.
+     */
+    @SuppressLint("CommitPrefEdits")
+    private void writePendingTasks() {
+        final List<Task> taskList;
+        synchronized (writeLock) {
+            taskList = pendingTasks;
+            pendingTasks = null;
+            scheduledWrite = null;
+        }
+        if (taskList != null) {
+            sharedPreferences.edit().putString(SAVED_TASKS, TaskCodec.toJson(taskList)).commit();
+        }
+    }
 
-        /**
-         * Get our Tasks from shared preferences and store them in an array.
-         */
-        Task[] savedTasks = new Gson().fromJson(sharedPreferences.getString(SAVED_TASKS, null), Task[].class);
+    /**
+     * Get our tasks from our long term storage solution.
+     */
+    @Override
+    public void loadTasks() {
 
-        /**
-         * If we managed to get tasks from shared preferences then add them to our task list.
-         */
-        if (savedTasks != null && savedTasks.length > 0) {
-            taskList.addAll(Arrays.asList(savedTasks));
-        }
+        final List<Task> taskList = readSavedTasks();
 
         /**
          * If the list is empty after processing all database entries then add default
@@ -77,9 +153,136 @@ class SharedPreferenceStateManager extends BaseStateManager {
     }
 
     /**
-     * Remove all saved tasks from SharedPreferences.
+     * Get our Tasks from shared preferences.  TaskCodec reads them straight out of the stored JSON
+     * one at a time and always gives us a list, even if nothing was saved.
+     *
+     * @return the saved Tasks
+     */
+    @NonNull
+    List<Task> readSavedTasks() {
+        flush();
+        try {
+            return TaskCodec.fromJson(sharedPreferences.getString(SAVED_TASKS, null));
+        } catch (IOException e) {
+            throw new RuntimeException("Saved tasks could not be read.", e);
+        }
+    }
+
+    /**
+     * Add the migrated tasks to the saved list, or replace the saved Tasks with the same id.  All our
+     * tasks live in a single value so the whole list is read and written each time; we ask for
+     * every migrated task in a single batch so that only happens once.
+     *
+     * @param batch the tasks to write
+     */
+    @SuppressLint("CommitPrefEdits")
+    @Override
+    public void commitMigratedTasks(@NonNull final List<Task> batch) {
+        final List<Task> taskList = readSavedTasks();
+        final Map<String, Integer> positionsById = new HashMap<>();
+        for (int i = 0; i < taskList.size(); i++) {
+            positionsById.put(taskList.get(i).getId(), i);
+        }
+        for (Task task : batch) {
+            final Integer position = positionsById.get(task.getId());
+            if (position == null) {
+                positionsById.put(task.getId(), taskList.size());
+                taskList.add(task);
+            } else {
+                taskList.set(position, task);
+            }
+        }
+        sharedPreferences.edit().putString(SAVED_TASKS, TaskCodec.toJson(taskList)).commit();
+    }
+
+    /**
+     * This store doesn't stream: writing any batch rewrites the whole list, so a migration into it
+     * holds every task in memory at once, just as loading the list does.
+     *
+     * @return a batch size larger than any list
+     */
+    @Override
+    public int getMigrationBatchSize() {
+        return Integer.MAX_VALUE;
+    }
+
+    /**
+     * Read the task list version 1 left in SharedPreferences, one Task at a time, so it can be
+     * moved to another store.
+     *
+     * @param context our application context
+     * @return the source for TaskMigration
+     */
+    @NonNull
+    static TaskMigration.Source openMigrationSource(@NonNull final Context context) {
+        return new MigrationSource(context.getSharedPreferences(context.getPackageName(), Context.MODE_PRIVATE));
+    }
+
+    /**
+     * Streams the saved JSON array.  Version 1 saved Tasks without ids so each of those is given
+     * the id of its position, which stays the same however often the list is read.
      */
-    void deleteAllTasks() {
-        sharedPreferences.edit().remove(SAVED_TASKS).apply();
+    private static class MigrationSource implements TaskMigration.Source {
+        private final SharedPreferences sharedPreferences;
+        private final JsonReader in;
+        private boolean started;
+        private boolean finished;
+        private int position;
+
+        MigrationSource(@NonNull final SharedPreferences sharedPreferences) {
+            this.sharedPreferences = sharedPreferences;
+            final String json = sharedPreferences.getString(SAVED_TASKS, null);
+            this.in = json == null || json.isEmpty() ? null : new JsonReader(new StringReader(json));
+        }
+
+        @Nullable
+        @Override
+        public Task next() throws IOException {
+            if (in == null || finished) {
+                return null;
+            }
+            try {
+                if (!started) {
+                    started = true;
+                    if (in.peek() == JsonToken.NULL) {
+                        finished = true;
+                        return null;
+                    }
+                    in.beginArray();
+                }
+                while (in.hasNext()) {
+                    final Task task = TaskCodec.TYPE_ADAPTER.read(in);
+                    final int taskPosition = position++;
+                    if (task != null) {
+                        if (!task.hasId()) {
+                            task.restoreId(Task.legacyId(taskPosition));
+                        }
+                        return task;
+                    }
+                }
+            } catch (IllegalStateException e) {
+                // JsonReader reports JSON of the wrong shape this way
+                throw new IOException(e);
+            }
+            finished = true;
+            return null;
+        }
+
+        @Override
+        public void close() {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                    // Nothing more we can do
+                }
+            }
+        }
+
+        @SuppressLint("CommitPrefEdits")
+        @Override
+        public void delete() {
+            sharedPreferences.edit().remove(SAVED_TASKS).commit();
+        }
     }
 }
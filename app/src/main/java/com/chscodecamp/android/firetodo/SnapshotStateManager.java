@@ -0,0 +1,195 @@
+package com.chscodecamp.android.firetodo;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Wraps another TaskListStateManager so the list can be shown right away at startup.  Every time
+ * the wrapped storage loads or saves the list a binary TaskSnapshot of it is written to disk.  The
+ * next loadTasks() hands the snapshot to our listener first and then lets the wrapped storage load
+ * the real list, which replaces it as soon as it arrives.
+ * <p>
+ * The snapshot is only a cache: the wrapped storage always has the last word.  That is why it is
+ * written as soon as a save is handed on rather than once the wrapped storage confirms it: a
+ * Firebase write is only confirmed once we are online again, and a snapshot that waited for it
+ * would start an offline user with a list missing everything they did since.  If the app dies
+ * between the two writes the snapshot can be a little ahead of the wrapped storage, and the real
+ * list replaces it moments after it is shown.
+ */
+class SnapshotStateManager implements TaskListStateManager {
+
+    private static final String TAG = SnapshotStateManager.class.getSimpleName();
+    private static final String SNAPSHOT_FILE_NAME = "tasks.snapshot";
+    private static final String LIST_SNAPSHOT_FILE_NAME_FORMAT = "tasks-%s.snapshot";
+
+    /**
+     * How long we wait for more saves before writing the snapshot.  Every save within this window
+     * ends up in a single write.
+     */
+    private static final long WRITE_DELAY_MS = 250;
+
+    /**
+     * Snapshots are written one at a time on this thread so the UI never waits on the disk.
+     */
+    private static final ScheduledExecutorService SNAPSHOT_EXECUTOR = Executors.newSingleThreadScheduledExecutor();
+
+    private final TaskListStateManager taskListStateManager;
+    private final File snapshotFile;
+    private final int dataSchemaVersion;
+    private final Object writeLock = new Object();
+    private final Runnable writePendingSnapshot = new Runnable() {
+        @Override
+        public void run() {
+            writePendingSnapshot();
+        }
+    };
+    private DataSetChangedListener dataSetChangedListener;
+    /**
+     * The latest list, waiting to be written.  The lists we get never change once they are handed
+     * to us, so we keep a reference rather than a copy.
+     */
+    private List<Task> pendingTasks;
+    private boolean writeScheduled;
+
+    /**
+     * @param context              our application context
+     * @param listId               the id of our list in TaskLists; each list has a snapshot of its own
+     * @param taskListStateManager the storage that owns our tasks
+     * @param dataSchemaVersion    a snapshot written for any other version is ignored
+     */
+    SnapshotStateManager(@NonNull final Context context, @NonNull final String listId, @NonNull final TaskListStateManager taskListStateManager, final int dataSchemaVersion) {
+        this.taskListStateManager = taskListStateManager;
+        this.snapshotFile = new File(context.getFilesDir(), TaskLists.DEFAULT_LIST_ID.equals(listId)
+                ? SNAPSHOT_FILE_NAME
+                : String.format(Locale.US, LIST_SNAPSHOT_FILE_NAME_FORMAT, listId));
+        this.dataSchemaVersion = dataSchemaVersion;
+
+        /**
+         * The wrapped storage tells us about every list it loads so we can keep the snapshot up to
+         * date before passing the list along.
+         */
+        this.taskListStateManager.setDataSetChangedListener(new DataSetChangedListener() {
+            @Override
+            public void onDataSetChanged(@NonNull final List<Task> taskList) {
+                scheduleSnapshot(taskList);
+                if (dataSetChangedListener != null) {
+                    dataSetChangedListener.onDataSetChanged(taskList);
+                }
+            }
+        });
+    }
+
+    /**
+     * The wrapped storage already ran its upgrade when it was created.  A snapshot from an older
+     * schema is ignored because of the version in its header.
+     */
+    @Override
+    public void onUpgrade(@NonNull final Context context, final int newVersion, final int oldVersion) {
+        taskListStateManager.onUpgrade(context, newVersion, oldVersion);
+    }
+
+    @Override
+    public void saveTasks(@NonNull final List<Task> taskList) {
+        taskListStateManager.saveTasks(taskList);
+        scheduleSnapshot(taskList);
+    }
+
+    @Override
+    public void saveTaskChanges(@NonNull final TaskChangeSet changeSet, @NonNull final List<Task> taskList) {
+        taskListStateManager.saveTaskChanges(changeSet, taskList);
+        scheduleSnapshot(taskList);
+    }
+
+    /**
+     * Show the snapshot, if there is a usable one, and then load the real list.
+     */
+    @Override
+    public void loadTasks() {
+        final List<Task> snapshot = TaskSnapshot.read(snapshotFile, dataSchemaVersion);
+        if (snapshot != null && !snapshot.isEmpty() && dataSetChangedListener != null) {
+            dataSetChangedListener.onDataSetChanged(snapshot);
+        }
+        taskListStateManager.loadTasks();
+    }
+
+    /**
+     * Write anything still waiting in the wrapped storage and in the snapshot.
+     */
+    @Override
+    public void flush() {
+        taskListStateManager.flush();
+        try {
+            SNAPSHOT_EXECUTOR.submit(writePendingSnapshot).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * Close the wrapped storage and write the snapshot now instead of waiting for more saves.
+     */
+    @Override
+    public void close() {
+        taskListStateManager.close();
+        SNAPSHOT_EXECUTOR.execute(writePendingSnapshot);
+    }
+
+    @Override
+    public void setDataSetChangedListener(@NonNull final DataSetChangedListener listener) {
+        this.dataSetChangedListener = listener;
+    }
+
+    /**
+     * Changes made elsewhere go straight to the listener.  They end up in the snapshot with the
+     * next save.
+     */
+    @Override
+    public void setTaskChangedListener(@NonNull final TaskChangedListener listener) {
+        taskListStateManager.setTaskChangedListener(listener);
+    }
+
+    private void scheduleSnapshot(@NonNull final List<Task> taskList) {
+        synchronized (writeLock) {
+            /**
+             * Only the latest list is written.
+             */
+            pendingTasks = taskList;
+            if (writeScheduled) {
+                return;
+            }
+            writeScheduled = true;
+        }
+        SNAPSHOT_EXECUTOR.schedule(writePendingSnapshot, WRITE_DELAY_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Runs on our snapshot thread.
+     */
+    private void writePendingSnapshot() {
+        final List<Task> taskList;
+        synchronized (writeLock) {
+            taskList = pendingTasks;
+            pendingTasks = null;
+            writeScheduled = false;
+        }
+        if (taskList != null) {
+            try {
+                TaskSnapshot.write(snapshotFile, taskList, dataSchemaVersion);
+            } catch (IOException e) {
+                Log.e(TAG, "Could not write " + snapshotFile, e);
+            }
+        }
+    }
+}
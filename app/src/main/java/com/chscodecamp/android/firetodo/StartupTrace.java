@@ -0,0 +1,104 @@
+package com.chscodecamp.android.firetodo;
+
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import java.util.Arrays;
+
+/**
+ * Records how long each part of a cold start takes and logs a summary once the first frame is
+ * drawn.  Each phase keeps only its first begin and end, so phases that happen again later, e.g.
+ * the TaskManager being initialised again, don't disturb the startup numbers.
+ */
+final class StartupTrace {
+    private static final String TAG = StartupTrace.class.getSimpleName();
+    private static final long NOT_RECORDED = -1;
+
+    /**
+     * The parts of a cold start.  Every time is measured from the start of APPLICATION_CREATE.
+     */
+    enum Phase {
+        /**
+         * FireToDoApplication.onCreate() on the main thread.
+         */
+        APPLICATION_CREATE,
+        /**
+         * Creating the TaskListStateManager on the startup thread, including any upgrade.
+         */
+        STATE_MANAGER_CREATE,
+        /**
+         * BaseStateManager.onUpgrade(), if the data schema changed.
+         */
+        UPGRADE,
+        /**
+         * From the end of APPLICATION_CREATE until the open list's first tasks arrive and the
+         * TaskManager is ready, e.g. the first data from Firebase or a snapshot of it.
+         */
+        TASK_MANAGER_READY,
+        /**
+         * From the end of APPLICATION_CREATE until our Activity draws its first frame.
+         */
+        FIRST_FRAME
+    }
+
+    private static final long[] BEGIN_TIMES = new long[Phase.values().length];
+    private static final long[] END_TIMES = new long[Phase.values().length];
+    private static boolean summaryLogged;
+
+    static {
+        Arrays.fill(BEGIN_TIMES, NOT_RECORDED);
+        Arrays.fill(END_TIMES, NOT_RECORDED);
+    }
+
+    private StartupTrace() {
+    }
+
+    static synchronized void begin(@NonNull final Phase phase) {
+        if (BEGIN_TIMES[phase.ordinal()] == NOT_RECORDED) {
+            BEGIN_TIMES[phase.ordinal()] = SystemClock.uptimeMillis();
+        }
+    }
+
+    /**
+     * End a phase.  TASK_MANAGER_READY and FIRST_FRAME begin when the Application finishes being
+     * created, so they only ever need to be ended.  Ending FIRST_FRAME logs the summary.
+     */
+    static synchronized void end(@NonNull final Phase phase) {
+        if (END_TIMES[phase.ordinal()] != NOT_RECORDED) {
+            return;
+        }
+        END_TIMES[phase.ordinal()] = SystemClock.uptimeMillis();
+        if (phase == Phase.APPLICATION_CREATE) {
+            BEGIN_TIMES[Phase.TASK_MANAGER_READY.ordinal()] = END_TIMES[phase.ordinal()];
+            BEGIN_TIMES[Phase.FIRST_FRAME.ordinal()] = END_TIMES[phase.ordinal()];
+        } else if (phase == Phase.FIRST_FRAME && !summaryLogged) {
+            summaryLogged = true;
+            Log.i(TAG, getSummary());
+        }
+    }
+
+    /**
+     * @return how long each recorded phase took and when it ended, e.g.
+     * "APPLICATION_CREATE 12 ms (ended at 12 ms), ..."
+     */
+    @NonNull
+    static synchronized String getSummary() {
+        final long origin = BEGIN_TIMES[Phase.APPLICATION_CREATE.ordinal()];
+        final StringBuilder summary = new StringBuilder("Startup:");
+        for (Phase phase : Phase.values()) {
+            final long begin = BEGIN_TIMES[phase.ordinal()];
+            final long end = END_TIMES[phase.ordinal()];
+            if (begin == NOT_RECORDED || end == NOT_RECORDED) {
+                continue;
+            }
+            summary.append(' ').append(phase).append(' ').append(end - begin).append(" ms");
+            if (origin != NOT_RECORDED) {
+                summary.append(" (ended at ").append(end - origin).append(" ms)");
+            }
+            summary.append(',');
+        }
+        summary.setLength(summary.length() - 1);
+        return summary.toString();
+    }
+}
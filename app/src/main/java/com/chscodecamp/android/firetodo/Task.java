@@ -1,20 +1,118 @@
 package com.chscodecamp.android.firetodo;
 
+import android.support.annotation.NonNull;
+
+import java.util.Locale;
+import java.util.Random;
+
 /**
  * Our Task Object.  This will hold all the things we wish to track with regards to a Task.
  */
 @SuppressWarnings("WeakerAccess")
 class Task {
+    private static final Random RANDOM = new Random();
+    private static long lastIdTime;
+    private static int lastIdSequence;
+
     public String title;
     public boolean completed;
 
+    /**
+     * The id is deliberately not public so Firebase does not store it inside the Task.  Firebase
+     * uses the id as the key of the Task's child node instead.
+     */
+    private String id;
+
+    /**
+     * When each field was last changed, as stamps from a TaskClock.  0 means the field hasn't been
+     * changed since the Task was stored by a version of the app without clocks.  They are kept out
+     * of the public fields like the id; TaskCodec stores them.
+     */
+    private long titleClock;
+    private long completedClock;
+
     public Task() {
     }
 
     Task(String title) {
+        this.id = newId();
         this.title = title;
     }
 
+    /**
+     * Re-create a stored Task without going through reflection.
+     *
+     * @param id        the id the Task was stored under, or null if it was stored without one
+     * @param title     the stored title
+     * @param completed the stored completed state
+     */
+    Task(String id, String title, boolean completed) {
+        this.id = id;
+        this.title = title;
+        this.completed = completed;
+    }
+
+    /**
+     * Re-create a stored Task along with when each of its fields was last changed.
+     *
+     * @param id             the id the Task was stored under, or null if it was stored without one
+     * @param title          the stored title
+     * @param completed      the stored completed state
+     * @param titleClock     the stamp of the last change to the title
+     * @param completedClock the stamp of the last change to the completed state
+     */
+    Task(String id, String title, boolean completed, long titleClock, long completedClock) {
+        this(id, title, completed);
+        this.titleClock = titleClock;
+        this.completedClock = completedClock;
+    }
+
+    /**
+     * Tasks saved by older versions of the app do not have an id so one is assigned the first
+     * time it is asked for.  From then on the id never changes.
+     *
+     * @return the id that uniquely identifies this Task
+     */
+    @NonNull
+    String getId() {
+        if (id == null) {
+            id = newId();
+        }
+        return id;
+    }
+
+    /**
+     * @return true if the Task was stored with an id or has already been given one
+     */
+    boolean hasId() {
+        return id != null;
+    }
+
+    /**
+     * An id for the Task at a position in a list saved before Tasks had ids.  The same position
+     * always gets the same id, so reading the list again, e.g. to resume an interrupted migration,
+     * does not create a second copy of the Task.  These ids sort before any id made for a new Task.
+     *
+     * @param position the Task's position in the saved list
+     * @return the id
+     */
+    @NonNull
+    static String legacyId(final int position) {
+        return String.format(Locale.US, "%012x%04x%08x", 0, 0, position);
+    }
+
+    /**
+     * Give a Task loaded from storage the id it was stored under, e.g. its Firebase child key.
+     *
+     * @param id the stored id
+     */
+    void restoreId(@NonNull String id) {
+        if (this.id != null && !this.id.equals(id)) {
+            throw new IllegalStateException("Task " + this.id + " may not be given a new id.");
+        }
+        this.id = id;
+    }
+
     String getTitle() {
         return title;
     }
@@ -32,7 +130,80 @@ class Task {
         this.completed = completed;
     }
 
-    @SuppressWarnings("SimplifiableIfStatement")
+    long getTitleClock() {
+        return titleClock;
+    }
+
+    long getCompletedClock() {
+        return completedClock;
+    }
+
+    /**
+     * Set the stamps of a Task that isn't shared yet, e.g. one just handed to TaskManager.
+     *
+     * @param titleClock     the stamp of the last change to the title
+     * @param completedClock the stamp of the last change to the completed state
+     */
+    void setClocks(long titleClock, long completedClock) {
+        this.titleClock = titleClock;
+        this.completedClock = completedClock;
+    }
+
+    /**
+     * @param task the Task to compare with
+     * @return true if both Tasks have the same content and each field was last changed by the same
+     * change
+     */
+    boolean hasSameState(@NonNull Task task) {
+        return hasSameContent(task) && titleClock == task.titleClock && completedClock == task.completedClock;
+    }
+
+    /**
+     * Merge two versions of the same Task field by field: each field keeps the value of whichever
+     * version changed it last.  Every device merges the same way, so devices that change different
+     * fields of a Task at the same time end up with both changes, and devices that change the same
+     * field end up with the same value.
+     * <p>
+     * Two different changes never have the same stamp.  Equal stamps with different values can
+     * only come from versions of the app without clocks, which stamp nothing; the remote value is
+     * then the newer one, so it wins.
+     *
+     * @param local  the version we have
+     * @param remote the version from somewhere else
+     * @return local or remote if it won every field, otherwise a new Task
+     */
+    @NonNull
+    static Task merge(@NonNull Task local, @NonNull Task remote) {
+        final boolean localTitle = local.titleClock > remote.titleClock;
+        final boolean localCompleted = local.completedClock > remote.completedClock;
+        if (localTitle && localCompleted) {
+            return local;
+        }
+        if (!localTitle && !localCompleted) {
+            return remote;
+        }
+        return new Task(remote.getId(),
+                localTitle ? local.title : remote.title,
+                localCompleted ? local.completed : remote.completed,
+                localTitle ? local.titleClock : remote.titleClock,
+                localCompleted ? local.completedClock : remote.completedClock);
+    }
+
+    /**
+     * Compare the parts of two Tasks that can change.
+     *
+     * @param task the Task to compare with
+     * @return true if both Tasks have the same title and completed state
+     */
+    boolean hasSameContent(@NonNull Task task) {
+        if (getCompleted() != task.getCompleted()) return false;
+        return getTitle() == null ? task.getTitle() == null : getTitle().equals(task.getTitle());
+    }
+
+    /**
+     * Two Tasks are the same Task when they have the same id.  The title and completed state can
+     * change so they are not part of the comparison.
+     */
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -40,15 +211,29 @@ class Task {
 
         Task task = (Task) o;
 
-        if (getCompleted() != task.getCompleted()) return false;
-        return getTitle().equals(task.getTitle());
-
+        return getId().equals(task.getId());
     }
 
     @Override
     public int hashCode() {
-        int result = getTitle().hashCode();
-        result = 31 * result + (getCompleted() ? 1 : 0);
-        return result;
+        return getId().hashCode();
+    }
+
+    /**
+     * Create an id that sorts in creation order, like a Firebase push id, so Tasks keyed by their
+     * id come back from the database in the order they were added.
+     *
+     * @return a new unique id
+     */
+    @NonNull
+    static synchronized String newId() {
+        long now = System.currentTimeMillis();
+        if (now > lastIdTime) {
+            lastIdTime = now;
+            lastIdSequence = 0;
+        } else {
+            lastIdSequence++;
+        }
+        return String.format(Locale.US, "%012x%04x%08x", lastIdTime, lastIdSequence & 0xffff, RANDOM.nextInt());
     }
 }
@@ -0,0 +1,157 @@
+package com.chscodecamp.android.firetodo;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The Tasks that changed since our last save.  Handing a TaskChangeSet to the TaskListStateManager
+ * lets it write only what changed instead of the whole task list, and lets it write many changes,
+ * e.g. a batch from TaskManager.beginBatch(), in a single write.
+ * <p>
+ * Each updated Task also says which of its fields changed, as TITLE and COMPLETED bits, so a
+ * database that stores the fields separately, like Firebase, can write just those.  A Task added
+ * without saying has changed in every field.
+ */
+class TaskChangeSet {
+    static final int TITLE = 1;
+    static final int COMPLETED = 2;
+    static final int ALL_FIELDS = TITLE | COMPLETED;
+
+    private final Map<String, Task> updatedTasks = new LinkedHashMap<>();
+    private final Map<String, Integer> changedFields = new HashMap<>();
+    private final Set<String> removedTaskIds = new LinkedHashSet<>();
+
+    /**
+     * Create a change set holding a single added or updated Task.
+     *
+     * @param task the Task that changed
+     * @return the new change set
+     */
+    @NonNull
+    static TaskChangeSet of(@NonNull final Task task) {
+        return of(task, ALL_FIELDS);
+    }
+
+    /**
+     * Create a change set holding a single Task of which only some fields changed.
+     *
+     * @param task          the Task that changed
+     * @param changedFields the fields that changed, e.g. from changedFields()
+     * @return the new change set
+     */
+    @NonNull
+    static TaskChangeSet of(@NonNull final Task task, final int changedFields) {
+        TaskChangeSet changeSet = new TaskChangeSet();
+        changeSet.addUpdatedTask(task, changedFields);
+        return changeSet;
+    }
+
+    /**
+     * The fields a change stamped are the ones whose clocks differ between the two versions.
+     *
+     * @param before the Task before the change
+     * @param after  the Task after the change
+     * @return the TITLE and COMPLETED bits of the fields that changed
+     */
+    static int changedFields(@NonNull final Task before, @NonNull final Task after) {
+        return (before.getTitleClock() != after.getTitleClock() ? TITLE : 0)
+                | (before.getCompletedClock() != after.getCompletedClock() ? COMPLETED : 0);
+    }
+
+    /**
+     * Record a Task that was added or updated.  A Task changed more than once is only written once.
+     *
+     * @param task the Task that changed
+     */
+    void addUpdatedTask(@NonNull final Task task) {
+        addUpdatedTask(task, ALL_FIELDS);
+    }
+
+    /**
+     * Record a Task of which only some fields changed.  A Task changed more than once is written
+     * once, with every field any of the changes made.
+     *
+     * @param task          the Task that changed
+     * @param changedFields the TITLE and COMPLETED bits of the fields that changed
+     */
+    void addUpdatedTask(@NonNull final Task task, final int changedFields) {
+        final Integer earlierFields = this.changedFields.get(task.getId());
+        removedTaskIds.remove(task.getId());
+        updatedTasks.put(task.getId(), task);
+        this.changedFields.put(task.getId(), earlierFields == null ? changedFields : earlierFields | changedFields);
+    }
+
+    /**
+     * @param id the id of an updated Task
+     * @return the TITLE and COMPLETED bits of the fields that changed, or 0 if the Task wasn't
+     * updated
+     */
+    int getChangedFields(@NonNull final String id) {
+        final Integer fields = changedFields.get(id);
+        return fields == null ? 0 : fields;
+    }
+
+    /**
+     * Say which fields of an updated Task changed once they are known, e.g. after the Task was
+     * stamped.
+     *
+     * @param id            the id of an updated Task
+     * @param changedFields the TITLE and COMPLETED bits of the fields that changed
+     */
+    void setChangedFields(@NonNull final String id, final int changedFields) {
+        this.changedFields.put(id, changedFields);
+    }
+
+    /**
+     * Record a Task that was removed.  Removing a Task cancels any update to it in the same change
+     * set.
+     *
+     * @param id the id of the Task that was removed
+     */
+    void addRemovedTask(@NonNull final String id) {
+        updatedTasks.remove(id);
+        changedFields.remove(id);
+        removedTaskIds.add(id);
+    }
+
+    @NonNull
+    Collection<Task> getUpdatedTasks() {
+        return updatedTasks.values();
+    }
+
+    @NonNull
+    Collection<String> getRemovedTaskIds() {
+        return removedTaskIds;
+    }
+
+    /**
+     * @param id the id of a Task
+     * @return the Task as it was added or updated, or null if it didn't change
+     */
+    @Nullable
+    Task getUpdatedTask(@NonNull final String id) {
+        return updatedTasks.get(id);
+    }
+
+    boolean isRemoved(@NonNull final String id) {
+        return removedTaskIds.contains(id);
+    }
+
+    /**
+     * @return the number of Tasks that were added, updated or removed
+     */
+    int size() {
+        return updatedTasks.size() + removedTaskIds.size();
+    }
+
+    boolean isEmpty() {
+        return updatedTasks.isEmpty() && removedTaskIds.isEmpty();
+    }
+}
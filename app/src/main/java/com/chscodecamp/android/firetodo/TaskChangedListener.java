@@ -0,0 +1,16 @@
+package com.chscodecamp.android.firetodo;
+
+import android.support.annotation.NonNull;
+
+/**
+ * This interface allows our classes that extend TaskListStateManager to notify the TaskManager
+ * about individual Tasks that changed in long term storage, e.g. on another device, without
+ * handing over the whole list again.
+ */
+interface TaskChangedListener {
+    void onTaskAdded(@NonNull final Task task);
+
+    void onTaskChanged(@NonNull final Task task);
+
+    void onTaskRemoved(@NonNull final String id);
+}
@@ -0,0 +1,52 @@
+package com.chscodecamp.android.firetodo;
+
+import android.support.annotation.NonNull;
+
+import java.util.Random;
+
+/**
+ * A Lamport clock that stamps changes to the fields of a Task so every device agrees which of two
+ * changes to a field came last.  A stamp is a counter followed by NODE_BITS bits that tell devices
+ * apart: the counter goes past every stamp this device has seen, so a change made after seeing
+ * another one always gets a larger stamp, and two changes made without seeing each other are
+ * ordered by their counters and then by their devices.
+ * <p>
+ * Nothing has to be stored: the counter catches up with the stamps in the list as soon as it is
+ * loaded.  The node bits are picked at random for each run of the app, which is enough to break
+ * ties the same way everywhere.
+ */
+final class TaskClock {
+    private static final int NODE_BITS = 16;
+    private static final long NODE_MASK = (1L << NODE_BITS) - 1;
+
+    private final long node;
+    private long counter;
+
+    TaskClock() {
+        this(new Random().nextInt());
+    }
+
+    /**
+     * @param node tells this device's stamps apart; only the lowest NODE_BITS bits are used
+     */
+    TaskClock(final int node) {
+        this.node = node & NODE_MASK;
+    }
+
+    /**
+     * @return a stamp larger than every stamp made or seen so far
+     */
+    synchronized long tick() {
+        counter++;
+        return (counter << NODE_BITS) | node;
+    }
+
+    /**
+     * Catch up with the stamps of a Task made somewhere else.
+     *
+     * @param task a Task that was loaded or changed remotely
+     */
+    synchronized void observe(@NonNull final Task task) {
+        counter = Math.max(counter, Math.max(task.getTitleClock(), task.getCompletedClock()) >>> NODE_BITS);
+    }
+}
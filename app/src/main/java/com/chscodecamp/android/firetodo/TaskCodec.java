@@ -0,0 +1,240 @@
+package com.chscodecamp.android.firetodo;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Converts Tasks to and from the plain values our storage solutions work with.  Every field is
+ * mapped by hand so loading thousands of Tasks does not pay for reflection on each one.  Keep the
+ * field names in step with the public fields of Task; they are what older versions of the app
+ * stored.
+ */
+final class TaskCodec {
+    static final String FIELD_ID = "id";
+    static final String FIELD_TITLE = "title";
+    static final String FIELD_COMPLETED = "completed";
+    static final String FIELD_TITLE_CLOCK = "titleClock";
+    static final String FIELD_COMPLETED_CLOCK = "completedClock";
+
+    /**
+     * Reads and writes a single Task as a JSON object, field by field.  It understands the JSON
+     * that Gson produced by reflection in older versions of the app.  There is no state so one
+     * instance is shared by everybody.
+     */
+    static final TypeAdapter<Task> TYPE_ADAPTER = new TypeAdapter<Task>() {
+        @Override
+        public void write(JsonWriter out, Task task) throws IOException {
+            if (task == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            if (task.getTitle() != null) {
+                out.name(FIELD_TITLE).value(task.getTitle());
+            }
+            out.name(FIELD_COMPLETED).value(task.getCompleted());
+            out.name(FIELD_ID).value(task.getId());
+            if (task.getTitleClock() != 0) {
+                out.name(FIELD_TITLE_CLOCK).value(task.getTitleClock());
+            }
+            if (task.getCompletedClock() != 0) {
+                out.name(FIELD_COMPLETED_CLOCK).value(task.getCompletedClock());
+            }
+            out.endObject();
+        }
+
+        @Override
+        public Task read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            String id = null;
+            String title = null;
+            boolean completed = false;
+            long titleClock = 0;
+            long completedClock = 0;
+            in.beginObject();
+            while (in.hasNext()) {
+                final String name = in.nextName();
+                if (in.peek() == JsonToken.NULL) {
+                    in.nextNull();
+                } else if (FIELD_TITLE.equals(name)) {
+                    title = in.nextString();
+                } else if (FIELD_COMPLETED.equals(name)) {
+                    completed = in.nextBoolean();
+                } else if (FIELD_ID.equals(name)) {
+                    id = in.nextString();
+                } else if (FIELD_TITLE_CLOCK.equals(name)) {
+                    titleClock = in.nextLong();
+                } else if (FIELD_COMPLETED_CLOCK.equals(name)) {
+                    completedClock = in.nextLong();
+                } else {
+                    in.skipValue();
+                }
+            }
+            in.endObject();
+            return new Task(id, title, completed, titleClock, completedClock);
+        }
+    };
+
+    private TaskCodec() {
+    }
+
+    /**
+     * Write a list of Tasks as a JSON array without creating a Gson instance or using reflection.
+     *
+     * @param taskList the Tasks to write
+     * @return the JSON text
+     */
+    @NonNull
+    static String toJson(@NonNull final List<Task> taskList) {
+        final StringWriter stringWriter = new StringWriter(taskList.size() * 64 + 2);
+        final JsonWriter out = new JsonWriter(stringWriter);
+        try {
+            out.beginArray();
+            for (Task task : taskList) {
+                TYPE_ADAPTER.write(out, task);
+            }
+            out.endArray();
+            out.close();
+        } catch (IOException e) {
+            // A StringWriter never throws
+            throw new IllegalStateException(e);
+        }
+        return stringWriter.toString();
+    }
+
+    /**
+     * Read a JSON array of Tasks, one Task at a time.
+     *
+     * @param json the JSON text, may be null or empty if nothing was saved
+     * @return the Tasks, never null
+     * @throws IOException if the JSON is malformed
+     */
+    @NonNull
+    static List<Task> fromJson(@Nullable final String json) throws IOException {
+        final List<Task> taskList = new ArrayList<>();
+        if (json == null || json.isEmpty()) {
+            return taskList;
+        }
+        final JsonReader in = new JsonReader(new StringReader(json));
+        try {
+            if (in.peek() == JsonToken.NULL) {
+                return taskList;
+            }
+            in.beginArray();
+            while (in.hasNext()) {
+                final Task task = TYPE_ADAPTER.read(in);
+                if (task != null) {
+                    taskList.add(task);
+                }
+            }
+            in.endArray();
+        } finally {
+            in.close();
+        }
+        return taskList;
+    }
+
+    /**
+     * Every stored Task has a title and a completed state, so a stored value without both is only
+     * partly written: a field write that reached a Task after another device removed it, or our own
+     * field write shown before the rest of the Task has been loaded.
+     *
+     * @param value the stored value
+     * @return whether the value holds some fields of a Task but not all of them
+     */
+    static boolean isPartlyWritten(@Nullable final Object value) {
+        if (!(value instanceof Map)) {
+            return false;
+        }
+        final Map<?, ?> fields = (Map<?, ?>) value;
+        return !(fields.get(FIELD_TITLE) instanceof String) || !(fields.get(FIELD_COMPLETED) instanceof Boolean);
+    }
+
+    /**
+     * Turn a stored value, e.g. the raw value of a Firebase DataSnapshot, into a Task.  A value that
+     * isPartlyWritten() is not a Task.
+     *
+     * @param id    the key the Task was stored under
+     * @param value the stored value, which should be a Map of field name to value
+     * @return the Task or null if the value is not a Task
+     */
+    @Nullable
+    static Task fromMap(@Nullable final String id, @Nullable final Object value) {
+        if (!(value instanceof Map) || isPartlyWritten(value)) {
+            return null;
+        }
+        final Map<?, ?> fields = (Map<?, ?>) value;
+        final Object title = fields.get(FIELD_TITLE);
+        final Object completed = fields.get(FIELD_COMPLETED);
+        final Object titleClock = fields.get(FIELD_TITLE_CLOCK);
+        final Object completedClock = fields.get(FIELD_COMPLETED_CLOCK);
+        return new Task(id, (String) title, (Boolean) completed,
+                titleClock instanceof Number ? ((Number) titleClock).longValue() : 0,
+                completedClock instanceof Number ? ((Number) completedClock).longValue() : 0);
+    }
+
+    /**
+     * Turn a Task into the value we store for it.  The id is left out because it is the key the
+     * value is stored under.  A field's clock is only stored once the field has been changed, so a
+     * Task nobody changed is stored the way older versions stored it.
+     *
+     * @param task the Task to store
+     * @return a Map of field name to value
+     */
+    @NonNull
+    static Map<String, Object> toMap(@NonNull final Task task) {
+        final Map<String, Object> fields = new HashMap<>(8);
+        fields.put(FIELD_TITLE, task.getTitle());
+        fields.put(FIELD_COMPLETED, task.getCompleted());
+        if (task.getTitleClock() != 0) {
+            fields.put(FIELD_TITLE_CLOCK, task.getTitleClock());
+        }
+        if (task.getCompletedClock() != 0) {
+            fields.put(FIELD_COMPLETED_CLOCK, task.getCompletedClock());
+        }
+        return fields;
+    }
+
+    /**
+     * Add the writes for one Task to a multi-path update.  A removed Task, or one whose every field
+     * changed, e.g. a new one, is written whole under its id.  Otherwise only the fields that changed
+     * are written, each with its clock, as "id/title" and "id/titleClock" paths.  Every other field
+     * keeps whatever the database has, so a change to another field made somewhere else at the same
+     * time is never written over.
+     *
+     * @param childUpdates  the update to add to, child path to new value
+     * @param id            the id of the Task
+     * @param task          the Task, or null if it was removed
+     * @param changedFields the TaskChangeSet TITLE and COMPLETED bits of the fields that changed
+     */
+    static void putChildUpdates(@NonNull final Map<String, Object> childUpdates, @NonNull final String id, @Nullable final Task task, final int changedFields) {
+        if (task == null || changedFields == TaskChangeSet.ALL_FIELDS) {
+            childUpdates.put(id, task == null ? null : toMap(task));
+            return;
+        }
+        if ((changedFields & TaskChangeSet.TITLE) != 0) {
+            childUpdates.put(id + "/" + FIELD_TITLE, task.getTitle());
+            childUpdates.put(id + "/" + FIELD_TITLE_CLOCK, task.getTitleClock());
+        }
+        if ((changedFields & TaskChangeSet.COMPLETED) != 0) {
+            childUpdates.put(id + "/" + FIELD_COMPLETED, task.getCompleted());
+            childUpdates.put(id + "/" + FIELD_COMPLETED_CLOCK, task.getCompletedClock());
+        }
+    }
+}
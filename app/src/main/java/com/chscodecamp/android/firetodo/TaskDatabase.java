@@ -0,0 +1,80 @@
+package com.chscodecamp.android.firetodo;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The database that holds one user's Tasks, keyed by Task id.  FirebaseStateManager talks to the
+ * database through this interface so a local, in-process database can stand in for Firebase.
+ */
+interface TaskDatabase {
+
+    /**
+     * Replace every stored Task.
+     *
+     * @param tasks the Tasks keyed by their id, each converted with TaskCodec.toMap()
+     */
+    void setTasks(@NonNull final Map<String, Object> tasks);
+
+    /**
+     * Write only the given children.  Children that are not mentioned are left alone.
+     *
+     * @param childUpdates the new value for each child path, converted with TaskCodec.toMap()
+     */
+    void updateTasks(@NonNull final Map<String, Object> childUpdates);
+
+    /**
+     * Write only the given children and say when the server has them.
+     *
+     * @param childUpdates the new value for each child path, converted with TaskCodec.toMap()
+     * @param listener     told once the write is done or has failed
+     */
+    void updateTasks(@NonNull final Map<String, Object> childUpdates, @NonNull final WriteListener listener);
+
+    /**
+     * Follow whether the database can reach its server.  The listener is told the current state
+     * right away and again whenever it changes.
+     *
+     * @param listener told about the connection, or null to stop following it
+     */
+    void setConnectionListener(@Nullable final ConnectionListener listener);
+
+    /**
+     * Start listening to the stored Tasks.  The listener is given all the Tasks once and after that
+     * only the Tasks that were added, changed or removed.  Starting again stops the previous sync.
+     *
+     * @param listener told about the stored Tasks
+     */
+    void startSync(@NonNull final SyncListener listener);
+
+    /**
+     * Stop listening to the stored Tasks.
+     */
+    void stopSync();
+
+    interface SyncListener {
+        void onInitialTasks(@NonNull final List<Task> tasks);
+
+        void onTaskAdded(@NonNull final Task task);
+
+        void onTaskChanged(@NonNull final Task task);
+
+        void onTaskRemoved(@NonNull final String id);
+
+        void onCancelled(@NonNull final String message);
+    }
+
+    interface WriteListener {
+        /**
+         * @param errorMessage null if the write is done, otherwise why it failed
+         */
+        void onWriteComplete(@Nullable final String errorMessage);
+    }
+
+    interface ConnectionListener {
+        void onConnectionChanged(final boolean connected);
+    }
+}
@@ -0,0 +1,41 @@
+package com.chscodecamp.android.firetodo;
+
+import android.support.annotation.NonNull;
+import android.support.v7.util.DiffUtil;
+
+import java.util.List;
+
+/**
+ * Tells DiffUtil how to compare two snapshots of our task list.  Tasks are matched by their id so
+ * a Task whose title or completed state changed is reported as a change rather than a removal
+ * plus an insertion.
+ */
+class TaskDiffCallback extends DiffUtil.Callback {
+    private final List<Task> oldTasks;
+    private final List<Task> newTasks;
+
+    TaskDiffCallback(@NonNull final List<Task> oldTasks, @NonNull final List<Task> newTasks) {
+        this.oldTasks = oldTasks;
+        this.newTasks = newTasks;
+    }
+
+    @Override
+    public int getOldListSize() {
+        return oldTasks.size();
+    }
+
+    @Override
+    public int getNewListSize() {
+        return newTasks.size();
+    }
+
+    @Override
+    public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+        return oldTasks.get(oldItemPosition).getId().equals(newTasks.get(newItemPosition).getId());
+    }
+
+    @Override
+    public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+        return oldTasks.get(oldItemPosition).hasSameContent(newTasks.get(newItemPosition));
+    }
+}
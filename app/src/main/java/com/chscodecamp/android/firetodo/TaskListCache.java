@@ -0,0 +1,152 @@
+package com.chscodecamp.android.firetodo;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The loaded task lists, least recently used first.  The cache is bounded both by the number of
+ * lists and by roughly how much memory their tasks take, so one huge list can push out several
+ * small ones.  An evicted list is closed and its tasks are dropped; opening it again loads it from
+ * its state manager.
+ * <p>
+ * Hits, misses and evictions are counted so the limits can be tuned, e.g. on low-RAM devices.
+ * Only used on the main thread.
+ */
+final class TaskListCache {
+    private final Map<String, TaskManager> taskManagers = new LinkedHashMap<>(16, 0.75f, true);
+    private final int maxLists;
+    private final long maxBytes;
+    private int hitCount;
+    private int missCount;
+    private int evictionCount;
+
+    /**
+     * @param maxLists the most lists that stay loaded
+     * @param maxBytes roughly the most memory the tasks of the loaded lists may take.  The list in
+     *                 use is never evicted, so it may take more by itself.
+     */
+    TaskListCache(final int maxLists, final long maxBytes) {
+        this.maxLists = maxLists;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Look up a list to open it.  Counts as a hit or a miss and makes the list the most recently
+     * used.
+     *
+     * @param listId the id of the list
+     * @return the list's TaskManager, or null if the list isn't loaded
+     */
+    @Nullable
+    TaskManager get(@NonNull final String listId) {
+        final TaskManager taskManager = taskManagers.get(listId);
+        if (taskManager == null) {
+            missCount++;
+        } else {
+            hitCount++;
+        }
+        return taskManager;
+    }
+
+    /**
+     * Add a loaded list as the most recently used.  A list already loaded under the same id is
+     * replaced, not closed; that is up to the caller.
+     *
+     * @param listId      the id of the list
+     * @param taskManager the list's TaskManager
+     */
+    void put(@NonNull final String listId, @NonNull final TaskManager taskManager) {
+        taskManagers.put(listId, taskManager);
+    }
+
+    /**
+     * Take a list out of the cache without closing it or counting a hit or miss.
+     *
+     * @param listId the id of the list
+     * @return the list's TaskManager, or null if the list isn't loaded
+     */
+    @Nullable
+    TaskManager remove(@NonNull final String listId) {
+        return taskManagers.remove(listId);
+    }
+
+    /**
+     * Evict the lists used least recently until the cache is within its limits.  Call it after a
+     * list was added or grew.
+     *
+     * @param keep a list that must stay loaded, e.g. the one on screen, or null
+     */
+    void trimToSize(@Nullable final TaskManager keep) {
+        long bytes = getApproximateBytes();
+        final Iterator<TaskManager> iterator = taskManagers.values().iterator();
+        while ((taskManagers.size() > maxLists || bytes > maxBytes) && iterator.hasNext()) {
+            final TaskManager taskManager = iterator.next();
+            if (taskManager == keep) {
+                continue;
+            }
+            bytes -= taskManager.getApproximateBytes();
+            iterator.remove();
+            evict(taskManager);
+        }
+    }
+
+    /**
+     * Evict every list, e.g. because the system is running low on memory.
+     *
+     * @param keep a list that must stay loaded, e.g. the one on screen, or null
+     */
+    void evictAll(@Nullable final TaskManager keep) {
+        final Iterator<TaskManager> iterator = taskManagers.values().iterator();
+        while (iterator.hasNext()) {
+            final TaskManager taskManager = iterator.next();
+            if (taskManager != keep) {
+                iterator.remove();
+                evict(taskManager);
+            }
+        }
+    }
+
+    /**
+     * @return roughly how much memory the loaded lists take, in bytes
+     */
+    long getApproximateBytes() {
+        long bytes = 0;
+        for (TaskManager taskManager : taskManagers.values()) {
+            bytes += taskManager.getApproximateBytes();
+        }
+        return bytes;
+    }
+
+    int size() {
+        return taskManagers.size();
+    }
+
+    int getHitCount() {
+        return hitCount;
+    }
+
+    int getMissCount() {
+        return missCount;
+    }
+
+    int getEvictionCount() {
+        return evictionCount;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%d lists, ~%d KB, %d hits, %d misses, %d evictions",
+                taskManagers.size(), getApproximateBytes() / 1024, hitCount, missCount, evictionCount);
+    }
+
+    private void evict(@NonNull final TaskManager taskManager) {
+        evictionCount++;
+        Metrics.increment(Metrics.Counter.LISTS_EVICTED);
+        taskManager.close();
+    }
+}
@@ -0,0 +1,126 @@
+package com.chscodecamp.android.firetodo;
+
+import android.support.annotation.NonNull;
+import android.support.v7.util.ListUpdateCallback;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A diff between two snapshots of our task list found in a single pass over both lists.  Our lists
+ * mostly change in three ways: Tasks are changed in place, Tasks are removed and new Tasks are
+ * added to the end.  Walking both lists side by side finds exactly those changes in O(n) time,
+ * where DiffUtil may need O(n * d) time when d, the number of changes, is large, e.g. after
+ * "complete all" on a long list.
+ * <p>
+ * Neighbouring changes are merged into ranges, however many there are, so any two lists get a
+ * diff and the view never has to be refreshed as a whole.  There are no moves: a Task that moved
+ * is reported as a removal followed by an insertion at the end.  That is still correct, just not
+ * animated as a move, and getUpdateCount() lets the caller decide whether a short list is worth
+ * diffing again with DiffUtil, which finds moves.
+ */
+class TaskListDiff {
+    private static final int INSERT = 0;
+    private static final int REMOVE = 1;
+    private static final int CHANGE = 2;
+
+    private int[] types = new int[16];
+    private int[] positions = new int[16];
+    private int[] counts = new int[16];
+    private int updateCount;
+
+    private TaskListDiff() {
+    }
+
+    /**
+     * @param oldTasks the list on screen
+     * @param newTasks the list to show
+     * @return the changes that turn the old list into the new one
+     */
+    @NonNull
+    static TaskListDiff calculate(@NonNull final List<Task> oldTasks, @NonNull final List<Task> newTasks) {
+        final TaskListDiff diff = new TaskListDiff();
+        final int oldSize = oldTasks.size();
+        final int newSize = newTasks.size();
+        int oldPosition = 0;
+        int newPosition = 0;
+
+        /**
+         * newPosition is also where the old Task we're looking at is in the list as it is after
+         * the updates found so far, which is the position each update is reported at.
+         */
+        while (oldPosition < oldSize && newPosition < newSize) {
+            final Task oldTask = oldTasks.get(oldPosition);
+            final Task newTask = newTasks.get(newPosition);
+            if (oldTask.getId().equals(newTask.getId())) {
+                if (!oldTask.hasSameContent(newTask)) {
+                    diff.add(CHANGE, newPosition, 1);
+                }
+                newPosition++;
+            } else {
+                diff.add(REMOVE, newPosition, 1);
+            }
+            oldPosition++;
+        }
+        if (oldPosition < oldSize) {
+            diff.add(REMOVE, newPosition, oldSize - oldPosition);
+        }
+        if (newPosition < newSize) {
+            diff.add(INSERT, newPosition, newSize - newPosition);
+        }
+        return diff;
+    }
+
+    /**
+     * @return the number of ranges the changes are reported in
+     */
+    int getUpdateCount() {
+        return updateCount;
+    }
+
+    /**
+     * Report the changes in order.
+     *
+     * @param callback told about each range of changes
+     */
+    void dispatchUpdatesTo(@NonNull final ListUpdateCallback callback) {
+        for (int i = 0; i < updateCount; i++) {
+            switch (types[i]) {
+                case INSERT:
+                    callback.onInserted(positions[i], counts[i]);
+                    break;
+                case REMOVE:
+                    callback.onRemoved(positions[i], counts[i]);
+                    break;
+                case CHANGE:
+                    callback.onChanged(positions[i], counts[i], null);
+                    break;
+            }
+        }
+    }
+
+    private void add(final int type, final int position, final int count) {
+
+        /**
+         * Removing at the same position again or changing or inserting right after the last
+         * range just makes the last range longer.
+         */
+        if (updateCount > 0 && types[updateCount - 1] == type) {
+            final int last = updateCount - 1;
+            final int expectedPosition = type == REMOVE ? positions[last] : positions[last] + counts[last];
+            if (position == expectedPosition) {
+                counts[last] += count;
+                return;
+            }
+        }
+        if (updateCount == types.length) {
+            types = Arrays.copyOf(types, updateCount * 2);
+            positions = Arrays.copyOf(positions, updateCount * 2);
+            counts = Arrays.copyOf(counts, updateCount * 2);
+        }
+        types[updateCount] = type;
+        positions[updateCount] = position;
+        counts[updateCount] = count;
+        updateCount++;
+    }
+}
@@ -0,0 +1,234 @@
+package com.chscodecamp.android.firetodo;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * One version of our task list.  A snapshot never changes once it has been created, so any thread
+ * can read it, e.g. to calculate a diff or to save it, without locking and without ever seeing a
+ * half-made change.  Changing the list means creating a new snapshot with the next version number.
+ * <p>
+ * The Tasks are kept in a tree of small arrays: the leaves hold WIDTH Tasks each and every other
+ * node holds WIDTH children, so a position's path from the root is spelled by its digits in base
+ * WIDTH.  A new snapshot shares every node of the old one except those on the path it changes, so
+ * replacing or appending a Task copies a few arrays of WIDTH rather than the whole list, and the
+ * snapshots a reader still holds cost little memory.  Removing a Task moves every Task after it, so
+ * the leaves from there on are filled again; the ones before it are shared.
+ * <p>
+ * The Tasks in a snapshot are shared with older and newer snapshots, so they must not be changed
+ * either.  To change a Task create a new one with the same id.
+ * <p>
+ * Each snapshot also knows roughly how much memory its Tasks take.  It is kept up to date as the
+ * list changes so asking for it never walks the list.
+ */
+final class TaskListSnapshot extends AbstractList<Task> implements RandomAccess {
+    private static final int BITS = 5;
+    private static final int WIDTH = 1 << BITS;
+    private static final int MASK = WIDTH - 1;
+
+    static final TaskListSnapshot EMPTY = new TaskListSnapshot(0, new Object[WIDTH], 0, 0, 0);
+
+    /**
+     * What a Task costs apart from the characters of its id and title: the Task itself with its
+     * clocks, its two Strings and their char arrays, and the reference to it in our tree.
+     */
+    private static final int TASK_OVERHEAD_BYTES = 128;
+
+    private final long version;
+
+    /**
+     * The top node of the tree.  While the list fits in one leaf it is that leaf.
+     */
+    private final Object[] root;
+
+    /**
+     * How far a position is shifted right to find its child of the root; BITS for every level
+     * below the root.
+     */
+    private final int shift;
+    private final int size;
+    private final long approximateBytes;
+
+    private TaskListSnapshot(final long version, @NonNull final Object[] root, final int shift, final int size, final long approximateBytes) {
+        this.version = version;
+        this.root = root;
+        this.shift = shift;
+        this.size = size;
+        this.approximateBytes = approximateBytes;
+    }
+
+    /**
+     * @return roughly how many bytes of memory our Tasks take
+     */
+    long getApproximateBytes() {
+        return approximateBytes;
+    }
+
+    /**
+     * @param task a Task
+     * @return roughly how many bytes of memory the Task takes
+     */
+    static long approximateBytes(@NonNull final Task task) {
+        final String title = task.getTitle();
+        return TASK_OVERHEAD_BYTES + 2L * (task.getId().length() + (title == null ? 0 : title.length()));
+    }
+
+    /**
+     * @return a number that goes up by one with every change to the list
+     */
+    long getVersion() {
+        return version;
+    }
+
+    @Override
+    public Task get(final int position) {
+        if (position < 0 || position >= size) {
+            throw new IndexOutOfBoundsException("Position " + position + ", size " + size);
+        }
+        return (Task) leafFor(position)[position & MASK];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param taskList the Tasks of the new version
+     * @return a snapshot holding a copy of the list
+     */
+    @NonNull
+    TaskListSnapshot withTasks(@NonNull final List<Task> taskList) {
+        final List<Object[]> leaves = new ArrayList<>(taskList.size() / WIDTH + 1);
+        long bytes = 0;
+        Object[] leaf = null;
+        for (int i = 0; i < taskList.size(); i++) {
+            if ((i & MASK) == 0) {
+                leaf = new Object[WIDTH];
+                leaves.add(leaf);
+            }
+            final Task task = taskList.get(i);
+            leaf[i & MASK] = task;
+            bytes += approximateBytes(task);
+        }
+        return fromLeaves(version + 1, leaves, taskList.size(), bytes);
+    }
+
+    /**
+     * @param task the Task to add to the end of the list
+     * @return a snapshot with the Task added
+     */
+    @NonNull
+    TaskListSnapshot withTaskAppended(@NonNull final Task task) {
+        final long bytes = approximateBytes + approximateBytes(task);
+        if (size == WIDTH << shift) {
+
+            /**
+             * The tree is full, so it becomes the first child of a new root one level up.
+             */
+            final Object[] newRoot = new Object[WIDTH];
+            newRoot[0] = root;
+            newRoot[1] = withPosition(null, shift, 0, task);
+            return new TaskListSnapshot(version + 1, newRoot, shift + BITS, size + 1, bytes);
+        }
+        return new TaskListSnapshot(version + 1, withPosition(root, shift, size, task), shift, size + 1, bytes);
+    }
+
+    /**
+     * @param position the position to replace
+     * @param task     the Task that goes there
+     * @return a snapshot with the Task at the position replaced
+     */
+    @NonNull
+    TaskListSnapshot withTaskReplaced(final int position, @NonNull final Task task) {
+        final long bytes = approximateBytes - approximateBytes(get(position)) + approximateBytes(task);
+        return new TaskListSnapshot(version + 1, withPosition(root, shift, position, task), shift, size, bytes);
+    }
+
+    /**
+     * @param position the position to remove
+     * @return a snapshot without the Task at the position; every Task after it moves up one
+     */
+    @NonNull
+    TaskListSnapshot withTaskRemoved(final int position) {
+        final long bytes = approximateBytes - approximateBytes(get(position));
+        final int firstChangedLeaf = position >>> BITS;
+        final List<Object[]> leaves = new ArrayList<>((size - 1) / WIDTH + 1);
+        for (int i = 0; i < firstChangedLeaf; i++) {
+            leaves.add(leafFor(i << BITS));
+        }
+        Object[] leaf = null;
+        if ((position & MASK) != 0) {
+            leaf = new Object[WIDTH];
+            System.arraycopy(leafFor(position), 0, leaf, 0, position & MASK);
+            leaves.add(leaf);
+        }
+        for (int i = position; i < size - 1; i++) {
+            if ((i & MASK) == 0) {
+                leaf = new Object[WIDTH];
+                leaves.add(leaf);
+            }
+            leaf[i & MASK] = get(i + 1);
+        }
+        return fromLeaves(version + 1, leaves, size - 1, bytes);
+    }
+
+    @NonNull
+    private Object[] leafFor(final int position) {
+        Object[] node = root;
+        for (int level = shift; level > 0; level -= BITS) {
+            node = (Object[]) node[(position >>> level) & MASK];
+        }
+        return node;
+    }
+
+    /**
+     * Copy the path to a position, or make it if the position is past the end of the tree, and put
+     * a Task there.
+     *
+     * @param node  the node the path starts at, or null for a new one
+     * @param level the shift of the node's children
+     * @return the copy of the node
+     */
+    @NonNull
+    private static Object[] withPosition(@Nullable final Object[] node, final int level, final int position, @NonNull final Task task) {
+        final Object[] newNode = node == null ? new Object[WIDTH] : node.clone();
+        final int index = (position >>> level) & MASK;
+        if (level == 0) {
+            newNode[index] = task;
+        } else {
+            newNode[index] = withPosition((Object[]) newNode[index], level - BITS, position, task);
+        }
+        return newNode;
+    }
+
+    /**
+     * Build the nodes above full leaves, every leaf but the last holding WIDTH Tasks, up to a
+     * single root.
+     */
+    @NonNull
+    private static TaskListSnapshot fromLeaves(final long version, @NonNull final List<Object[]> leaves, final int size, final long approximateBytes) {
+        if (leaves.isEmpty()) {
+            return new TaskListSnapshot(version, new Object[WIDTH], 0, 0, 0);
+        }
+        List<Object[]> nodes = leaves;
+        int shift = 0;
+        while (nodes.size() > 1) {
+            final List<Object[]> parents = new ArrayList<>(nodes.size() / WIDTH + 1);
+            for (int i = 0; i < nodes.size(); i++) {
+                if ((i & MASK) == 0) {
+                    parents.add(new Object[WIDTH]);
+                }
+                parents.get(parents.size() - 1)[i & MASK] = nodes.get(i);
+            }
+            nodes = parents;
+            shift += BITS;
+        }
+        return new TaskListSnapshot(version, nodes.get(0), shift, size, approximateBytes);
+    }
+}
@@ -1,8 +1,43 @@
 package com.chscodecamp.android.firetodo;
 
+import android.support.annotation.NonNull;
+
 /**
  * The interface that will be called when our task list is updated such that we can notify our adapter.
  */
 interface TaskListStateListener {
+
+    /**
+     * The whole list was replaced, e.g. when it was loaded or after a batch of changes.
+     */
     void onTaskListUpdated();
+
+    /**
+     * A task was added to the end of the list somewhere else, e.g. on another device.
+     *
+     * @param task the new task
+     */
+    void onTaskAdded(@NonNull Task task);
+
+    /**
+     * A task was changed somewhere else.
+     *
+     * @param position the position of the task in the list
+     * @param task     the changed task
+     */
+    void onTaskChanged(int position, @NonNull Task task);
+
+    /**
+     * A task was removed somewhere else.  Every task after it moved up one position.
+     *
+     * @param position the position the task had in the list
+     * @param id       the id of the removed task
+     */
+    void onTaskRemoved(int position, @NonNull String id);
+
+    /**
+     * The list was closed to free memory.  Its TaskManager must not be used again; whenReady()
+     * loads the list again.
+     */
+    void onTaskListClosed();
 }
@@ -5,19 +5,35 @@ import android.support.annotation.NonNull;
 
 import java.util.List;
 
-import hugo.weaving.DebugLog;
-
 /**
  * The class that handles the implementation of the local storage must implement this interface.
  */
-@DebugLog
 interface TaskListStateManager {
 
     void onUpgrade(@NonNull final Context context, final int newVersion, final int oldVersion);
 
     void saveTasks(@NonNull final List<Task> taskList);
 
+    /**
+     * Save a batch of additions, updates and removals, ideally with a single write.
+     *
+     * @param changeSet the Tasks that changed or were removed
+     * @param taskList  the complete list of Tasks, including the changes; a TaskListSnapshot, so it
+     *                  never changes and can be kept without copying it
+     */
+    void saveTaskChanges(@NonNull final TaskChangeSet changeSet, @NonNull final List<Task> taskList);
+
     void loadTasks();
 
+    void flush();
+
+    /**
+     * Stop loading or listening for changes, e.g. because our list was closed to free memory.  Saves
+     * made before this still get written.
+     */
+    void close();
+
     void setDataSetChangedListener(@NonNull final DataSetChangedListener listener);
+
+    void setTaskChangedListener(@NonNull final TaskChangedListener listener);
 }
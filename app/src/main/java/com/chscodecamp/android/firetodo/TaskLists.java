@@ -0,0 +1,93 @@
+package com.chscodecamp.android.firetodo;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.support.annotation.NonNull;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The named task lists of this installation.  Only the names are kept here, in SharedPreferences,
+ * so we know which lists exist without loading any of their tasks.  A list's tasks are loaded by
+ * TaskManager.openList() when the list is opened.
+ * <p>
+ * The default list is the list every installation had before there were named lists.  It keeps the
+ * storage it always had, so it has no name here; the Activity shows its own name for it.
+ */
+final class TaskLists {
+    static final String DEFAULT_LIST_ID = "default";
+
+    private static final String KEY_PREFS_LIST_IDS = "task_list_ids";
+    private static final String KEY_PREFS_LIST_NAME_PREFIX = "task_list_name.";
+    private static final String KEY_PREFS_OPEN_LIST_ID = "open_task_list_id";
+    private static final String ID_SEPARATOR = ",";
+
+    private TaskLists() {
+    }
+
+    /**
+     * @param context our application context
+     * @return the name of every named list keyed by list id, oldest first; the default list is not
+     * included
+     */
+    @NonNull
+    static Map<String, String> getNames(@NonNull final Context context) {
+        final SharedPreferences sharedPreferences = getSharedPreferences(context);
+        final Map<String, String> names = new LinkedHashMap<>();
+        final String ids = sharedPreferences.getString(KEY_PREFS_LIST_IDS, null);
+        if (ids == null || ids.isEmpty()) {
+            return names;
+        }
+        for (String id : ids.split(ID_SEPARATOR)) {
+            names.put(id, sharedPreferences.getString(KEY_PREFS_LIST_NAME_PREFIX + id, id));
+        }
+        return names;
+    }
+
+    /**
+     * Add a new, empty list.  Its tasks are stored the first time it is opened and changed.
+     *
+     * @param context our application context
+     * @param name    the name the user gave the list
+     * @return the id of the new list
+     */
+    @NonNull
+    static String createList(@NonNull final Context context, @NonNull final String name) {
+        final SharedPreferences sharedPreferences = getSharedPreferences(context);
+
+        /**
+         * List ids are made like Task ids so they sort in creation order and can be used as a
+         * database key.  They never contain our separator.
+         */
+        final String id = Task.newId();
+        final String ids = sharedPreferences.getString(KEY_PREFS_LIST_IDS, null);
+        sharedPreferences.edit()
+                .putString(KEY_PREFS_LIST_IDS, ids == null || ids.isEmpty() ? id : ids + ID_SEPARATOR + id)
+                .putString(KEY_PREFS_LIST_NAME_PREFIX + id, name)
+                .apply();
+        return id;
+    }
+
+    /**
+     * @param context our application context
+     * @return the id of the list that was open last, so we can open it again at startup
+     */
+    @NonNull
+    static String getOpenListId(@NonNull final Context context) {
+        return getSharedPreferences(context).getString(KEY_PREFS_OPEN_LIST_ID, DEFAULT_LIST_ID);
+    }
+
+    /**
+     * @param context our application context
+     * @param listId  the id of the list that is open now
+     */
+    static void setOpenListId(@NonNull final Context context, @NonNull final String listId) {
+        getSharedPreferences(context).edit().putString(KEY_PREFS_OPEN_LIST_ID, listId).apply();
+    }
+
+    @NonNull
+    private static SharedPreferences getSharedPreferences(@NonNull final Context context) {
+        return context.getSharedPreferences(FireToDoApplication.class.getCanonicalName(), Context.MODE_PRIVATE);
+    }
+}
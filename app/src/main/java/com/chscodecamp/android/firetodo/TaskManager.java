@@ -1,43 +1,369 @@
 package com.chscodecamp.android.firetodo;
 
+import android.content.ComponentCallbacks2;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.MainThread;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
-
-import hugo.weaving.DebugLog;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Our Task helper class that removes all the implementation details of handling a Task from our
  * Activity.
+ * <p>
+ * The task list is published as immutable TaskListSnapshots through an AtomicReference, so
+ * getTasks() can be called from any thread and never returns a list that is being changed.  The
+ * list only ever has a single writer: the main thread.  Changes asked for on another thread are
+ * queued on the main thread's message queue and made there in order.  The id and title indexes
+ * belong to the writer, so the methods that use them must be called on the main thread.  The
+ * writer also keeps a TaskSearchIndex of the words in our titles up to date, which can be searched
+ * from any thread.
+ * <p>
+ * There is a TaskManager for each of our named TaskLists.  A list's tasks are only loaded when the
+ * list is opened.  The lists used most recently stay loaded in a TaskListCache so switching back to
+ * them is instant; once more than MAX_LOADED_LISTS are loaded, or they take more than about
+ * MAX_LOADED_BYTES, the ones used least recently are closed and their tasks are dropped.  When the
+ * system runs low on memory onTrimMemory() drops lists early.  The list on screen is only dropped
+ * once we're in the background; its listener is told so it stops using it, and it is loaded again
+ * the next time somebody waits for it in whenReady().
+ * <p>
+ * Every field of a Task we change is stamped by a TaskClock.  A Task that changed somewhere else is
+ * merged into ours field by field with Task.merge(), so changes made on different devices at the
+ * same time all survive without reloading the list, and if we had the newer value of a field the
+ * merged Task is written back so the database gets it too.
+ * <p>
+ * Mutations, saves and loads are timed with Metrics rather than logged, so they can be watched in
+ * release builds too.
  */
-@DebugLog
-class TaskManager implements DataSetChangedListener {
+class TaskManager implements DataSetChangedListener, TaskChangedListener {
+    private static final Executor STARTUP_EXECUTOR = Executors.newSingleThreadExecutor();
+    private static final List<ReadyCallback> readyCallbacks = new ArrayList<>();
+    static final int MAX_LOADED_LISTS = 3;
+    static final long MAX_LOADED_BYTES = 4 * 1024 * 1024;
+
+    /**
+     * What an entry in each of our three indexes and in the search index costs on top of the Task
+     * itself.
+     */
+    private static final int INDEX_BYTES_PER_TASK = 288;
+
+    private static final String TAG = TaskManager.class.getSimpleName();
+    private static final TaskListCache loadedLists = new TaskListCache(MAX_LOADED_LISTS, MAX_LOADED_BYTES);
+
+    /**
+     * Stamps our changes to Task fields so they can be merged with changes from other devices.
+     */
+    private static final TaskClock CLOCK = new TaskClock();
+    private static StateManagerFactory stateManagerFactory;
+    private static String openingListId;
+    private static String droppedListId;
     private static TaskManager instance;
-    private final List<Task> taskList = new ArrayList<>();
+
+    /**
+     * The list that was open before the one being opened now.  It is still on screen, and keeps its
+     * listener, until the new one is ready.
+     */
+    private static TaskManager leavingList;
+
+    /**
+     * Runs a change right away when we're already on the main thread and queues it there otherwise.
+     */
+    private static final Executor MAIN_THREAD_WRITER = new Executor() {
+        private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+        @Override
+        public void execute(@NonNull final Runnable change) {
+            if (Looper.myLooper() == Looper.getMainLooper()) {
+                change.run();
+            } else {
+                mainHandler.post(change);
+            }
+        }
+    };
+
+    private final AtomicReference<TaskListSnapshot> snapshot = new AtomicReference<>(TaskListSnapshot.EMPTY);
+    private final Map<String, Integer> positionsById = new HashMap<>();
+    private final Map<String, String> titleKeysById = new HashMap<>();
+    private final Map<String, Integer> taskCountsByTitleKey = new HashMap<>();
+    private final TaskSearchIndex searchIndex = new TaskSearchIndex();
+    private final String listId;
     private final TaskListStateManager taskListStateManager;
     private TaskListStateListener taskListStateListener;
 
-    private TaskManager(@NonNull final TaskListStateManager taskListStateManager) {
+    /**
+     * When loadTasks() was called, until the list arrives.
+     */
+    private long loadStartNanos;
+
+    /**
+     * Whether our tasks have arrived since init() last asked for them.  Some state managers, e.g.
+     * Firebase, return from loadTasks() long before that.  Only used on the main thread.
+     */
+    private boolean loaded;
+
+    private TaskManager(@NonNull final String listId, @NonNull final TaskListStateManager taskListStateManager) {
+        this.listId = listId;
         this.taskListStateManager = taskListStateManager;
         this.taskListStateManager.setDataSetChangedListener(this);
+        this.taskListStateManager.setTaskChangedListener(this);
     }
 
     /**
-     * Provide our TaskManager a class that will handle the long term storage of our tasks.
+     * Provide our TaskManager a class that will handle the long term storage of the tasks in our
+     * default list and open it.  Calling init() again with a different class replaces the list's
+     * TaskManager.
      *
      * @param taskListStateManager the class that implements TaskListStateManager interface.
      */
     static void init(@NonNull final TaskListStateManager taskListStateManager) {
-        if (instance == null) {
-            instance = new TaskManager(taskListStateManager);
+        init(TaskLists.DEFAULT_LIST_ID, taskListStateManager);
+    }
+
+    /**
+     * Load a list from the given storage and make it the open list.  The TaskManager is ready, and
+     * everybody waiting in whenReady() is told, once the list's tasks have arrived: right away for
+     * storage on the device, or when the first data comes in for Firebase.
+     *
+     * @param listId               the id of the list
+     * @param taskListStateManager the class that stores the list's tasks
+     */
+    static void init(@NonNull final String listId, @NonNull final TaskListStateManager taskListStateManager) {
+        droppedListId = null;
+        TaskManager taskManager = loadedLists.remove(listId);
+        if (taskManager == null || taskManager.taskListStateManager != taskListStateManager) {
+            if (taskManager != null) {
+                taskManager.close();
+            }
+            taskManager = new TaskManager(listId, taskListStateManager);
+        }
+        loadedLists.put(listId, taskManager);
+        taskManager.snapshot.set(TaskListSnapshot.EMPTY);
+        taskManager.positionsById.clear();
+        taskManager.titleKeysById.clear();
+        taskManager.taskCountsByTitleKey.clear();
+        taskManager.searchIndex.clear();
+        taskManager.loadStartNanos = Metrics.start();
+        taskManager.loaded = false;
+        taskManager.taskListStateManager.loadTasks();
+        setOpenList(taskManager);
+        loadedLists.trimToSize(instance);
+    }
+
+    /**
+     * Like init() but the state manager is created on a background thread.  Creating one can take a
+     * while: it reads SharedPreferences, may have to upgrade our data and Firebase sets up its disk
+     * cache.  None of that has to hold up the first frame.  Once the state manager exists init() runs
+     * on the main thread and everybody waiting in whenReady() is told when the tasks arrive.  Call
+     * this from the main thread.
+     *
+     * @param factory creates the class that implements TaskListStateManager interface for a list.
+     * @param listId  the id of the list to open first
+     */
+    static void initAsync(@NonNull final StateManagerFactory factory, @NonNull final String listId) {
+        stateManagerFactory = factory;
+        openList(listId);
+    }
+
+    /**
+     * Open another list.  If it is still loaded it is open right away.  Otherwise its state manager
+     * is created on a background thread and its tasks are loaded; until then isReady() is false and
+     * whenReady() waits for it.  Call this from the main thread, after initAsync().
+     *
+     * @param listId the id of the list to open
+     */
+    @MainThread
+    static void openList(@NonNull final String listId) {
+        if (stateManagerFactory == null) {
+            throw new RuntimeException("Call TaskManager.initAsync() first.");
+        }
+        droppedListId = null;
+        final TaskManager loadedList = loadedLists.get(listId);
+        if (loadedList != null) {
+            openingListId = null;
+            setOpenList(loadedList);
+            return;
+        }
+        if (listId.equals(openingListId)) {
+            return;
         }
-        instance.taskList.clear();
-        instance.taskListStateManager.loadTasks();
+        if (instance != null) {
+            leavingList = instance;
+            instance = null;
+        }
+        openingListId = listId;
+        final StateManagerFactory factory = stateManagerFactory;
+        STARTUP_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                StartupTrace.begin(StartupTrace.Phase.STATE_MANAGER_CREATE);
+                final TaskListStateManager taskListStateManager = factory.create(listId);
+                StartupTrace.end(StartupTrace.Phase.STATE_MANAGER_CREATE);
+                MAIN_THREAD_WRITER.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        /**
+                         * Another list may have been opened while this one was being created.
+                         */
+                        if (listId.equals(openingListId)) {
+                            openingListId = null;
+                            init(listId, taskListStateManager);
+                        } else {
+                            taskListStateManager.close();
+                        }
+                    }
+                });
+            }
+        });
     }
 
     /**
-     * Returns an instance of our TaskManager so the user doesn't have to call "new" all the time.
+     * Make a loaded list the open one and, if its tasks have arrived, tell everybody waiting in
+     * whenReady().
+     *
+     * @param taskManager the list's TaskManager
+     */
+    private static void setOpenList(@NonNull final TaskManager taskManager) {
+        final TaskManager shownList = getShownList();
+        if (shownList != null && shownList != taskManager) {
+            /**
+             * The listener shows the open list; it must not hear about changes to the one it left.
+             */
+            shownList.taskListStateListener = null;
+        }
+        leavingList = null;
+        instance = taskManager;
+        if (taskManager.loaded) {
+            notifyReady();
+        }
+    }
+
+    /**
+     * The open list's tasks are here.  Tell everybody waiting in whenReady().
+     */
+    private static void notifyReady() {
+        StartupTrace.end(StartupTrace.Phase.TASK_MANAGER_READY);
+
+        /**
+         * Copy the callbacks first since a callback may remove itself while we call them.
+         */
+        final List<ReadyCallback> callbacks = new ArrayList<>(readyCallbacks);
+        readyCallbacks.clear();
+        for (ReadyCallback callback : callbacks) {
+            callback.onTaskManagerReady(instance);
+        }
+    }
+
+    /**
+     * @return the list on screen: the open one, or while another list is being opened the one that
+     * was open before
+     */
+    @Nullable
+    private static TaskManager getShownList() {
+        return instance != null ? instance : leavingList;
+    }
+
+    /**
+     * Free memory when the system asks us to.  Call this from Application.onTrimMemory().  While
+     * our UI is showing only the lists that aren't on screen are dropped.  Once we're in the
+     * background the list on screen goes too.  Its listener is told with onTaskListClosed(), since
+     * anything it still holds of the list is gone, and the list is loaded again from its state
+     * manager when we come back.
+     *
+     * @param level the level given to onTrimMemory()
+     */
+    @MainThread
+    static void onTrimMemory(final int level) {
+        final TaskManager shownList = getShownList();
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND && shownList != null) {
+            /**
+             * A list that was being opened is still on its way, so only reload the open one.
+             */
+            if (instance != null) {
+                droppedListId = instance.listId;
+            }
+            final TaskListStateListener listener = shownList.taskListStateListener;
+            instance = null;
+            leavingList = null;
+            loadedLists.evictAll(null);
+            if (listener != null) {
+                listener.onTaskListClosed();
+            }
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE) {
+            loadedLists.evictAll(shownList);
+        }
+        Log.i(TAG, "Trimmed memory at level " + level + ": " + loadedLists);
+    }
+
+    /**
+     * @return the cache of loaded lists, for its hit, miss and eviction counts
+     */
+    @NonNull
+    static TaskListCache getLoadedLists() {
+        return loadedLists;
+    }
+
+    /**
+     * @return true once the open list's tasks have arrived and they can be shown and changed.
+     */
+    static boolean isReady() {
+        return instance != null && instance.loaded;
+    }
+
+    /**
+     * A TaskManager somebody kept may since have been closed, or another list may be being opened.
+     * Only the open list can be changed.
+     *
+     * @param taskManager a TaskManager we were given by whenReady(), or null
+     * @return true if it is the open list and it is ready to be changed
+     */
+    static boolean isOpen(@Nullable final TaskManager taskManager) {
+        return isReady() && taskManager == instance;
+    }
+
+    /**
+     * Call back once the TaskManager is ready, right away if it already is.  Call this from the main
+     * thread; the callback is made on the main thread too.
+     *
+     * @param callback told when the TaskManager is ready
+     */
+    static void whenReady(@NonNull final ReadyCallback callback) {
+        if (isReady()) {
+            callback.onTaskManagerReady(instance);
+            return;
+        }
+        if (!readyCallbacks.contains(callback)) {
+            readyCallbacks.add(callback);
+        }
+
+        /**
+         * The open list was dropped to free memory.  Load it again now that it is needed.
+         */
+        if (droppedListId != null && openingListId == null) {
+            openList(droppedListId);
+        }
+    }
+
+    /**
+     * Stop waiting for the TaskManager, e.g. because the Activity that was waiting went away.
+     *
+     * @param callback a callback given to whenReady()
+     */
+    static void removeReadyCallback(@NonNull final ReadyCallback callback) {
+        readyCallbacks.remove(callback);
+    }
+
+    /**
+     * Returns the TaskManager of the open list so the user doesn't have to call "new" all the time.
+     * Its tasks may not have arrived yet; isReady() says whether they have.
      *
      * @return TaskManager
      */
@@ -57,21 +383,184 @@ class TaskManager implements DataSetChangedListener {
      */
     @Override
     public void onDataSetChanged(@NonNull final List<Task> taskList) {
-        this.taskList.clear();
-        this.taskList.addAll(taskList);
-        if (taskListStateListener != null) {
-            taskListStateListener.onTaskListUpdated();
-        }
+        MAIN_THREAD_WRITER.execute(new Runnable() {
+            @Override
+            public void run() {
+                publish(snapshot.get().withTasks(taskList));
+                indexTasks();
+                if (loadStartNanos != 0) {
+                    Metrics.stop(Metrics.Timer.LOAD_TASKS, loadStartNanos);
+                    loadStartNanos = 0;
+                }
+                notifyTaskListUpdated();
+
+                /**
+                 * The first tasks to arrive make the open list ready.  If we're still in init()
+                 * it tells everybody once we're the open list.
+                 */
+                if (!loaded) {
+                    loaded = true;
+                    if (TaskManager.this == instance) {
+                        notifyReady();
+                    }
+                }
+
+                /**
+                 * Lists usually arrive after they were opened, so this is when they get big.  A
+                 * list still being opened is trimmed for once it is open, in init().
+                 */
+                if (TaskManager.this == instance) {
+                    loadedLists.trimToSize(instance);
+                }
+            }
+        });
     }
 
     /**
-     * Get our list of tasks
+     * A task was added to long term storage somewhere else.  Tasks we added ourselves are
+     * reported back to us too; those are already in our list.
+     *
+     * @param task the new task
+     */
+    @Override
+    public void onTaskAdded(@NonNull final Task task) {
+        MAIN_THREAD_WRITER.execute(new Runnable() {
+            @Override
+            public void run() {
+                applyRemoteTask(task);
+            }
+        });
+    }
+
+    /**
+     * A task changed in long term storage.  Changes we made ourselves are reported back to us
+     * too; those are already in our list so there is nothing to update.
+     *
+     * @param task the changed task
+     */
+    @Override
+    public void onTaskChanged(@NonNull final Task task) {
+        MAIN_THREAD_WRITER.execute(new Runnable() {
+            @Override
+            public void run() {
+                applyRemoteTask(task);
+            }
+        });
+    }
+
+    /**
+     * A task was removed from long term storage.  Every task after it moves up one position.
+     *
+     * @param id the id of the removed task
+     */
+    @Override
+    public void onTaskRemoved(@NonNull final String id) {
+        MAIN_THREAD_WRITER.execute(new Runnable() {
+            @Override
+            public void run() {
+                final Integer position = positionsById.remove(id);
+                if (position == null) {
+                    return;
+                }
+                final TaskListSnapshot tasks = publish(snapshot.get().withTaskRemoved(position));
+                unindexTitle(id);
+                for (int i = position; i < tasks.size(); i++) {
+                    positionsById.put(tasks.get(i).getId(), i);
+                }
+                searchIndex.setPositions(tasks, position);
+                Metrics.increment(Metrics.Counter.REMOTE_CHANGES);
+                if (taskListStateListener != null) {
+                    taskListStateListener.onTaskRemoved(position, id);
+                }
+            }
+        });
+    }
+
+    /**
+     * @return roughly how much memory our tasks and their indexes take, in bytes
+     */
+    long getApproximateBytes() {
+        final TaskListSnapshot tasks = snapshot.get();
+        return tasks.getApproximateBytes() + (long) tasks.size() * INDEX_BYTES_PER_TASK;
+    }
+
+    /**
+     * Stop our state manager and drop our tasks.  Called once the list is evicted from the cache;
+     * opening the list again creates a new TaskManager.
+     */
+    @MainThread
+    void close() {
+        taskListStateListener = null;
+        taskListStateManager.close();
+        publish(TaskListSnapshot.EMPTY);
+        positionsById.clear();
+        titleKeysById.clear();
+        taskCountsByTitleKey.clear();
+        searchIndex.clear();
+    }
+
+    /**
+     * @return the id of our list in TaskLists
+     */
+    @NonNull
+    String getListId() {
+        return listId;
+    }
+
+    /**
+     * Get our list of tasks.  Any thread may call this.  The list never changes, so call again to
+     * see later changes.
      *
      * @return the Task List ;)
      */
     @NonNull
-    List<Task> getTasks() {
-        return taskList;
+    TaskListSnapshot getTasks() {
+        return snapshot.get();
+    }
+
+    /**
+     * Find a Task by its id without searching the whole list.
+     *
+     * @param id the id of the Task
+     * @return the Task or null if there is no Task with that id
+     */
+    @MainThread
+    @Nullable
+    Task getTask(@NonNull final String id) {
+        final Integer position = positionsById.get(id);
+        return position == null ? null : snapshot.get().get(position);
+    }
+
+    /**
+     * Find where a Task is in our list without searching the whole list.
+     *
+     * @param id the id of the Task
+     * @return the position of the Task in getTasks(), or -1 if there is no Task with that id
+     */
+    @MainThread
+    int getPosition(@NonNull final String id) {
+        final Integer position = positionsById.get(id);
+        return position == null ? -1 : position;
+    }
+
+    /**
+     * Check whether a Task with the same title already exists, whether or not it is completed.
+     * Titles have to match exactly, including their case.
+     *
+     * @param title the title to look for
+     * @return true if a Task with this title exists
+     */
+    @MainThread
+    boolean hasTaskWithTitle(@Nullable final String title) {
+        return taskCountsByTitleKey.containsKey(toTitleKey(title));
+    }
+
+    /**
+     * @return the index of the words in our titles, which may be searched from any thread
+     */
+    @NonNull
+    TaskSearchIndex getSearchIndex() {
+        return searchIndex;
     }
 
     /**
@@ -80,18 +569,99 @@ class TaskManager implements DataSetChangedListener {
      * @param task to be added/saved
      */
     void addTask(@NonNull final Task task) {
-        taskList.add(task);
-        saveTasks();
+        MAIN_THREAD_WRITER.execute(new Runnable() {
+            @Override
+            public void run() {
+                final long startNanos = Metrics.start();
+                stamp(null, task);
+                positionsById.put(task.getId(), snapshot.get().size());
+                indexTitle(task, snapshot.get().size());
+                publish(snapshot.get().withTaskAppended(task));
+                saveTaskChanges(TaskChangeSet.of(task));
+                Metrics.stop(Metrics.Timer.TASK_MUTATION, startNanos);
+                Metrics.increment(Metrics.Counter.TASKS_CHANGED);
+            }
+        });
     }
 
     /**
-     * Change the state of an existing task.
+     * Change the state of an existing task.  The task is found by its id, which never changes, and
+     * replaces the Task with that id.  Pass a new Task rather than changing the one in the list;
+     * the list may be read on other threads while we change it.
+     * <p>
+     * A task that is no longer in the list, e.g. one removed on another device while its row was
+     * still on screen, is left removed and the change is dropped.
      *
      * @param task the task to be updated
      */
     void updateTask(@NonNull final Task task) {
-        taskList.set(taskList.indexOf(task), task);
-        saveTasks();
+        MAIN_THREAD_WRITER.execute(new Runnable() {
+            @Override
+            public void run() {
+                final long startNanos = Metrics.start();
+                final Integer position = positionsById.get(task.getId());
+                if (position == null) {
+                    Log.w(TAG, "Dropping a change to task " + task.getId() + ", which is not in the task list");
+                    return;
+                }
+                final Task currentTask = snapshot.get().get(position);
+                stamp(currentTask, task);
+                publish(snapshot.get().withTaskReplaced(position, task));
+                indexTitle(task, position);
+                saveTaskChanges(TaskChangeSet.of(task, changedFields(currentTask, task)));
+                Metrics.stop(Metrics.Timer.TASK_MUTATION, startNanos);
+                Metrics.increment(Metrics.Counter.TASKS_CHANGED);
+            }
+        });
+    }
+
+    /**
+     * Start a batch of changes, e.g. to complete every task or to import a list.  Nothing happens
+     * until the batch is committed.  Then every change is applied in one go: one new snapshot, one
+     * save of all the changes and one call to our TaskListStateListener, instead of one of each per
+     * Task.
+     *
+     * @return an empty batch
+     */
+    @NonNull
+    Batch beginBatch() {
+        return new Batch();
+    }
+
+    /**
+     * Mark every task as completed with a single batch.
+     */
+    @MainThread
+    void completeAllTasks() {
+        final Batch batch = beginBatch();
+        for (Task task : snapshot.get()) {
+            if (!task.getCompleted()) {
+                batch.updateTask(new Task(task.getId(), task.getTitle(), true));
+            }
+        }
+        batch.commit();
+    }
+
+    /**
+     * Remove every completed task with a single batch.
+     */
+    @MainThread
+    void clearCompletedTasks() {
+        final Batch batch = beginBatch();
+        for (Task task : snapshot.get()) {
+            if (task.getCompleted()) {
+                batch.removeTask(task.getId());
+            }
+        }
+        batch.commit();
+    }
+
+    /**
+     * Make sure every saved task has been written to long term storage, e.g. before the app goes
+     * into the background.
+     */
+    void flush() {
+        taskListStateManager.flush();
     }
 
     /**
@@ -104,9 +674,314 @@ class TaskManager implements DataSetChangedListener {
     }
 
     /**
-     * Save our tasks
+     * Remember where each task lives in our list so we can find it by id, which titles are in use
+     * so we can find duplicates, and which words are in them so we can search.  Our clock catches
+     * up with the stamps of the loaded tasks.
+     */
+    private void indexTasks() {
+        positionsById.clear();
+        titleKeysById.clear();
+        taskCountsByTitleKey.clear();
+        searchIndex.clear();
+        final TaskListSnapshot taskList = snapshot.get();
+        for (int i = 0; i < taskList.size(); i++) {
+            final Task task = taskList.get(i);
+            positionsById.put(task.getId(), i);
+            indexTitle(task, i);
+            CLOCK.observe(task);
+        }
+    }
+
+    /**
+     * Stop counting a task that is no longer in our list toward its title, and stop finding it in
+     * searches.
+     *
+     * @param id the id of the task
+     */
+    private void unindexTitle(@NonNull final String id) {
+        searchIndex.remove(id);
+        final String titleKey = titleKeysById.remove(id);
+        if (titleKey != null) {
+            releaseTitleKey(titleKey);
+        }
+    }
+
+    private void releaseTitleKey(@NonNull final String titleKey) {
+        final int count = taskCountsByTitleKey.get(titleKey);
+        if (count == 1) {
+            taskCountsByTitleKey.remove(titleKey);
+        } else {
+            taskCountsByTitleKey.put(titleKey, count - 1);
+        }
+    }
+
+    /**
+     * Count the task under its current title and index the title's words for search.  If the task
+     * used to have a different title it stops counting toward the old one.
+     *
+     * @param task     the task that was added or updated
+     * @param position where the task is in our list
+     */
+    private void indexTitle(@NonNull final Task task, final int position) {
+        searchIndex.put(task, position);
+        final String titleKey = toTitleKey(task.getTitle());
+        final String oldTitleKey = titleKeysById.put(task.getId(), titleKey);
+        if (titleKey.equals(oldTitleKey)) {
+            return;
+        }
+        if (oldTitleKey != null) {
+            releaseTitleKey(oldTitleKey);
+        }
+        final Integer count = taskCountsByTitleKey.get(titleKey);
+        taskCountsByTitleKey.put(titleKey, count == null ? 1 : count + 1);
+    }
+
+    /**
+     * Titles are compared exactly, as they always have been, so "Milk" and "milk" are different
+     * Tasks.
+     *
+     * @param title the title of a Task
+     * @return the key used to compare titles
+     */
+    @NonNull
+    static String toTitleKey(@Nullable final String title) {
+        return title == null ? "" : title;
+    }
+
+    private void notifyTaskListUpdated() {
+        if (taskListStateListener != null) {
+            taskListStateListener.onTaskListUpdated();
+        }
+    }
+
+    /**
+     * Save the tasks that changed.  The state manager decides whether it can write just the
+     * changes or has to write the whole list.
+     *
+     * @param changeSet the tasks that changed
+     */
+    private void saveTaskChanges(@NonNull final TaskChangeSet changeSet) {
+        final long startNanos = Metrics.start();
+        taskListStateManager.saveTaskChanges(changeSet, snapshot.get());
+        Metrics.stop(Metrics.Timer.SAVE_TASKS, startNanos);
+    }
+
+    /**
+     * Stamp the fields of a Task we were handed that differ from the Task it replaces, so they win
+     * over every change to those fields we know of.  The other fields keep their stamps.
+     *
+     * @param currentTask the Task in our list, or null if the Task is new
+     * @param task        the new version, not shared with anybody yet
+     */
+    private static void stamp(@Nullable final Task currentTask, @NonNull final Task task) {
+        if (currentTask == task) {
+            return;
+        }
+        final long stamp = CLOCK.tick();
+        if (currentTask == null) {
+            task.setClocks(stamp, stamp);
+            return;
+        }
+        final boolean titleChanged = currentTask.getTitle() == null ? task.getTitle() != null : !currentTask.getTitle().equals(task.getTitle());
+        task.setClocks(titleChanged ? stamp : currentTask.getTitleClock(),
+                currentTask.getCompleted() != task.getCompleted() ? stamp : currentTask.getCompletedClock());
+    }
+
+    /**
+     * @param currentTask the Task in our list before stamp(), or null if the Task is new
+     * @param task        the stamped Task
+     * @return the TaskChangeSet bits of the fields the change stamped; every field of a new Task,
+     * or of a Task that was changed in place, since we can't tell what it was before
+     */
+    private static int changedFields(@Nullable final Task currentTask, @NonNull final Task task) {
+        if (currentTask == null || currentTask == task) {
+            return TaskChangeSet.ALL_FIELDS;
+        }
+        return TaskChangeSet.changedFields(currentTask, task);
+    }
+
+    /**
+     * Only ever called by the writer, so there is no other change to lose between reading the
+     * current snapshot and setting the new one.
+     *
+     * @param newSnapshot the next version of the list
+     * @return the new snapshot
+     */
+    @NonNull
+    private TaskListSnapshot publish(@NonNull final TaskListSnapshot newSnapshot) {
+        snapshot.set(newSnapshot);
+        return newSnapshot;
+    }
+
+    /**
+     * Add or update a Task that changed in long term storage.  Our listener only hears about that
+     * one Task, so a change from another device never refreshes the whole list.
+     *
+     * @param task the new or changed task
+     */
+    private void applyRemoteTask(@NonNull final Task task) {
+        CLOCK.observe(task);
+        final Integer position = positionsById.get(task.getId());
+        if (position == null) {
+            positionsById.put(task.getId(), snapshot.get().size());
+            indexTitle(task, snapshot.get().size());
+            publish(snapshot.get().withTaskAppended(task));
+            Metrics.increment(Metrics.Counter.REMOTE_CHANGES);
+            if (taskListStateListener != null) {
+                taskListStateListener.onTaskAdded(task);
+            }
+        } else {
+            final Task localTask = snapshot.get().get(position);
+            final Task mergedTask = Task.merge(localTask, task);
+
+            /**
+             * We changed a field after the change we were sent, e.g. on this device while another
+             * device changed a different field.  The database only has the other change, so we
+             * send it the fields of the merged Task that are newer than what it has.
+             */
+            if (!mergedTask.hasSameState(task)) {
+                saveTaskChanges(TaskChangeSet.of(mergedTask, TaskChangeSet.changedFields(task, mergedTask)));
+            }
+            if (mergedTask.hasSameState(localTask)) {
+                return;
+            }
+            publish(snapshot.get().withTaskReplaced(position, mergedTask));
+            indexTitle(mergedTask, position);
+            Metrics.increment(Metrics.Counter.REMOTE_CHANGES);
+            if (taskListStateListener != null) {
+                taskListStateListener.onTaskChanged(position, mergedTask);
+            }
+        }
+    }
+
+    /**
+     * Apply a committed batch.  The list is rebuilt once however many Tasks changed.  Tasks keep
+     * their positions, removed Tasks are left out and Tasks that weren't in the list go at the end.
+     * Only the titles of Tasks in the batch are indexed again, so a batch touching a few Tasks of a
+     * long list stays cheap.
+     *
+     * @param changeSet the changes in the batch
+     */
+    private void applyBatch(@NonNull final TaskChangeSet changeSet) {
+        final long startNanos = Metrics.start();
+        final TaskListSnapshot tasks = snapshot.get();
+        for (Task task : changeSet.getUpdatedTasks()) {
+            final Integer position = positionsById.get(task.getId());
+            final Task currentTask = position == null ? null : tasks.get(position);
+            stamp(currentTask, task);
+            changeSet.setChangedFields(task.getId(), changedFields(currentTask, task));
+        }
+        final List<Task> taskList = new ArrayList<>(tasks.size() + changeSet.getUpdatedTasks().size());
+        boolean positionsChanged = false;
+        for (Task task : tasks) {
+            if (changeSet.isRemoved(task.getId())) {
+                unindexTitle(task.getId());
+                positionsChanged = true;
+                continue;
+            }
+            final Task updatedTask = changeSet.getUpdatedTask(task.getId());
+            if (updatedTask == null) {
+                taskList.add(task);
+            } else {
+                if (task.getTitle() == null ? updatedTask.getTitle() != null : !task.getTitle().equals(updatedTask.getTitle())) {
+                    indexTitle(updatedTask, taskList.size());
+                }
+                taskList.add(updatedTask);
+            }
+        }
+        for (Task task : changeSet.getUpdatedTasks()) {
+            if (!positionsById.containsKey(task.getId())) {
+                indexTitle(task, taskList.size());
+                taskList.add(task);
+                positionsChanged = true;
+            }
+        }
+        publish(tasks.withTasks(taskList));
+        if (positionsChanged) {
+            positionsById.clear();
+            for (int i = 0; i < taskList.size(); i++) {
+                positionsById.put(taskList.get(i).getId(), i);
+            }
+            searchIndex.setPositions(taskList, 0);
+        }
+        saveTaskChanges(changeSet);
+        Metrics.stop(Metrics.Timer.TASK_MUTATION, startNanos);
+        Metrics.add(Metrics.Counter.TASKS_CHANGED, changeSet.size());
+        notifyTaskListUpdated();
+    }
+
+    /**
+     * Changes to be applied together.  A batch can be filled on any thread.  Once it is committed it
+     * can't be used again.
+     */
+    final class Batch {
+        private final TaskChangeSet changeSet = new TaskChangeSet();
+        private boolean committed;
+
+        private Batch() {
+        }
+
+        /**
+         * @param task a new Task to add to the end of the list
+         */
+        void addTask(@NonNull final Task task) {
+            checkNotCommitted();
+            changeSet.addUpdatedTask(task);
+        }
+
+        /**
+         * @param task a new Task with the id of the Task it replaces
+         */
+        void updateTask(@NonNull final Task task) {
+            checkNotCommitted();
+            changeSet.addUpdatedTask(task);
+        }
+
+        /**
+         * @param id the id of the Task to remove
+         */
+        void removeTask(@NonNull final String id) {
+            checkNotCommitted();
+            changeSet.addRemovedTask(id);
+        }
+
+        /**
+         * Apply every change in the batch.  Like any other change it is made on the main thread,
+         * right away if we're already there.
+         */
+        void commit() {
+            checkNotCommitted();
+            committed = true;
+            if (changeSet.isEmpty()) {
+                return;
+            }
+            MAIN_THREAD_WRITER.execute(new Runnable() {
+                @Override
+                public void run() {
+                    applyBatch(changeSet);
+                }
+            });
+        }
+
+        private void checkNotCommitted() {
+            if (committed) {
+                throw new IllegalStateException("This batch was already committed.");
+            }
+        }
+    }
+
+    /**
+     * Creates the state manager of a list for openList().  It is called on a background thread.
+     */
+    interface StateManagerFactory {
+        @NonNull
+        TaskListStateManager create(@NonNull final String listId);
+    }
+
+    /**
+     * Told when the TaskManager is ready to be used.
      */
-    private void saveTasks() {
-        taskListStateManager.saveTasks(taskList);
+    interface ReadyCallback {
+        void onTaskManagerReady(@NonNull final TaskManager taskManager);
     }
 }
@@ -0,0 +1,209 @@
+package com.chscodecamp.android.firetodo;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Moves tasks from storage an older version of the app used into the storage we use now.  Tasks
+ * are read from the old storage one at a time and written to the new one in batches of BATCH_SIZE,
+ * so a migration never needs more than a batch of tasks in memory.  A destination that rewrites
+ * everything it stores on every write, like SharedPreferences, takes the whole source in one batch.
+ * <p>
+ * Progress is checkpointed in SharedPreferences after every batch: which sources are still waiting
+ * and how many tasks of the first one have been written.  If the process dies part way through, the
+ * migration picks up after the last committed batch the next time the app starts.  A source is only
+ * deleted once every one of its tasks has been written.  Writing a batch twice is harmless because
+ * every task keeps the same id each time it is read.
+ */
+final class TaskMigration {
+    static final int BATCH_SIZE = 200;
+
+    /**
+     * The task list that version 1 kept as JSON in SharedPreferences.
+     */
+    static final String SOURCE_SHARED_PREFERENCES = "shared_preferences";
+
+    private static final String TAG = TaskMigration.class.getSimpleName();
+    private static final String KEY_PREFS_PENDING_SOURCES = "migration_pending_sources";
+    private static final String KEY_PREFS_COMMITTED_COUNT = "migration_committed_count";
+    private static final String SOURCE_SEPARATOR = ",";
+
+    private TaskMigration() {
+    }
+
+    /**
+     * Remember that the tasks in a source need to be moved.  This is saved right away so the
+     * migration still happens if the process dies before it starts.
+     *
+     * @param context our application context
+     * @param source  one of the SOURCE_ constants
+     */
+    @SuppressLint("CommitPrefEdits")
+    static void addPendingSource(@NonNull final Context context, @NonNull final String source) {
+        final SharedPreferences sharedPreferences = getSharedPreferences(context);
+        final List<String> sources = getPendingSources(sharedPreferences);
+        if (!sources.contains(source)) {
+            sources.add(source);
+            sharedPreferences.edit().putString(KEY_PREFS_PENDING_SOURCES, join(sources)).commit();
+        }
+    }
+
+    /**
+     * Move every task from every pending source to the destination, starting after the last
+     * batch that was committed.  Runs on the calling thread and returns once the migration is
+     * finished, so call it from a background thread.
+     *
+     * @param context     our application context
+     * @param destination the storage we use now
+     */
+    @SuppressLint("CommitPrefEdits")
+    static void run(@NonNull final Context context, @NonNull final Destination destination) {
+        final SharedPreferences sharedPreferences = getSharedPreferences(context);
+        final List<String> sources = getPendingSources(sharedPreferences);
+        while (!sources.isEmpty()) {
+            final String sourceName = sources.get(0);
+            final Source source = openSource(context, sourceName);
+            boolean complete = false;
+            try {
+                copy(source, destination, sharedPreferences);
+                complete = true;
+            } catch (IOException e) {
+                /**
+                 * Leave the source where it is so the tasks aren't lost, but don't try again on
+                 * every start; it won't become readable by itself.
+                 */
+                Log.e(TAG, "Could not read " + sourceName + "; leaving it in place", e);
+            } finally {
+                source.close();
+            }
+
+            /**
+             * Every task has been written so the source can go.  If we die right here the source
+             * is still pending, but deleting it again is harmless and reading a deleted source
+             * gives no tasks.
+             */
+            if (complete) {
+                source.delete();
+            }
+            sources.remove(0);
+            sharedPreferences.edit()
+                    .putString(KEY_PREFS_PENDING_SOURCES, join(sources))
+                    .putInt(KEY_PREFS_COMMITTED_COUNT, 0)
+                    .commit();
+        }
+    }
+
+    @SuppressLint("CommitPrefEdits")
+    private static void copy(@NonNull final Source source, @NonNull final Destination destination, @NonNull final SharedPreferences sharedPreferences) throws IOException {
+        int committedCount = sharedPreferences.getInt(KEY_PREFS_COMMITTED_COUNT, 0);
+        final int batchSize = destination.getMigrationBatchSize();
+
+        /**
+         * Skip the tasks committed before the process died.  They are read but not kept.
+         */
+        for (int i = 0; i < committedCount; i++) {
+            if (source.next() == null) {
+                return;
+            }
+        }
+
+        final List<Task> batch = new ArrayList<>(Math.min(batchSize, BATCH_SIZE));
+        Task task;
+        do {
+            task = source.next();
+            if (task != null) {
+                batch.add(task);
+            }
+            if (batch.size() == batchSize || (task == null && !batch.isEmpty())) {
+                destination.commitMigratedTasks(batch);
+                committedCount += batch.size();
+                sharedPreferences.edit().putInt(KEY_PREFS_COMMITTED_COUNT, committedCount).commit();
+                batch.clear();
+            }
+        } while (task != null);
+    }
+
+    @NonNull
+    private static Source openSource(@NonNull final Context context, @NonNull final String source) {
+        switch (source) {
+            case SOURCE_SHARED_PREFERENCES:
+                return SharedPreferenceStateManager.openMigrationSource(context);
+            default:
+                throw new IllegalArgumentException("Unknown migration source " + source);
+        }
+    }
+
+    @NonNull
+    private static List<String> getPendingSources(@NonNull final SharedPreferences sharedPreferences) {
+        final String sources = sharedPreferences.getString(KEY_PREFS_PENDING_SOURCES, null);
+        if (sources == null || sources.isEmpty()) {
+            return new ArrayList<>();
+        }
+        return new ArrayList<>(Arrays.asList(sources.split(SOURCE_SEPARATOR)));
+    }
+
+    @NonNull
+    private static String join(@NonNull final List<String> sources) {
+        final StringBuilder joined = new StringBuilder();
+        for (String source : sources) {
+            if (joined.length() > 0) {
+                joined.append(SOURCE_SEPARATOR);
+            }
+            joined.append(source);
+        }
+        return joined.toString();
+    }
+
+    @NonNull
+    private static SharedPreferences getSharedPreferences(@NonNull final Context context) {
+        return context.getSharedPreferences(FireToDoApplication.class.getCanonicalName(), Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Storage an older version of the app used, read one task at a time.
+     */
+    interface Source {
+        /**
+         * @return the next task, or null once there are no more
+         * @throws IOException if the source cannot be read, for whatever reason
+         */
+        @Nullable
+        Task next() throws IOException;
+
+        void close();
+
+        /**
+         * Remove the source's tasks.  Only called once all of them were written elsewhere.
+         */
+        void delete();
+    }
+
+    /**
+     * The storage we use now.
+     */
+    interface Destination {
+        /**
+         * Write a batch of migrated tasks, adding them or replacing the ones with the same id,
+         * and return only once they are stored for good.
+         *
+         * @param batch the tasks to write; the list is reused once this returns
+         */
+        void commitMigratedTasks(@NonNull final List<Task> batch);
+
+        /**
+         * @return how many tasks to write at a time, usually BATCH_SIZE.  A destination that has to
+         * rewrite everything it stores to write a batch asks for a single batch instead, so the
+         * migration doesn't take O(n^2) time.
+         */
+        int getMigrationBatchSize();
+    }
+}
@@ -0,0 +1,673 @@
+package com.chscodecamp.android.firetodo;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.MainThread;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+import android.util.Log;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The writes to a TaskDatabase that the server hasn't confirmed yet.  Every change is recorded
+ * here first, one entry per Task, and written to the database only while we are connected.
+ * <p>
+ * Because there is one entry per Task, a Task that changes again before its write was sent just
+ * replaces its entry: toggling a Task ten times while offline ends up as a single write, and so
+ * does changing a Task and then removing it.  An entry remembers which fields of its Task changed,
+ * and only those are written, so a change to another field made on another device in the meantime
+ * survives.
+ * <p>
+ * While we are connected every Task that is pending goes out in a single multi-path update, so even
+ * completing a whole list is one round trip; changes made while that update is on its way follow
+ * in the next one.  Only when the entries piled up while we were offline, or a write was rejected,
+ * are they sent in batches of at most MAX_BATCH_SIZE Tasks each, one at a time, so coming back
+ * online after hours of edits neither sends one huge update nor floods the connection.
+ * <p>
+ * The entries are kept in a RecordLog of their own, so edits survive the app being killed while
+ * offline.  Recording a change appends a record for each Task that changed and a finished write
+ * appends a record for each Task that left, so the cost of either depends on the size of the change
+ * rather than the number of entries.  Entries leave only once the database says their write is
+ * done.  The log is compacted to the last record of every entry once it holds a lot more records
+ * than there are entries, and emptied whenever the outbox is.
+ * <p>
+ * A batch the database rejects is tried again after a delay that doubles with every failure in a
+ * row, up to MAX_RETRY_DELAY_MS, and each retry sends half as many Tasks as the one before.  A Task
+ * the database rejects on its own MAX_ATTEMPTS times, e.g. one its rules don't allow, is moved out
+ * of the way into a quarantine log next to the outbox so it can't hold up every write after it.
+ * <p>
+ * Once its state manager's tasks are loaded the outbox is only used on the main thread, where the
+ * database calls us back.  Before that, while the state manager is being created on a background
+ * thread, the only thing that may happen is commit() of migrated tasks: nothing is sent until
+ * loadTasks() tells us we are connected, and the state manager is handed to the main thread
+ * afterwards.
+ */
+class TaskOutbox {
+    static final int MAX_BATCH_SIZE = 200;
+    static final int MAX_ATTEMPTS = 5;
+    static final long INITIAL_RETRY_DELAY_MS = 1000;
+    static final long MAX_RETRY_DELAY_MS = 5 * 60 * 1000;
+
+    private static final String TAG = TaskOutbox.class.getSimpleName();
+    private static final String LOG_FILE_NAME_FORMAT = "outbox-%s.log";
+    private static final String QUARANTINE_FILE_NAME_FORMAT = "outbox-%s.quarantine.log";
+    private static final String RECORD_PUT = "put";
+    private static final String RECORD_FIELDS = "fields";
+    private static final String RECORD_REMOVE = "remove";
+    private static final String RECORD_DONE = "done";
+    private static final int MIN_RECORDS_BEFORE_COMPACTION = 100;
+
+    /**
+     * Records are written one at a time, in order, on this thread so the UI never waits on the disk.
+     */
+    private static final ExecutorService PERSISTENCE_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    /**
+     * Runs retries on the main thread, where the database calls us back.
+     */
+    private static final RetryScheduler MAIN_THREAD_RETRY_SCHEDULER = new RetryScheduler() {
+        private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+        @Override
+        public void schedule(@NonNull final Runnable retry, final long delayMs) {
+            mainHandler.postDelayed(retry, delayMs);
+        }
+    };
+
+    /**
+     * Only used on our persistence thread.
+     */
+    private final RecordLog log;
+    private final RecordLog quarantineLog;
+    private final TaskDatabase taskDatabase;
+    private final RetryScheduler retryScheduler;
+
+    /**
+     * The Tasks waiting to be written, keyed by id.  A null Task means the Task was removed.
+     */
+    private final Map<String, Task> pendingTasks = new LinkedHashMap<>();
+
+    /**
+     * The Tasks of the batch being written, which stay stored until the write is done.
+     */
+    private Map<String, Task> sendingTasks;
+
+    /**
+     * The TaskChangeSet bits of the fields that changed, for every Task that is pending or being
+     * sent.  A Task that changes while its write is on its way keeps the fields of both changes.
+     */
+    private final Map<String, Integer> changedFields = new HashMap<>();
+
+    /**
+     * How many times a Task was rejected in a batch of its own since it last changed.  Not saved;
+     * after a restart a Task gets MAX_ATTEMPTS more tries.
+     */
+    private final Map<String, Integer> failureCounts = new HashMap<>();
+
+    /**
+     * The last record of every Task that is pending or being sent, in the order they were recorded,
+     * which is what the log is compacted to.
+     */
+    private final Map<String, String> liveRecords = new LinkedHashMap<>();
+    private int recordCount;
+    private boolean connected;
+
+    /**
+     * Whether the pending Tasks are a backlog, sent in batches of at most batchSizeLimit Tasks,
+     * rather than the changes made since the last update went out.
+     */
+    private boolean replaying;
+    private boolean retryScheduled;
+    private int batchSizeLimit = MAX_BATCH_SIZE;
+    private int failuresInARow;
+    private int coalescedCount;
+    private int batchCount;
+    private int quarantinedCount;
+
+    private final Runnable retry = new Runnable() {
+        @Override
+        public void run() {
+            retryScheduled = false;
+            sendNextBatch();
+        }
+    };
+
+    /**
+     * @param context      our application context
+     * @param listId       the id of the list in TaskLists; every list has its own outbox
+     * @param taskDatabase the database the list's Tasks are written to
+     */
+    TaskOutbox(@NonNull final Context context, @NonNull final String listId, @NonNull final TaskDatabase taskDatabase) {
+        this(context, listId, taskDatabase, MAIN_THREAD_RETRY_SCHEDULER);
+    }
+
+    /**
+     * @param retryScheduler runs the retries of rejected batches on the main thread
+     */
+    TaskOutbox(@NonNull final Context context, @NonNull final String listId, @NonNull final TaskDatabase taskDatabase, @NonNull final RetryScheduler retryScheduler) {
+        this.log = new RecordLog(new File(context.getFilesDir(), String.format(Locale.US, LOG_FILE_NAME_FORMAT, listId)));
+        this.quarantineLog = new RecordLog(new File(context.getFilesDir(), String.format(Locale.US, QUARANTINE_FILE_NAME_FORMAT, listId)));
+        this.taskDatabase = taskDatabase;
+        this.retryScheduler = retryScheduler;
+        readPendingTasks();
+    }
+
+    /**
+     * Record the Tasks that changed and send them if we are connected.
+     *
+     * @param changeSet the Tasks that changed
+     */
+    @MainThread
+    void add(@NonNull final TaskChangeSet changeSet) {
+        if (changeSet.isEmpty()) {
+            return;
+        }
+        save(record(changeSet));
+        sendNextBatch();
+    }
+
+    /**
+     * Record migrated Tasks and wait until they are on the disk.  TaskMigration checkpoints its
+     * progress with commit() as soon as we return, so our entries must not be any less durable than
+     * that checkpoint.  Nothing is sent: this runs while our state manager is being created, before
+     * we can be connected.
+     *
+     * @param changeSet the migrated Tasks
+     * @throws IllegalStateException once the outbox is connected and used on the main thread
+     */
+    @WorkerThread
+    void commit(@NonNull final TaskChangeSet changeSet) {
+        if (connected || sendingTasks != null) {
+            throw new IllegalStateException("Migrated tasks must be committed before the outbox is connected.");
+        }
+        final List<String> records = record(changeSet);
+        recordCount += records.size();
+        try {
+            PERSISTENCE_EXECUTOR.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    log.append(records);
+                    return null;
+                }
+            }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while writing migrated tasks.", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Migrated tasks could not be written.", e.getCause());
+        }
+    }
+
+    /**
+     * Wait until every record has been written.
+     */
+    void flush() {
+        try {
+            PERSISTENCE_EXECUTOR.submit(new Runnable() {
+                @Override
+                public void run() {
+                }
+            }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * Tell the outbox whether the database can reach its server.  Writes are only sent while it can;
+     * otherwise they would just pile up in the database's own queue, one per change.
+     *
+     * @param connected whether we are connected
+     */
+    @MainThread
+    void setConnected(final boolean connected) {
+        if (connected && !this.connected && !pendingTasks.isEmpty()) {
+            replaying = true;
+        }
+        this.connected = connected;
+        sendNextBatch();
+    }
+
+    /**
+     * Apply the changes that haven't reached the server yet to Tasks loaded from the database, e.g.
+     * when the app is started offline after edits made in an earlier session.
+     *
+     * @param taskList the Tasks loaded from the database, changed in place
+     */
+    void applyPendingWrites(@NonNull final List<Task> taskList) {
+        final Map<String, Task> writes = new LinkedHashMap<>();
+        if (sendingTasks != null) {
+            writes.putAll(sendingTasks);
+        }
+        writes.putAll(pendingTasks);
+        if (writes.isEmpty()) {
+            return;
+        }
+        final ListIterator<Task> iterator = taskList.listIterator();
+        final Map<String, Task> remainingWrites = new HashMap<>(writes);
+        while (iterator.hasNext()) {
+            final Task task = iterator.next();
+            if (!remainingWrites.containsKey(task.getId())) {
+                continue;
+            }
+            final Task write = remainingWrites.remove(task.getId());
+            if (write == null) {
+                iterator.remove();
+            } else {
+                /**
+                 * Only the fields we changed are newer than the database's; another device may
+                 * have changed the others since.
+                 */
+                iterator.set(Task.merge(write, task));
+            }
+        }
+
+        /**
+         * Whatever is left was added offline.
+         */
+        for (Task write : writes.values()) {
+            if (write != null && remainingWrites.containsKey(write.getId())) {
+                taskList.add(write);
+            }
+        }
+    }
+
+    /**
+     * @return the number of Tasks waiting to be written, including the batch being written
+     */
+    int getPendingCount() {
+        return pendingTasks.size() + (sendingTasks == null ? 0 : sendingTasks.size());
+    }
+
+    /**
+     * @return the number of changes that replaced an earlier change to the same Task before it was
+     * sent, i.e. the writes we saved
+     */
+    int getCoalescedCount() {
+        return coalescedCount;
+    }
+
+    /**
+     * @return the number of batches sent to the database
+     */
+    int getBatchCount() {
+        return batchCount;
+    }
+
+    /**
+     * @return the number of Tasks we gave up writing because the database kept rejecting them
+     */
+    int getQuarantinedCount() {
+        return quarantinedCount;
+    }
+
+    /**
+     * Add the Tasks that changed to our pending entries.
+     *
+     * @return a record for each entry, for the caller to write to the log
+     */
+    @NonNull
+    private List<String> record(@NonNull final TaskChangeSet changeSet) {
+        final List<String> records = new ArrayList<>();
+        for (Task task : changeSet.getUpdatedTasks()) {
+            final int fields = changeSet.getChangedFields(task.getId());
+            if (fields == 0 && !changedFields.containsKey(task.getId())) {
+                continue;
+            }
+            put(task.getId(), task, fields);
+            records.add(putLiveRecord(task.getId(), toPutRecord(task, changedFields.get(task.getId()))));
+        }
+        for (String id : changeSet.getRemovedTaskIds()) {
+            put(id, null, TaskChangeSet.ALL_FIELDS);
+            records.add(putLiveRecord(id, toIdRecord(RECORD_REMOVE, id)));
+        }
+        return records;
+    }
+
+    @NonNull
+    private String putLiveRecord(@NonNull final String id, @NonNull final String record) {
+        liveRecords.remove(id);
+        liveRecords.put(id, record);
+        return record;
+    }
+
+    /**
+     * Write records to the log on our persistence thread.  Once the outbox is empty, or the log
+     * holds a lot more records than there are entries, the log is replaced by the last record of
+     * every entry instead.
+     */
+    private void save(@NonNull final List<String> records) {
+        if (records.isEmpty()) {
+            return;
+        }
+        recordCount += records.size();
+        if (liveRecords.isEmpty() || recordCount > Math.max(MIN_RECORDS_BEFORE_COMPACTION, liveRecords.size() * 2)) {
+            final List<String> compactedRecords = new ArrayList<>(liveRecords.values());
+            recordCount = compactedRecords.size();
+            PERSISTENCE_EXECUTOR.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        log.replace(compactedRecords);
+                    } catch (IOException e) {
+                        Log.e(TAG, "Could not compact " + log.getFile(), e);
+                    }
+                }
+            });
+            return;
+        }
+        PERSISTENCE_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    log.append(records);
+                } catch (IOException e) {
+                    Log.e(TAG, "Could not append to " + log.getFile(), e);
+                }
+            }
+        });
+    }
+
+    @NonNull
+    private static String toPutRecord(@NonNull final Task task, final int fields) {
+        final StringWriter stringWriter = new StringWriter(96);
+        final JsonWriter out = new JsonWriter(stringWriter);
+        try {
+            out.beginObject();
+            out.name(RECORD_PUT);
+            TaskCodec.TYPE_ADAPTER.write(out, task);
+            out.name(RECORD_FIELDS).value(fields);
+            out.endObject();
+            out.close();
+        } catch (IOException e) {
+            // A StringWriter never throws
+            throw new IllegalStateException(e);
+        }
+        return stringWriter.toString();
+    }
+
+    @NonNull
+    private static String toIdRecord(@NonNull final String name, @NonNull final String id) {
+        final StringWriter stringWriter = new StringWriter(48);
+        final JsonWriter out = new JsonWriter(stringWriter);
+        try {
+            out.beginObject();
+            out.name(name).value(id);
+            out.endObject();
+            out.close();
+        } catch (IOException e) {
+            // A StringWriter never throws
+            throw new IllegalStateException(e);
+        }
+        return stringWriter.toString();
+    }
+
+    private void put(@NonNull final String id, @Nullable final Task task, final int fields) {
+        /**
+         * A new change to a Task may be one the database accepts.
+         */
+        failureCounts.remove(id);
+
+        /**
+         * A Task that was removed, or is being removed, has to be written whole if it comes back.
+         */
+        final Integer earlierFields = changedFields.get(id);
+        final boolean wasRemoved = (pendingTasks.containsKey(id) && pendingTasks.get(id) == null)
+                || (sendingTasks != null && sendingTasks.containsKey(id) && sendingTasks.get(id) == null);
+        changedFields.put(id, task == null || wasRemoved ? TaskChangeSet.ALL_FIELDS
+                : (earlierFields == null ? fields : earlierFields | fields));
+        if (pendingTasks.containsKey(id)) {
+            coalescedCount++;
+            Metrics.increment(Metrics.Counter.OUTBOX_COALESCED);
+
+            /**
+             * Move the Task to the end so the batches go out in the order the Tasks last changed.
+             */
+            pendingTasks.remove(id);
+        }
+        pendingTasks.put(id, task);
+    }
+
+    /**
+     * Send the pending Tasks as one update unless we are offline, a batch is on its way or we are
+     * waiting to retry one.  While replaying only the oldest batchSizeLimit Tasks are sent.  The next
+     * batch follows once this one is done.
+     */
+    private void sendNextBatch() {
+        if (!connected || sendingTasks != null || retryScheduled || pendingTasks.isEmpty()) {
+            return;
+        }
+        final int sizeLimit = replaying ? batchSizeLimit : Integer.MAX_VALUE;
+        final Map<String, Task> batch = new LinkedHashMap<>();
+        final Map<String, Object> childUpdates = new HashMap<>();
+        final Iterator<Map.Entry<String, Task>> iterator = pendingTasks.entrySet().iterator();
+        while (iterator.hasNext() && batch.size() < sizeLimit) {
+            final Map.Entry<String, Task> entry = iterator.next();
+            batch.put(entry.getKey(), entry.getValue());
+            TaskCodec.putChildUpdates(childUpdates, entry.getKey(), entry.getValue(), changedFields.get(entry.getKey()));
+            iterator.remove();
+        }
+        sendingTasks = batch;
+        batchCount++;
+        taskDatabase.updateTasks(childUpdates, new TaskDatabase.WriteListener() {
+            @Override
+            public void onWriteComplete(@Nullable final String errorMessage) {
+                onBatchComplete(batch, errorMessage);
+            }
+        });
+    }
+
+    private void onBatchComplete(@NonNull final Map<String, Task> batch, @Nullable final String errorMessage) {
+        if (sendingTasks != batch) {
+            return;
+        }
+        sendingTasks = null;
+        if (errorMessage != null) {
+            onBatchFailed(batch, errorMessage);
+            return;
+        }
+        failuresInARow = 0;
+        batchSizeLimit = Math.min(MAX_BATCH_SIZE, batchSizeLimit * 2);
+        for (String id : batch.keySet()) {
+            failureCounts.remove(id);
+        }
+
+        /**
+         * A Task that changed again while its write was on its way has a newer entry stored.
+         */
+        final List<String> records = new ArrayList<>();
+        for (String id : batch.keySet()) {
+            if (!pendingTasks.containsKey(id)) {
+                records.add(removeLiveRecord(id));
+            }
+        }
+        save(records);
+        if (pendingTasks.isEmpty()) {
+            replaying = false;
+        }
+        sendNextBatch();
+    }
+
+    /**
+     * Put the batch back in front of anything that changed since, unless it changed again, and try
+     * again later with half as many Tasks.  Halving soon leaves a Task that is rejected every time
+     * in a batch of its own, and once it has been rejected on its own MAX_ATTEMPTS times it is
+     * quarantined so the rest can go.
+     */
+    private void onBatchFailed(@NonNull final Map<String, Task> batch, @NonNull final String errorMessage) {
+        Log.e(TAG, String.format(Locale.US, "Writing %d tasks failed: %s", batch.size(), errorMessage));
+        final String id = batch.keySet().iterator().next();
+
+        /**
+         * A Task that changed again while it was being written gets a fresh start.
+         */
+        if (batch.size() == 1 && !pendingTasks.containsKey(id)) {
+            final Integer failures = failureCounts.get(id);
+            final int attempts = failures == null ? 1 : failures + 1;
+            if (attempts >= MAX_ATTEMPTS) {
+                quarantine(id, batch.get(id));
+                failureCounts.remove(id);
+                failuresInARow = 0;
+                sendNextBatch();
+                return;
+            }
+            failureCounts.put(id, attempts);
+        }
+        final Map<String, Task> newerTasks = new LinkedHashMap<>(pendingTasks);
+        pendingTasks.clear();
+        for (Map.Entry<String, Task> entry : batch.entrySet()) {
+            if (!newerTasks.containsKey(entry.getKey())) {
+                pendingTasks.put(entry.getKey(), entry.getValue());
+            }
+        }
+        pendingTasks.putAll(newerTasks);
+        batchSizeLimit = Math.max(1, batch.size() / 2);
+        replaying = true;
+        failuresInARow++;
+        retryScheduled = true;
+        retryScheduler.schedule(retry, getRetryDelayMs());
+    }
+
+    /**
+     * @return INITIAL_RETRY_DELAY_MS, doubled for every failure in a row after the first, up to
+     * MAX_RETRY_DELAY_MS
+     */
+    long getRetryDelayMs() {
+        final int doublings = Math.min(failuresInARow - 1, 30);
+        return Math.min(MAX_RETRY_DELAY_MS, INITIAL_RETRY_DELAY_MS << Math.max(0, doublings));
+    }
+
+    /**
+     * Stop trying to write a Task.  Its last change is kept in the quarantine, where a later
+     * version of the app, or somebody debugging this one, can find it.  The Task itself stays in
+     * our list on the device, and changing it again puts it back in the outbox.
+     */
+    private void quarantine(@NonNull final String id, @Nullable final Task task) {
+        Log.e(TAG, String.format(Locale.US, "Giving up on writing %s after %d attempts", id, MAX_ATTEMPTS));
+        final List<String> quarantinedRecords = Collections.singletonList(task == null
+                ? toIdRecord(RECORD_REMOVE, id) : toPutRecord(task, changedFields.get(id)));
+        PERSISTENCE_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    quarantineLog.append(quarantinedRecords);
+                } catch (IOException e) {
+                    Log.e(TAG, "Could not append to " + quarantineLog.getFile(), e);
+                }
+            }
+        });
+        save(Collections.singletonList(removeLiveRecord(id)));
+        quarantinedCount++;
+        Metrics.increment(Metrics.Counter.OUTBOX_QUARANTINED);
+    }
+
+    /**
+     * The Task left the outbox.
+     *
+     * @return the record saying so
+     */
+    @NonNull
+    private String removeLiveRecord(@NonNull final String id) {
+        changedFields.remove(id);
+        liveRecords.remove(id);
+        return toIdRecord(RECORD_DONE, id);
+    }
+
+    /**
+     * Replay the log on our persistence thread, after anything an earlier outbox of this list still
+     * had to write, and wait for it.  The last record of a Task wins and puts it at the end.  A record
+     * that cannot be read, e.g. one cut short by a crash, is skipped.
+     */
+    private void readPendingTasks() {
+        try {
+            PERSISTENCE_EXECUTOR.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    log.read(new RecordLog.RecordReader() {
+                        @Override
+                        public void onRecord(@NonNull final String record) {
+                            recordCount++;
+                            try {
+                                applyRecord(record);
+                            } catch (IOException | IllegalStateException | NumberFormatException e) {
+                                Log.e(TAG, "Dropping unreadable write record", e);
+                            }
+                        }
+                    });
+                    return null;
+                }
+            }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            Log.e(TAG, "Could not read " + log.getFile(), e.getCause());
+        }
+    }
+
+    private void applyRecord(@NonNull final String record) throws IOException {
+        final JsonReader in = new JsonReader(new StringReader(record));
+        Task task = null;
+        String id = null;
+        int fields = TaskChangeSet.ALL_FIELDS;
+        boolean done = false;
+        in.beginObject();
+        while (in.hasNext()) {
+            final String name = in.nextName();
+            if (RECORD_PUT.equals(name)) {
+                task = TaskCodec.TYPE_ADAPTER.read(in);
+                id = task == null ? null : task.getId();
+            } else if (RECORD_FIELDS.equals(name)) {
+                fields = in.nextInt();
+            } else if ((RECORD_REMOVE.equals(name) || RECORD_DONE.equals(name)) && in.peek() == JsonToken.STRING) {
+                id = in.nextString();
+                done = RECORD_DONE.equals(name);
+            } else {
+                in.skipValue();
+            }
+        }
+        in.endObject();
+        if (id == null) {
+            return;
+        }
+        pendingTasks.remove(id);
+        if (done) {
+            removeLiveRecord(id);
+            return;
+        }
+        pendingTasks.put(id, task);
+        changedFields.put(id, task == null ? TaskChangeSet.ALL_FIELDS : fields);
+        putLiveRecord(id, record);
+    }
+
+    /**
+     * Runs a retry later on the main thread.
+     */
+    interface RetryScheduler {
+        void schedule(@NonNull Runnable retry, long delayMs);
+    }
+}
@@ -1,7 +1,12 @@
 package com.chscodecamp.android.firetodo;
 
 import android.graphics.Paint;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.util.ListUpdateCallback;
 import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -10,23 +15,155 @@ import android.widget.CheckBox;
 import android.widget.TextView;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 
-import hugo.weaving.DebugLog;
-
-@DebugLog
 class TaskRecyclerAdapter extends RecyclerView.Adapter<TaskRecyclerAdapter.TaskViewHolder> {
 
-    private final List<Task> incompleteTasks = new ArrayList<>();
+    private static final FilteredTaskList.Filter INCOMPLETE_TASKS = new FilteredTaskList.Filter() {
+        @Override
+        public boolean accept(@NonNull Task task) {
+            return !task.getCompleted();
+        }
+    };
+
+    /**
+     * Diffs are calculated one at a time, off the main thread, in the order they were requested.
+     */
+    private static final Executor DIFF_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    /**
+     * Searches also run one at a time, off the main thread.
+     */
+    private static final Executor SEARCH_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    /**
+     * How long a query has to stay the same before it is looked up, so typing a word runs one
+     * search rather than one per key.
+     */
+    private static final long SEARCH_DEBOUNCE_MS = 150;
+
+    /**
+     * A TaskListDiff with more ranges than this may be a reordered list, so DiffUtil is asked for
+     * the moves instead.
+     */
+    private static final int MAX_RANGES_WITHOUT_MOVES = 100;
+
+    /**
+     * DiffUtil is only used on lists up to this size.  Beyond it a diff with many changes can take
+     * seconds, and the TaskListDiff's ranges are used as they are.
+     */
+    private static final int MAX_DIFF_UTIL_TASKS = 5000;
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final List<Task> allTasks = new ArrayList<>();
+    private final FilteredTaskList incompleteTasks;
+    private final FilteredTaskList searchResults;
+
+    /**
+     * Accepts the tasks that match our search, leaving out the completed ones if they are hidden.
+     * Only tasks that are added or changed here are checked one by one like this; whole lists are
+     * matched against the search index on a background thread.
+     */
+    private final FilteredTaskList.Filter searchFilter = new FilteredTaskList.Filter() {
+        @Override
+        public boolean accept(@NonNull Task task) {
+            return search != null && search.matches(task) && (!hideCompletedTasks || INCOMPLETE_TASKS.accept(task));
+        }
+    };
+
+    /**
+     * Passes the changes found by a TaskListDiff on to the RecyclerView.
+     */
+    private final ListUpdateCallback adapterUpdateCallback = new ListUpdateCallback() {
+        @Override
+        public void onInserted(int position, int count) {
+            notifyItemRangeInserted(position, count);
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+            notifyItemRangeRemoved(position, count);
+        }
+
+        @Override
+        public void onMoved(int fromPosition, int toPosition) {
+            notifyItemMoved(fromPosition, toPosition);
+        }
+
+        @Override
+        public void onChanged(int position, int count, Object payload) {
+            notifyItemRangeChanged(position, count, payload);
+        }
+    };
+
+    /**
+     * Looks up the newest query once the user stopped typing for SEARCH_DEBOUNCE_MS.
+     */
+    private final Runnable debouncedSearch = new Runnable() {
+        @Override
+        public void run() {
+            debouncePending = false;
+            if (!searchRunning) {
+                runQueuedSearch();
+            }
+        }
+    };
     private boolean hideCompletedTasks;
-    private List<Task> allTasks;
     private Callback callback;
+    private int diffGeneration;
+    private boolean diffPending;
+
+    /**
+     * The search we're showing the results of, or null while every task is shown.
+     */
+    private TaskSearch search;
+
+    /**
+     * The search the user asked for last, which may still be waiting for its results.
+     */
+    private TaskSearch latestSearch;
+    private TaskSearch queuedSearch;
+    private boolean searchRunning;
+    private boolean debouncePending;
+    private int searchGeneration;
 
+    /**
+     * The ids of the tasks added or changed while a search was running.  The search may have missed
+     * them or found them by their old titles, so they are checked again before its results are
+     * shown.
+     */
+    private final Set<String> changedDuringSearch = new HashSet<>();
+
+    /**
+     * Counts the times our whole list was replaced, so search results that were looked up for an
+     * older list are not shown.
+     */
+    private int listVersion;
+
+    /**
+     * The adapter displays its own copy of the task list.  That way the list on screen stays
+     * consistent while a diff against a newly loaded list is calculated in the background.
+     *
+     * @param tasks              the task list to show first
+     * @param hideCompletedTasks whether completed tasks are hidden
+     * @param callback           told when the user un/marks a task as completed
+     */
     TaskRecyclerAdapter(List<Task> tasks, boolean hideCompletedTasks, Callback callback) {
-        this.allTasks = tasks;
+        this.allTasks.addAll(tasks);
         this.hideCompletedTasks = hideCompletedTasks;
         this.callback = callback;
-        this.updateIncompleteTasks();
+
+        /**
+         * The incomplete tasks only drive the RecyclerView while completed tasks are hidden, and
+         * the search results while there is a search.
+         */
+        this.incompleteTasks = new FilteredTaskList(allTasks, INCOMPLETE_TASKS, new FilteredViewCallback(false));
+        this.searchResults = new FilteredTaskList(allTasks, searchFilter, new FilteredViewCallback(true));
     }
 
     @Override
@@ -37,8 +174,10 @@ class TaskRecyclerAdapter extends RecyclerView.Adapter<TaskRecyclerAdapter.TaskV
 
     @Override
     public void onBindViewHolder(final TaskViewHolder holder, int position) {
+        final long startNanos = Metrics.start();
 
-        final Task task = hideCompletedTasks ? incompleteTasks.get(position) : allTasks.get(position);
+        final FilteredTaskList shownTasks = getShownTasks();
+        Task task = shownTasks != null ? shownTasks.get(position) : allTasks.get(position);
 
         holder.itemName.setText(task.getTitle());
         setStrikethrough(task.getCompleted(), holder.itemName);
@@ -47,33 +186,504 @@ class TaskRecyclerAdapter extends RecyclerView.Adapter<TaskRecyclerAdapter.TaskV
         holder.checkBox.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
-                task.setCompleted(holder.checkBox.isChecked());
-                setStrikethrough(task.getCompleted(), holder.itemName);
+                final int position = holder.getAdapterPosition();
+                if (position == RecyclerView.NO_POSITION) {
+                    return;
+                }
+                final FilteredTaskList shownTasks = getShownTasks();
+                final int sourcePosition = shownTasks != null ? shownTasks.getSourcePosition(position) : position;
+
+                /**
+                 * Tasks are shared with the TaskManager's snapshots, which other threads may be
+                 * reading, so we never change one.  The change is a new Task with the same id.
+                 */
+                final Task task = allTasks.get(sourcePosition);
+                final Task updatedTask = new Task(task.getId(), task.getTitle(), holder.checkBox.isChecked());
+                allTasks.set(sourcePosition, updatedTask);
+                setStrikethrough(updatedTask.getCompleted(), holder.itemName);
                 if (callback != null) {
-                    callback.onTaskUpdated(task);
+                    callback.onTaskUpdated(updatedTask);
                 }
+                onTaskChanged(sourcePosition);
             }
         });
+        Metrics.stop(Metrics.Timer.ADAPTER_BIND, startNanos);
     }
 
     @Override
     public int getItemCount() {
-        return hideCompletedTasks ? incompleteTasks.size() : allTasks.size();
+        final FilteredTaskList shownTasks = getShownTasks();
+        return shownTasks != null ? shownTasks.size() : allTasks.size();
     }
 
     void setHideCompletedTasks(boolean hideCompletedTasks) {
+        final boolean[] oldShownTasks = getShownAccepted();
         this.hideCompletedTasks = hideCompletedTasks;
-        this.updateIncompleteTasks();
+        dispatchShownChanges(oldShownTasks, getShownAccepted());
+        restartPendingDiff();
+
+        /**
+         * The search results depend on whether completed tasks are hidden, so look them up again.
+         */
+        if (latestSearch != null) {
+            searchGeneration++;
+            queuedSearch = latestSearch;
+            if (!searchRunning && !debouncePending) {
+                runQueuedSearch();
+            }
+        }
+    }
+
+    /**
+     * Show only the tasks whose titles match a search, e.g. as the user types it.  The search is
+     * looked up in the TaskManager's TaskSearchIndex on a background thread, which tells us where the
+     * matching tasks are in the TaskManager's list.  The main thread only looks at those rows, and
+     * the rows that come and go are animated in ranges.
+     * <p>
+     * Searches are debounced: a query is only looked up once it has stayed the same for
+     * SEARCH_DEBOUNCE_MS, and while a search is running a newer query waits for it, so a fast typist
+     * doesn't queue up a search per key.  The results of a query that was replaced in the meantime
+     * are thrown away.  Clearing the query shows every task again right away.
+     *
+     * @param query what the user typed, or null or empty for no search
+     */
+    void setSearchQuery(@Nullable String query) {
+        final TaskSearch newSearch = TaskSearch.parse(query);
+        searchGeneration++;
+        latestSearch = newSearch;
+        queuedSearch = newSearch;
+        mainHandler.removeCallbacks(debouncedSearch);
+        debouncePending = newSearch != null;
+        if (newSearch == null) {
+            showSearchResults(null, null);
+        } else {
+            mainHandler.postDelayed(debouncedSearch, SEARCH_DEBOUNCE_MS);
+        }
+    }
+
+    /**
+     * The task list was replaced, e.g. when it was loaded or after a batch of changes.  Work out
+     * what changed on a background thread and then apply only those changes on the main thread.  If
+     * the list is replaced again before the diff is finished the older diff is thrown away.
+     * <p>
+     * A TaskListDiff finds the changes in one pass, as ranges of inserted, removed and changed
+     * rows.  Only when it has many ranges and the lists are short do we ask DiffUtil, which also
+     * finds moves.  A long list, e.g. after clearing the completed tasks of 100k tasks, gets the
+     * ranges as they are, so the rows on screen are updated rather than the whole view refreshed.
+     * Either way the changes reach the RecyclerView in one go.
+     *
+     * @param tasks the new task list, which must not change while the diff is calculated, e.g. a
+     *              TaskListSnapshot
+     */
+    void refreshTasks(@NonNull final List<Task> tasks) {
+        final int generation = ++diffGeneration;
+        final List<Task> oldTasks = new ArrayList<>(allTasks);
+        final List<Task> newTasks = tasks;
+        final boolean onlyIncomplete = hideCompletedTasks;
+        final TaskSearch currentSearch = search;
+        final boolean[] oldSearchResults = search != null ? searchResults.getAccepted() : null;
+        final TaskSearchIndex searchIndex = search != null && callback != null ? callback.getSearchIndex() : null;
+
+        /**
+         * There is nothing to diff against the first time the list is loaded.
+         */
+        if (oldTasks.isEmpty()) {
+            diffPending = false;
+            applyTasks(newTasks, null);
+            this.notifyDataSetChanged();
+            return;
+        }
+
+        diffPending = true;
+        DIFF_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                final boolean[] newSearchResults = searchIndex != null ? findSearchResults(searchIndex, currentSearch, newTasks, onlyIncomplete) : null;
+                final List<Task> oldShownTasks = oldSearchResults != null ? select(oldTasks, oldSearchResults) : filter(oldTasks, onlyIncomplete);
+                final List<Task> newShownTasks = newSearchResults != null ? select(newTasks, newSearchResults) : filter(newTasks, onlyIncomplete);
+                final TaskListDiff listDiff = TaskListDiff.calculate(oldShownTasks, newShownTasks);
+                final DiffUtil.DiffResult diffResult = listDiff.getUpdateCount() > MAX_RANGES_WITHOUT_MOVES
+                        && oldShownTasks.size() <= MAX_DIFF_UTIL_TASKS && newShownTasks.size() <= MAX_DIFF_UTIL_TASKS
+                        ? DiffUtil.calculateDiff(new TaskDiffCallback(oldShownTasks, newShownTasks), false)
+                        : null;
+
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation != diffGeneration) {
+                            return;
+                        }
+                        diffPending = false;
+                        applyTasks(newTasks, newSearchResults);
+                        if (diffResult != null) {
+                            diffResult.dispatchUpdatesTo(TaskRecyclerAdapter.this);
+                        } else {
+                            listDiff.dispatchUpdatesTo(adapterUpdateCallback);
+                        }
+
+                        /**
+                         * A search that finished while the diff was on its way waited for it.
+                         */
+                        if (queuedSearch != null && !searchRunning && !debouncePending) {
+                            runQueuedSearch();
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * A task was added to the end of the task list.  Only the new row is inserted.
+     *
+     * @param task the new task
+     */
+    void onTaskAdded(@NonNull Task task) {
+        allTasks.add(task);
+        if (searchRunning) {
+            changedDuringSearch.add(task.getId());
+        }
+        final long startNanos = Metrics.start();
+        incompleteTasks.onSourceAppended();
+        searchResults.onSourceAppended();
+        Metrics.stop(Metrics.Timer.FILTER_UPDATE, startNanos);
+        if (getShownTasks() == null) {
+            notifyItemInserted(allTasks.size() - 1);
+        }
+        restartPendingDiff();
+    }
+
+    /**
+     * A task changed.  Only its row is changed, or inserted or removed if completed tasks are
+     * hidden and it was un/marked as completed or if it no longer matches our search.
+     *
+     * @param sourcePosition the position of the task in the task list
+     */
+    void onTaskChanged(int sourcePosition) {
+        if (searchRunning) {
+            changedDuringSearch.add(allTasks.get(sourcePosition).getId());
+        }
+        final long startNanos = Metrics.start();
+        incompleteTasks.onSourceChanged(sourcePosition);
+        searchResults.onSourceChanged(sourcePosition);
+        Metrics.stop(Metrics.Timer.FILTER_UPDATE, startNanos);
+        if (getShownTasks() == null) {
+            notifyItemChanged(sourcePosition);
+        }
+        restartPendingDiff();
+    }
+
+    /**
+     * A task was changed somewhere else, e.g. on another device.  Only its row is changed, like
+     * in onTaskChanged(int).
+     *
+     * @param sourcePosition the position of the task in the task list
+     * @param task           the changed task
+     */
+    void onTaskChanged(int sourcePosition, @NonNull Task task) {
+        if (!isInStep(sourcePosition, task.getId())) {
+            refreshLatestTasks();
+            return;
+        }
+        allTasks.set(sourcePosition, task);
+        onTaskChanged(sourcePosition);
+    }
+
+    /**
+     * A task was removed somewhere else.  Only its row is removed.
+     *
+     * @param sourcePosition the position the task had in the task list
+     * @param id             the id of the removed task
+     */
+    void onTaskRemoved(int sourcePosition, @NonNull String id) {
+        if (!isInStep(sourcePosition, id)) {
+            refreshLatestTasks();
+            return;
+        }
+        allTasks.remove(sourcePosition);
+        final long startNanos = Metrics.start();
+        incompleteTasks.onSourceRemoved(sourcePosition);
+        searchResults.onSourceRemoved(sourcePosition);
+        Metrics.stop(Metrics.Timer.FILTER_UPDATE, startNanos);
+        if (getShownTasks() == null) {
+            notifyItemRemoved(sourcePosition);
+        }
+    }
+
+    /**
+     * Positions from the TaskManager are positions in its newest list.  They are only positions in
+     * ours if no diff is on its way and the task is where we expect it.
+     */
+    private boolean isInStep(int sourcePosition, @NonNull String id) {
+        return !diffPending && sourcePosition >= 0 && sourcePosition < allTasks.size() && allTasks.get(sourcePosition).getId().equals(id);
+    }
+
+    private void refreshLatestTasks() {
+        if (callback != null) {
+            refreshTasks(callback.getLatestTasks());
+        }
+    }
+
+    /**
+     * A diff that is still being calculated was based on rows that just changed so it no longer
+     * applies.  Start over from what is on screen now.
+     */
+    private void restartPendingDiff() {
+        if (diffPending) {
+            refreshLatestTasks();
+        }
+    }
+
+    /**
+     * Look up the newest query on the search thread.  Nothing is copied: the search only needs the
+     * index, and its results are placed in our list once they are back, on the main thread.
+     */
+    private void runQueuedSearch() {
+        final TaskSearch nextSearch = queuedSearch;
+        final int generation = searchGeneration;
+        final int version = listVersion;
+        if (nextSearch == null || callback == null) {
+            return;
+        }
+        final TaskSearchIndex searchIndex = callback.getSearchIndex();
+        queuedSearch = null;
+        searchRunning = true;
+        changedDuringSearch.clear();
+        SEARCH_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                final TaskSearchIndex.Matches matches = searchIndex.find(nextSearch);
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onSearchFound(nextSearch, generation, version, matches);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Show the results of a search unless the query was replaced in the meantime, in which case the
+     * newest query runs next.  Tasks that changed while the search ran don't make us run it again,
+     * so a stream of changes from other devices can't keep the results from ever showing; they are
+     * checked again on their own.  Only if our whole list was replaced since, or a diff is on its way,
+     * does the search run again, once the new list is in place.
+     */
+    private void onSearchFound(@NonNull TaskSearch foundSearch, int generation, int version, @NonNull TaskSearchIndex.Matches matches) {
+        searchRunning = false;
+        if (generation != searchGeneration) {
+            if (!debouncePending) {
+                runQueuedSearch();
+            }
+            return;
+        }
+        final boolean[] results = version == listVersion ? toSearchResults(foundSearch, matches) : null;
+        if (results != null) {
+            showSearchResults(foundSearch, results);
+            return;
+        }
+        queuedSearch = foundSearch;
+        if (diffPending) {
+            return;
+        }
+        if (version == listVersion) {
+
+            /**
+             * Our list is behind the TaskManager's.  The search runs again once it caught up.
+             */
+            refreshLatestTasks();
+        } else {
+            runQueuedSearch();
+        }
+    }
+
+    /**
+     * Find the rows of our list a search's matches are at and check the tasks that changed while
+     * the search ran.  No other task is looked at.  A match that moved since the search ran, e.g.
+     * because a task before it was removed, is looked up by id in the TaskManager's positions.
+     *
+     * @return which rows of our list are shown as search results, or null if our list is not in
+     * step with the TaskManager's
+     */
+    @Nullable
+    private boolean[] toSearchResults(@NonNull TaskSearch foundSearch, @NonNull TaskSearchIndex.Matches matches) {
+        final long startNanos = Metrics.start();
+        final boolean[] results = new boolean[allTasks.size()];
+        for (int i = 0; i < matches.size(); i++) {
+            final String id = matches.getId(i);
+            int position = matches.getPosition(i);
+            if (!isInStep(position, id)) {
+                position = callback.getPosition(id);
+                if (position < 0) {
+                    continue;
+                }
+                if (!isInStep(position, id)) {
+                    return null;
+                }
+            }
+            results[position] = !hideCompletedTasks || INCOMPLETE_TASKS.accept(allTasks.get(position));
+        }
+        for (String id : changedDuringSearch) {
+            final int position = callback.getPosition(id);
+            if (position < 0) {
+                continue;
+            }
+            if (!isInStep(position, id)) {
+                return null;
+            }
+            final Task task = allTasks.get(position);
+            results[position] = foundSearch.matches(task) && (!hideCompletedTasks || INCOMPLETE_TASKS.accept(task));
+        }
+        changedDuringSearch.clear();
+        Metrics.stop(Metrics.Timer.FILTER_UPDATE, startNanos);
+        return results;
+    }
+
+    /**
+     * @param results which rows of our list match, or null for no search
+     */
+    private void showSearchResults(@Nullable TaskSearch search, @Nullable boolean[] results) {
+        final boolean[] oldShownTasks = getShownAccepted();
+        this.search = search;
+        final long startNanos = Metrics.start();
+        if (results != null) {
+            searchResults.rebuild(results);
+        } else {
+            searchResults.rebuild();
+        }
+        Metrics.stop(Metrics.Timer.FILTER_UPDATE, startNanos);
+        dispatchShownChanges(oldShownTasks, getShownAccepted());
+        restartPendingDiff();
+    }
+
+    /**
+     * @return whether each row of our list is shown
+     */
+    @NonNull
+    private boolean[] getShownAccepted() {
+        final FilteredTaskList shownTasks = getShownTasks();
+        if (shownTasks != null) {
+            return shownTasks.getAccepted();
+        }
+        final boolean[] shown = new boolean[allTasks.size()];
+        Arrays.fill(shown, true);
+        return shown;
+    }
+
+    /**
+     * Tell the RecyclerView which rows come and go when it switches from showing some of the rows
+     * of our list to showing others, e.g. the results of a new search.  Neighbouring rows are
+     * inserted or removed as one range, and the rows shown before and after are left alone.
+     *
+     * @param oldShown whether each row of our list was shown
+     * @param newShown whether each row of our list is shown now
+     */
+    private void dispatchShownChanges(@NonNull boolean[] oldShown, @NonNull boolean[] newShown) {
+        int position = 0;
+        int removedCount = 0;
+        int insertedCount = 0;
+        for (int i = 0; i < oldShown.length; i++) {
+            final boolean removed = oldShown[i] && !newShown[i];
+            final boolean inserted = newShown[i] && !oldShown[i];
+            if (!removed && removedCount > 0) {
+                notifyItemRangeRemoved(position, removedCount);
+                removedCount = 0;
+            }
+            if (!inserted && insertedCount > 0) {
+                notifyItemRangeInserted(position - insertedCount, insertedCount);
+                insertedCount = 0;
+            }
+            if (removed) {
+                removedCount++;
+            } else if (inserted) {
+                insertedCount++;
+                position++;
+            } else if (newShown[i]) {
+                position++;
+            }
+        }
+        if (removedCount > 0) {
+            notifyItemRangeRemoved(position, removedCount);
+        }
+        if (insertedCount > 0) {
+            notifyItemRangeInserted(position - insertedCount, insertedCount);
+        }
+    }
+
+    /**
+     * @return the filtered view the RecyclerView shows, or null if it shows every task
+     */
+    @Nullable
+    private FilteredTaskList getShownTasks() {
+        if (search != null) {
+            return searchResults;
+        }
+        return hideCompletedTasks ? incompleteTasks : null;
+    }
+
+    /**
+     * @param searchResults which rows of the new list match our search, or null to ask the search
+     *                      about every row
+     */
+    private void applyTasks(@NonNull List<Task> tasks, @Nullable boolean[] searchResults) {
+        allTasks.clear();
+        allTasks.addAll(tasks);
+        listVersion++;
+        final long startNanos = Metrics.start();
+        incompleteTasks.rebuild();
+        if (searchResults != null) {
+            this.searchResults.rebuild(searchResults);
+        } else {
+            this.searchResults.rebuild();
+        }
+        Metrics.stop(Metrics.Timer.FILTER_UPDATE, startNanos);
+    }
+
+    /**
+     * Look a search up in the index, off the main thread.
+     *
+     * @return which of the tasks are shown as search results
+     */
+    @NonNull
+    private static boolean[] findSearchResults(@NonNull TaskSearchIndex searchIndex, @NonNull TaskSearch search,
+                                               @NonNull List<Task> tasks, boolean onlyIncomplete) {
+        final boolean[] results = searchIndex.find(search, tasks);
+        if (onlyIncomplete) {
+            for (int i = 0; i < results.length; i++) {
+                results[i] = results[i] && INCOMPLETE_TASKS.accept(tasks.get(i));
+            }
+        }
+        return results;
     }
 
-    void updateIncompleteTasks() {
-        incompleteTasks.clear();
-        for (Task task : this.allTasks) {
-            if (!task.getCompleted()) {
-                incompleteTasks.add(task);
+    @NonNull
+    private static List<Task> filter(@NonNull List<Task> tasks, boolean onlyIncomplete) {
+        if (!onlyIncomplete) {
+            return tasks;
+        }
+        final List<Task> filteredTasks = new ArrayList<>();
+        for (Task task : tasks) {
+            if (INCOMPLETE_TASKS.accept(task)) {
+                filteredTasks.add(task);
             }
         }
-        this.notifyDataSetChanged();
+        return filteredTasks;
+    }
+
+    /**
+     * @param accepted whether each of the tasks is shown
+     * @return the tasks that are shown
+     */
+    @NonNull
+    private static List<Task> select(@NonNull List<Task> tasks, @NonNull boolean[] accepted) {
+        final List<Task> selectedTasks = new ArrayList<>();
+        for (int i = 0; i < tasks.size(); i++) {
+            if (accepted[i]) {
+                selectedTasks.add(tasks.get(i));
+            }
+        }
+        return selectedTasks;
     }
 
     private void setStrikethrough(boolean checked, TextView textView) {
@@ -86,6 +696,70 @@ class TaskRecyclerAdapter extends RecyclerView.Adapter<TaskRecyclerAdapter.TaskV
 
     interface Callback {
         void onTaskUpdated(@NonNull Task task);
+
+        /**
+         * @return the newest version of the task list, which must not change while a diff is
+         * calculated against it
+         */
+        @NonNull
+        List<Task> getLatestTasks();
+
+        /**
+         * @return the index to look searches up in; it is used on a background thread
+         */
+        @NonNull
+        TaskSearchIndex getSearchIndex();
+
+        /**
+         * @param id the id of a task
+         * @return the position of the task in the newest version of the task list, or -1 if it
+         * isn't there
+         */
+        int getPosition(@NonNull String id);
+    }
+
+    /**
+     * Passes the changes of one of our filtered views on to the RecyclerView while that view is
+     * the one being shown.
+     */
+    private class FilteredViewCallback implements ListUpdateCallback {
+        private final boolean forSearchResults;
+
+        FilteredViewCallback(boolean forSearchResults) {
+            this.forSearchResults = forSearchResults;
+        }
+
+        @Override
+        public void onInserted(int position, int count) {
+            if (isShown()) {
+                notifyItemRangeInserted(position, count);
+            }
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+            if (isShown()) {
+                notifyItemRangeRemoved(position, count);
+            }
+        }
+
+        @Override
+        public void onMoved(int fromPosition, int toPosition) {
+            if (isShown()) {
+                notifyItemMoved(fromPosition, toPosition);
+            }
+        }
+
+        @Override
+        public void onChanged(int position, int count, Object payload) {
+            if (isShown()) {
+                notifyItemRangeChanged(position, count, payload);
+            }
+        }
+
+        private boolean isShown() {
+            return getShownTasks() == (forSearchResults ? searchResults : incompleteTasks);
+        }
     }
 
     class TaskViewHolder extends RecyclerView.ViewHolder {
@@ -0,0 +1,101 @@
+package com.chscodecamp.android.firetodo;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A search for Tasks by the words in their titles.  Every word of the query has to be the start of
+ * a word in the title, so "bu mi" finds "Buy milk" and "Build a mind map" but not "Submit a bug".
+ * Case and punctuation are ignored.
+ */
+final class TaskSearch {
+    private static final String[] NO_WORDS = new String[0];
+
+    private final String[] terms;
+
+    private TaskSearch(@NonNull final String[] terms) {
+        this.terms = terms;
+    }
+
+    /**
+     * @param query what the user typed
+     * @return the search, or null if the query has no words and every Task should be shown
+     */
+    @Nullable
+    static TaskSearch parse(@Nullable final String query) {
+        final String[] terms = toWords(query);
+        return terms.length == 0 ? null : new TaskSearch(terms);
+    }
+
+    /**
+     * @return the words of the query, lower case
+     */
+    @NonNull
+    String[] getTerms() {
+        return terms;
+    }
+
+    /**
+     * @param task a Task
+     * @return true if the Task's title matches
+     */
+    boolean matches(@NonNull final Task task) {
+        return matches(toWords(task.getTitle()));
+    }
+
+    /**
+     * @param words the words of a title, from toWords()
+     * @return true if every term of the query starts one of the words
+     */
+    boolean matches(@NonNull final String[] words) {
+        for (String term : terms) {
+            if (!startsAnyWord(term, words)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Split text into the words a search looks at: runs of letters and digits, lower case, each
+     * word only once.
+     *
+     * @param text a title or a query
+     * @return the words in the order they first appear
+     */
+    @NonNull
+    static String[] toWords(@Nullable final String text) {
+        if (text == null) {
+            return NO_WORDS;
+        }
+        final String lowerCase = text.toLowerCase(Locale.ROOT);
+        final List<String> words = new ArrayList<>(4);
+        int start = -1;
+        for (int i = 0; i <= lowerCase.length(); i++) {
+            final boolean inWord = i < lowerCase.length() && Character.isLetterOrDigit(lowerCase.charAt(i));
+            if (inWord && start < 0) {
+                start = i;
+            } else if (!inWord && start >= 0) {
+                final String word = lowerCase.substring(start, i);
+                if (!words.contains(word)) {
+                    words.add(word);
+                }
+                start = -1;
+            }
+        }
+        return words.isEmpty() ? NO_WORDS : words.toArray(new String[words.size()]);
+    }
+
+    private static boolean startsAnyWord(@NonNull final String term, @NonNull final String[] words) {
+        for (String word : words) {
+            if (word.startsWith(term)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
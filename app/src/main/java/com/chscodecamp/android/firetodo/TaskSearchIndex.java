@@ -0,0 +1,354 @@
+package com.chscodecamp.android.firetodo;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * An inverted index of the words in the titles of a list's Tasks.  It is kept up to date one Task
+ * at a time as Tasks are loaded, added, changed and removed, so it never has to be rebuilt.
+ * <p>
+ * Each Task gets a small number of its own, its ordinal, and each word keeps the ordinals of the
+ * Tasks using it in its Postings.  find() looks up the words that start with each term of a
+ * TaskSearch in a sorted map of every word in use, and only the Tasks with a word for the rarest
+ * term are checked against the others.  The matches are collected in a BitSet, one bit per
+ * ordinal.  No title is read, and no Task is looked at that doesn't use a word starting with the
+ * rarest term, so a search takes as long as it has candidates however long the list is.
+ * <p>
+ * The TaskManager also tells us where each Task is in its list, so a search says where its matches
+ * are without anybody looking them up by id.  A position can be out of date by the time the
+ * matches are used, e.g. after a Task before it was removed, so it is checked against the id.
+ * <p>
+ * The TaskManager's writer changes the index while searches run on a background thread, so the
+ * index is only read or changed while holding its lock.  Checking a whole list against the matches,
+ * which takes as long as the list is, is done without the lock so the writer is never kept waiting
+ * for it.
+ */
+final class TaskSearchIndex {
+
+    private final Map<String, Postings> ordinalsByWord = new HashMap<>();
+
+    /**
+     * The same Postings again, sorted by word so the words starting with a term are next to each
+     * other.
+     */
+    private final TreeMap<String, Postings> sortedOrdinalsByWord = new TreeMap<>();
+    private final Map<String, Integer> ordinalsById = new HashMap<>();
+    private final List<String[]> wordsByOrdinal = new ArrayList<>();
+    private final List<String> idsByOrdinal = new ArrayList<>();
+    private int[] positionsByOrdinal = new int[16];
+
+    /**
+     * The ordinals of removed Tasks, given to the next new ones so the BitSets stay small.
+     */
+    private final List<Integer> freeOrdinals = new ArrayList<>();
+
+    /**
+     * Index a new Task, or the new title of a Task we already have.
+     *
+     * @param task     the Task that was loaded, added or changed
+     * @param position where the Task is in the TaskManager's list
+     */
+    synchronized void put(@NonNull final Task task, final int position) {
+        final String[] newWords = TaskSearch.toWords(task.getTitle());
+        Integer ordinal = ordinalsById.get(task.getId());
+        if (ordinal == null) {
+            if (freeOrdinals.isEmpty()) {
+                ordinal = wordsByOrdinal.size();
+                wordsByOrdinal.add(null);
+                idsByOrdinal.add(null);
+                if (ordinal == positionsByOrdinal.length) {
+                    positionsByOrdinal = Arrays.copyOf(positionsByOrdinal, ordinal * 2);
+                }
+            } else {
+                ordinal = freeOrdinals.remove(freeOrdinals.size() - 1);
+            }
+            ordinalsById.put(task.getId(), ordinal);
+            idsByOrdinal.set(ordinal, task.getId());
+        }
+        positionsByOrdinal[ordinal] = position;
+        final String[] oldWords = wordsByOrdinal.get(ordinal);
+        if (oldWords != null) {
+            if (Arrays.equals(oldWords, newWords)) {
+                return;
+            }
+            removeWords(ordinal, oldWords);
+        }
+        wordsByOrdinal.set(ordinal, newWords);
+        for (String word : newWords) {
+            Postings ordinals = ordinalsByWord.get(word);
+            if (ordinals == null) {
+                ordinals = new Postings();
+                ordinalsByWord.put(word, ordinals);
+                sortedOrdinalsByWord.put(word, ordinals);
+            }
+            ordinals.add(ordinal, wordsByOrdinal.size());
+        }
+    }
+
+    /**
+     * Tell the index where Tasks are now, e.g. after a Task before them was removed.
+     *
+     * @param tasks the TaskManager's list
+     * @param from  the first position that changed; every Task from there on is updated
+     */
+    synchronized void setPositions(@NonNull final List<Task> tasks, final int from) {
+        for (int i = from; i < tasks.size(); i++) {
+            final Integer ordinal = ordinalsById.get(tasks.get(i).getId());
+            if (ordinal != null) {
+                positionsByOrdinal[ordinal] = i;
+            }
+        }
+    }
+
+    /**
+     * @param id the id of a Task that is no longer in the list
+     */
+    synchronized void remove(@NonNull final String id) {
+        final Integer ordinal = ordinalsById.remove(id);
+        if (ordinal != null) {
+            removeWords(ordinal, wordsByOrdinal.get(ordinal));
+            wordsByOrdinal.set(ordinal, null);
+            idsByOrdinal.set(ordinal, null);
+            freeOrdinals.add(ordinal);
+        }
+    }
+
+    synchronized void clear() {
+        ordinalsByWord.clear();
+        sortedOrdinalsByWord.clear();
+        ordinalsById.clear();
+        wordsByOrdinal.clear();
+        idsByOrdinal.clear();
+        freeOrdinals.clear();
+    }
+
+    /**
+     * Find the Tasks of a list that match a search, e.g. a new list that is being diffed on a
+     * background thread.  The list can be a copy that is a little older or newer than the index; a
+     * Task the index doesn't know doesn't match.  Only if some matches are no longer where the
+     * index has them is the whole list checked, by id.
+     *
+     * @param search what to look for
+     * @param tasks  the Tasks to check
+     * @return for each position in the list, whether its Task matches
+     */
+    @NonNull
+    boolean[] find(@NonNull final TaskSearch search, @NonNull final List<Task> tasks) {
+        final Matches found = find(search);
+        final boolean[] matches = new boolean[tasks.size()];
+        Set<String> movedIds = null;
+        for (int i = 0; i < found.size(); i++) {
+            final int position = found.getPosition(i);
+            if (position < matches.length && tasks.get(position).getId().equals(found.getId(i))) {
+                matches[position] = true;
+            } else {
+                if (movedIds == null) {
+                    movedIds = new HashSet<>();
+                }
+                movedIds.add(found.getId(i));
+            }
+        }
+        if (movedIds != null) {
+            for (int i = 0; i < matches.length; i++) {
+                matches[i] = matches[i] || movedIds.contains(tasks.get(i).getId());
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * @param search what to look for
+     * @return the Tasks that match, in no particular order
+     */
+    @NonNull
+    synchronized Matches find(@NonNull final TaskSearch search) {
+        final long startNanos = Metrics.start();
+        final String[] terms = search.getTerms();
+        Collection<Postings> rarestWords = null;
+        int rarestCount = Integer.MAX_VALUE;
+        for (String term : terms) {
+            final Collection<Postings> termWords = wordsStartingWith(term);
+            int count = 0;
+            for (Postings ordinals : termWords) {
+                count += ordinals.size();
+                if (count >= rarestCount) {
+                    break;
+                }
+            }
+            if (count < rarestCount) {
+                rarestWords = termWords;
+                rarestCount = count;
+            }
+        }
+
+        /**
+         * Only the Tasks using a word that starts with the rarest term can match.  We check them
+         * against the other terms with the words we keep for each of them.
+         */
+        final BitSet found = new BitSet(wordsByOrdinal.size());
+        for (Postings ordinals : rarestWords) {
+            ordinals.addTo(found);
+        }
+        if (terms.length > 1) {
+            for (int ordinal = found.nextSetBit(0); ordinal >= 0; ordinal = found.nextSetBit(ordinal + 1)) {
+                if (!search.matches(wordsByOrdinal.get(ordinal))) {
+                    found.clear(ordinal);
+                }
+            }
+        }
+        final Matches matches = new Matches(found.cardinality());
+        for (int ordinal = found.nextSetBit(0); ordinal >= 0; ordinal = found.nextSetBit(ordinal + 1)) {
+            matches.add(idsByOrdinal.get(ordinal), positionsByOrdinal[ordinal]);
+        }
+        Metrics.stop(Metrics.Timer.TASK_SEARCH, startNanos);
+        return matches;
+    }
+
+    /**
+     * Every word starting with a prefix sorts between the prefix itself and the prefix followed by
+     * the largest char there is.
+     *
+     * @return the Postings of those words
+     */
+    @NonNull
+    private Collection<Postings> wordsStartingWith(@NonNull final String prefix) {
+        return sortedOrdinalsByWord.subMap(prefix, true, prefix + Character.MAX_VALUE, false).values();
+    }
+
+    private void removeWords(final int ordinal, @NonNull final String[] oldWords) {
+        for (String word : oldWords) {
+            final Postings ordinals = ordinalsByWord.get(word);
+            ordinals.remove(ordinal);
+            if (ordinals.isEmpty()) {
+                ordinalsByWord.remove(word);
+                sortedOrdinalsByWord.remove(word);
+            }
+        }
+    }
+
+    /**
+     * The Tasks that match a search: their ids and where the TaskManager had each of them when the
+     * search ran.
+     */
+    static final class Matches {
+        private final String[] ids;
+        private final int[] positions;
+        private int size;
+
+        private Matches(final int capacity) {
+            ids = new String[capacity];
+            positions = new int[capacity];
+        }
+
+        private void add(@NonNull final String id, final int position) {
+            ids[size] = id;
+            positions[size] = position;
+            size++;
+        }
+
+        int size() {
+            return size;
+        }
+
+        @NonNull
+        String getId(final int index) {
+            return ids[index];
+        }
+
+        /**
+         * @return where the Task was in the TaskManager's list when the search ran
+         */
+        int getPosition(final int index) {
+            return positions[index];
+        }
+    }
+
+    /**
+     * The ordinals of the Tasks using a word.  A word used by few Tasks, like most numbers, keeps
+     * them in a small unsorted array.  Once more than one in DENSE_FRACTION of all Tasks use it,
+     * e.g. a word like "buy", they move to a BitSet, which then takes less memory than the array
+     * and is read 64 ordinals at a time.
+     */
+    private static final class Postings {
+        private static final int DENSE_FRACTION = 256;
+        private static final int MIN_DENSE_SIZE = 64;
+        private int[] sparse = new int[1];
+        private BitSet dense;
+        private int size;
+
+        void add(final int ordinal, final int ordinalCount) {
+            if (dense != null) {
+                if (!dense.get(ordinal)) {
+                    dense.set(ordinal);
+                    size++;
+                }
+                return;
+            }
+            if (indexOf(ordinal) >= 0) {
+                return;
+            }
+            if (size == sparse.length) {
+                sparse = Arrays.copyOf(sparse, size * 2);
+            }
+            sparse[size++] = ordinal;
+            if (size > MIN_DENSE_SIZE && size > ordinalCount / DENSE_FRACTION) {
+                dense = new BitSet(ordinalCount);
+                for (int i = 0; i < size; i++) {
+                    dense.set(sparse[i]);
+                }
+                sparse = null;
+            }
+        }
+
+        void remove(final int ordinal) {
+            if (dense != null) {
+                if (dense.get(ordinal)) {
+                    dense.clear(ordinal);
+                    size--;
+                }
+                return;
+            }
+            final int index = indexOf(ordinal);
+            if (index >= 0) {
+                sparse[index] = sparse[--size];
+            }
+        }
+
+        private int indexOf(final int ordinal) {
+            for (int i = 0; i < size; i++) {
+                if (sparse[i] == ordinal) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        int size() {
+            return size;
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        void addTo(@NonNull final BitSet found) {
+            if (dense != null) {
+                found.or(dense);
+                return;
+            }
+            for (int i = 0; i < size; i++) {
+                found.set(sparse[i]);
+            }
+        }
+    }
+}
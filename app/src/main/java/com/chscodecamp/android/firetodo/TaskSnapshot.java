@@ -0,0 +1,196 @@
+package com.chscodecamp.android.firetodo;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Reads and writes a compact binary copy of the task list.  Reading it needs no parsing beyond
+ * pulling lengths and bytes out of a memory-mapped file, so the last known list can be shown
+ * before the real storage solution has finished loading.
+ * <p>
+ * The file starts with a header:
+ * <pre>
+ * int  MAGIC
+ * int  FORMAT_VERSION       how this file is laid out
+ * int  dataSchemaVersion    DATA_SCHEMA_VERSION of the app that wrote it
+ * int  task count
+ * int  body length in bytes
+ * long CRC32 of the body
+ * </pre>
+ * followed by each Task as its id, its title (length -1 when there is none), its completed state
+ * and the TaskClock stamps of its title and completed state.  The stamps let our clock catch up
+ * with them when the snapshot is loaded, so a change made before the real list arrives still gets
+ * a newer stamp than the one it replaces.
+ * <p>
+ * A snapshot whose header does not match, e.g. after a DATA_SCHEMA_VERSION change or one written
+ * before FORMAT_VERSION 2 added the stamps, or whose body does not match its checksum, is simply
+ * not used.
+ */
+final class TaskSnapshot {
+    private static final int MAGIC = 0x46544453; // "FTDS"
+    private static final int FORMAT_VERSION = 2;
+    private static final int HEADER_SIZE = 5 * 4 + 8;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private TaskSnapshot() {
+    }
+
+    /**
+     * Write a snapshot next to the file and then rename it into place, so a crash leaves either
+     * the old snapshot or the new one but never half of either.
+     *
+     * @param file              where the snapshot lives
+     * @param taskList          the Tasks to write
+     * @param dataSchemaVersion the schema version the Tasks belong to
+     * @throws IOException if the snapshot could not be written
+     */
+    static void write(@NonNull final File file, @NonNull final List<Task> taskList, final int dataSchemaVersion) throws IOException {
+        final ByteBuffer buffer = encode(taskList, dataSchemaVersion);
+        final File temporaryFile = new File(file.getPath() + ".tmp");
+        final FileOutputStream outputStream = new FileOutputStream(temporaryFile);
+        try {
+            outputStream.write(buffer.array(), 0, buffer.limit());
+            outputStream.getFD().sync();
+        } finally {
+            outputStream.close();
+        }
+        if (!temporaryFile.renameTo(file)) {
+            throw new IOException("Could not rename " + temporaryFile + " to " + file);
+        }
+    }
+
+    /**
+     * Read a snapshot through a MappedByteBuffer.
+     *
+     * @param file              where the snapshot lives
+     * @param dataSchemaVersion the schema version we expect
+     * @return the Tasks in the snapshot, or null if there is no usable snapshot
+     */
+    @Nullable
+    static List<Task> read(@NonNull final File file, final int dataSchemaVersion) {
+        if (!file.isFile() || file.length() < HEADER_SIZE || file.length() > Integer.MAX_VALUE) {
+            return null;
+        }
+        try {
+            final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+            try {
+                final FileChannel channel = randomAccessFile.getChannel();
+                final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                return decode(buffer, dataSchemaVersion);
+            } finally {
+                randomAccessFile.close();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    @NonNull
+    static ByteBuffer encode(@NonNull final List<Task> taskList, final int dataSchemaVersion) {
+        final int count = taskList.size();
+        final byte[][] ids = new byte[count][];
+        final byte[][] titles = new byte[count][];
+        int bodyLength = 0;
+        for (int i = 0; i < count; i++) {
+            final Task task = taskList.get(i);
+            ids[i] = task.getId().getBytes(UTF_8);
+            titles[i] = task.getTitle() == null ? null : task.getTitle().getBytes(UTF_8);
+            bodyLength += 4 + ids[i].length + 4 + (titles[i] == null ? 0 : titles[i].length) + 1 + 8 + 8;
+        }
+
+        final ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + bodyLength);
+        buffer.position(HEADER_SIZE);
+        for (int i = 0; i < count; i++) {
+            buffer.putInt(ids[i].length).put(ids[i]);
+            if (titles[i] == null) {
+                buffer.putInt(-1);
+            } else {
+                buffer.putInt(titles[i].length).put(titles[i]);
+            }
+            final Task task = taskList.get(i);
+            buffer.put((byte) (task.getCompleted() ? 1 : 0))
+                    .putLong(task.getTitleClock())
+                    .putLong(task.getCompletedClock());
+        }
+
+        final CRC32 crc = new CRC32();
+        crc.update(buffer.array(), HEADER_SIZE, bodyLength);
+        buffer.position(0);
+        buffer.putInt(MAGIC)
+                .putInt(FORMAT_VERSION)
+                .putInt(dataSchemaVersion)
+                .putInt(count)
+                .putInt(bodyLength)
+                .putLong(crc.getValue());
+        buffer.position(0);
+        return buffer;
+    }
+
+    @Nullable
+    static List<Task> decode(@NonNull final ByteBuffer buffer, final int dataSchemaVersion) {
+        try {
+            if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION || buffer.getInt() != dataSchemaVersion) {
+                return null;
+            }
+            final int count = buffer.getInt();
+            final int bodyLength = buffer.getInt();
+            final long checksum = buffer.getLong();
+            if (count < 0 || bodyLength != buffer.remaining()) {
+                return null;
+            }
+
+            /**
+             * Copy the body out of the mapping once; the checksum and the Strings both need it as
+             * a byte array.
+             */
+            final byte[] body = new byte[bodyLength];
+            buffer.get(body);
+            final CRC32 crc = new CRC32();
+            crc.update(body, 0, bodyLength);
+            if (crc.getValue() != checksum) {
+                return null;
+            }
+
+            final ByteBuffer in = ByteBuffer.wrap(body);
+            final List<Task> taskList = new ArrayList<>(Math.min(count, bodyLength));
+            for (int i = 0; i < count; i++) {
+                final String id = readString(in, body);
+                final String title = readString(in, body);
+                final boolean completed = in.get() != 0;
+                final long titleClock = in.getLong();
+                final long completedClock = in.getLong();
+                if (id == null) {
+                    return null;
+                }
+                taskList.add(new Task(id, title, completed, titleClock, completedClock));
+            }
+            return in.hasRemaining() ? null : taskList;
+        } catch (BufferUnderflowException | IllegalArgumentException | IndexOutOfBoundsException e) {
+            return null;
+        }
+    }
+
+    @Nullable
+    private static String readString(@NonNull final ByteBuffer in, @NonNull final byte[] body) {
+        final int length = in.getInt();
+        if (length == -1) {
+            return null;
+        }
+        final String value = new String(body, in.position(), length, UTF_8);
+        in.position(in.position() + length);
+        return value;
+    }
+}
@@ -1,33 +1,40 @@
 package com.chscodecamp.android.firetodo;
 
 import android.content.Context;
+import android.content.DialogInterface;
 import android.content.SharedPreferences;
 import android.os.Bundle;
 import android.support.annotation.NonNull;
+import android.support.v7.app.AlertDialog;
 import android.support.v7.app.AppCompatActivity;
 import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.SearchView;
 import android.support.v7.widget.Toolbar;
+import android.text.InputType;
 import android.text.SpannableStringBuilder;
 import android.text.TextUtils;
 import android.text.style.ForegroundColorSpan;
 import android.view.KeyEvent;
+import android.view.Menu;
+import android.view.MenuItem;
 import android.view.View;
+import android.view.ViewTreeObserver;
 import android.view.inputmethod.EditorInfo;
 import android.widget.EditText;
 import android.widget.ImageButton;
 import android.widget.TextView;
 import android.widget.ToggleButton;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-
-import hugo.weaving.DebugLog;
+import java.util.Map;
 
 /**
  * The screen that will show our Task list and allow for task entry.
  */
-@DebugLog
-public class ToDoListActivity extends AppCompatActivity implements TaskRecyclerAdapter.Callback, TaskListStateListener, View.OnClickListener {
+public class ToDoListActivity extends AppCompatActivity implements TaskRecyclerAdapter.Callback, TaskListStateListener, TaskManager.ReadyCallback, View.OnClickListener {
 
     public static final String KEY_PREFS_HIDE_COMPLETED_TASKS = "hide_completed_tasks";
     private RecyclerView recyclerView;
@@ -38,48 +45,123 @@ public class ToDoListActivity extends AppCompatActivity implements TaskRecyclerA
     private List<Task> tasks;
     private SharedPreferences sharedPreferences;
 
+    /**
+     * The TaskManager of the list we're showing, or null once it was closed to free memory.  While
+     * another list is being opened we keep showing this one but it can't be changed.
+     */
+    private TaskManager taskManager;
+
     /**
      * Our TaskRecyclerAdapter.Callback Interface method onTaskUpdated() is called when a Task is un/marked
      * as completed.  This allows us to tell the TaskManager to update the Task from our Activity and
-     * keeps the Adapter from having to know anything about the implementation details.
+     * keeps the Adapter from having to know anything about the implementation details.  The
+     * Adapter refreshes the affected row itself once we return.  Like new tasks, changes are only
+     * made to the open list; the row is put back when the list is refreshed.
      *
      * @param task the item to be updated.
      */
     @Override
     public void onTaskUpdated(@NonNull Task task) {
-        TaskManager.getInstance().updateTask(task);
-
-        /**
-         * If we're hiding completed tasks then we need to update the incomplete task list in the
-         * adapter.
-         */
-        if (hideCompleted.isChecked()) {
-            taskRecyclerAdapter.updateIncompleteTasks();
+        if (isShowingOpenList()) {
+            taskManager.updateTask(task);
         }
     }
 
     /**
-     * Our TaskListStateListener Interface method onTaskListUpdated() is called when the task list is
-     * loaded from the database and allows us to notify the adapter of the change without the adapter
-     * having to know about any of the implementation details.
+     * Our TaskRecyclerAdapter.Callback Interface method getLatestTasks() lets the Adapter start a
+     * diff over when rows change while one is being calculated.  The TaskManager's snapshots never
+     * change so they are safe to diff on a background thread.
+     *
+     * @return the newest snapshot of our task list, or the last one we were given while it isn't
+     * the open list
+     */
+    @NonNull
+    @Override
+    public List<Task> getLatestTasks() {
+        return isShowingOpenList() ? taskManager.getTasks() : tasks;
+    }
+
+    /**
+     * Our TaskRecyclerAdapter.Callback Interface method getPosition() lets the Adapter place the
+     * results of a search in its list without checking every task.
+     *
+     * @param id the id of a task
+     * @return the position of the task in the newest snapshot of our task list, or -1 if it isn't
+     * there or the list isn't the open list
+     */
+    @Override
+    public int getPosition(@NonNull String id) {
+        return isShowingOpenList() ? taskManager.getPosition(id) : -1;
+    }
+
+    /**
+     * Our TaskRecyclerAdapter.Callback Interface method getSearchIndex() gives the Adapter the
+     * index of the words in our titles so it can search without reading every task.
+     *
+     * @return the search index of the list we're showing, or an empty one once it was closed
+     */
+    @NonNull
+    @Override
+    public TaskSearchIndex getSearchIndex() {
+        return taskManager != null ? taskManager.getSearchIndex() : new TaskSearchIndex();
+    }
+
+    /**
+     * Our TaskListStateListener Interface method onTaskListUpdated() is called when the whole task
+     * list is loaded from the database or replaced by a batch and allows us to notify the adapter
+     * of the change without the adapter having to know about any of the implementation details.
      */
     @Override
     public void onTaskListUpdated() {
+        tasks = taskManager.getTasks();
         if (taskRecyclerAdapter != null) {
             /**
-             * If we're hiding completed tasks then we need to update the incomplete task list in the
-             * adapter.
+             * The whole list was replaced.  The adapter works out what actually changed in the
+             * background so only those rows are refreshed.
              */
-            if (hideCompleted.isChecked()) {
-                taskRecyclerAdapter.updateIncompleteTasks();
-            } else {
+            taskRecyclerAdapter.refreshTasks(tasks);
+        }
+    }
 
-                /**
-                 * We only need to do this in the else-block because updateIncompleteTasks() calls
-                 * notifyDataSetChanged() at the end of the method.
-                 */
-                taskRecyclerAdapter.notifyDataSetChanged();
-            }
+    /**
+     * Our TaskListStateListener Interface methods onTaskAdded(), onTaskChanged() and onTaskRemoved()
+     * are called when a single task changes somewhere else, e.g. on another device.  The adapter
+     * only updates that task's row instead of working out what changed in the whole list.
+     *
+     * @param task the new task
+     */
+    @Override
+    public void onTaskAdded(@NonNull Task task) {
+        if (taskRecyclerAdapter != null) {
+            taskRecyclerAdapter.onTaskAdded(task);
+        }
+    }
+
+    @Override
+    public void onTaskChanged(int position, @NonNull Task task) {
+        if (taskRecyclerAdapter != null) {
+            taskRecyclerAdapter.onTaskChanged(position, task);
+        }
+    }
+
+    @Override
+    public void onTaskRemoved(int position, @NonNull String id) {
+        if (taskRecyclerAdapter != null) {
+            taskRecyclerAdapter.onTaskRemoved(position, id);
+        }
+    }
+
+    /**
+     * Our TaskListStateListener Interface method onTaskListClosed() is called when the system needed
+     * the memory while we were in the background.  Let go of the list and empty the adapter; the
+     * list is loaded again and handed to onTaskManagerReady() when we're resumed.
+     */
+    @Override
+    public void onTaskListClosed() {
+        taskManager = null;
+        tasks = Collections.emptyList();
+        if (taskRecyclerAdapter != null) {
+            taskRecyclerAdapter.refreshTasks(tasks);
         }
     }
 
@@ -95,9 +177,13 @@ public class ToDoListActivity extends AppCompatActivity implements TaskRecyclerA
             case R.id.hide_completed:
 
                 /**
-                 * Tell the adapter that we want to hide our completed tasks.
+                 * Tell the adapter that we want to hide our completed tasks.  If our TaskManager
+                 * isn't ready yet there is no adapter; it will pick up the toggle's state when it
+                 * is created.
                  */
-                taskRecyclerAdapter.setHideCompletedTasks(((ToggleButton) view).isChecked());
+                if (taskRecyclerAdapter != null) {
+                    taskRecyclerAdapter.setHideCompletedTasks(((ToggleButton) view).isChecked());
+                }
 
                 /**
                  * Store the state of our task visibility so the user won't have to set it every time.
@@ -107,19 +193,25 @@ public class ToDoListActivity extends AppCompatActivity implements TaskRecyclerA
 
             case R.id.add_item:
 
+                /**
+                 * Tasks can't be added until our TaskManager is ready, or while another list is
+                 * being opened.  The entered text stays put so the user can try again in a moment.
+                 */
+                if (!isShowingOpenList()) {
+                    break;
+                }
+
                 /**
                  * Get the entered task and trim() it to remove any leading or trailing whitespace.
                  */
                 String title = addItemEditText.getText().toString().trim();
 
                 /**
-                 * Do not allow the user to create duplicate tasks.  We do this by creating a new
-                 * task from the entered text and then checking our list to see if the item can be
-                 * found.  The indexOf() method will return -1 if the item does not exist in the list.
-                 *
-                 * The Task's hashCode() and equals() methods are what enable this kind of comparison.
+                 * Do not allow the user to create duplicate tasks.  The TaskManager keeps track of
+                 * every title in use, completed or not, so this check does not have to search
+                 * the whole list.
                  */
-                if (tasks.indexOf(new Task(title)) >= 0) {
+                if (taskManager.hasTaskWithTitle(title)) {
                     /**
                      * EditText objects have a setError() method that allows you to give the users
                      * hints about what they've done wrong and need to fix.  They automatically
@@ -138,8 +230,8 @@ public class ToDoListActivity extends AppCompatActivity implements TaskRecyclerA
                      * our adapter about the change so it can refresh the view.
                      */
                     Task task = new Task(title);
-                    TaskManager.getInstance().addTask(task);
-                    taskRecyclerAdapter.updateIncompleteTasks();
+                    taskManager.addTask(task);
+                    taskRecyclerAdapter.onTaskAdded(task);
                     addItemEditText.setText(null);
 
                 } else {
@@ -197,6 +289,83 @@ public class ToDoListActivity extends AppCompatActivity implements TaskRecyclerA
                 return false;
             }
         });
+
+        /**
+         * Note when our first frame is about to be drawn so we know how long startup took.
+         */
+        recyclerView.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                recyclerView.getViewTreeObserver().removeOnPreDrawListener(this);
+                StartupTrace.end(StartupTrace.Phase.FIRST_FRAME);
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Add our search to the Toolbar and our bulk actions to its overflow menu.
+     *
+     * @param menu the menu to add our items to
+     * @return true so the menu is shown
+     */
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.menu_list, menu);
+
+        /**
+         * Every keystroke goes to our adapter, which searches in the background and shows only the
+         * matching tasks.  Closing the search clears the query, which shows every task again.
+         */
+        final SearchView searchView = (SearchView) menu.findItem(R.id.search).getActionView();
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                searchView.clearFocus();
+                return true;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String query) {
+                if (taskRecyclerAdapter != null) {
+                    taskRecyclerAdapter.setSearchQuery(query);
+                }
+                return true;
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Our bulk actions change every matching task with a single batch: one save and one refresh of
+     * the list no matter how many tasks there are.  Our adapter hears about the change through
+     * onTaskListUpdated() like any other change to the whole list.
+     *
+     * @param item the selected menu item
+     * @return true if we handled the item
+     */
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        switch (item.getItemId()) {
+            case R.id.complete_all:
+                if (isShowingOpenList()) {
+                    taskManager.completeAllTasks();
+                }
+                return true;
+
+            case R.id.clear_completed:
+                if (isShowingOpenList()) {
+                    taskManager.clearCompletedTasks();
+                }
+                return true;
+
+            case R.id.open_list:
+                showTaskLists();
+                return true;
+
+            default:
+                return super.onOptionsItemSelected(item);
+        }
     }
 
     /**
@@ -208,17 +377,37 @@ public class ToDoListActivity extends AppCompatActivity implements TaskRecyclerA
     protected void onResume() {
         super.onResume();
 
+        /**
+         * Our TaskManager is set up on a background thread when the app starts, so it may not be
+         * ready yet.  We'll be called back in onTaskManagerReady() as soon as it is, or right away
+         * if it already is.
+         */
+        TaskManager.whenReady(this);
+    }
+
+    /**
+     * Our TaskManager.ReadyCallback Interface method onTaskManagerReady() is called on the main
+     * thread once our tasks can be shown.
+     *
+     * @param taskManager our TaskManager
+     */
+    @Override
+    public void onTaskManagerReady(@NonNull TaskManager taskManager) {
+        this.taskManager = taskManager;
+        setTitle(getListName(taskManager.getListId()));
+
         /**
          * Set our activity as a listener so we can be notified when the StateManager updates
          * the data.
          */
-        TaskManager.getInstance().setTaskListStateListener(this);
+        taskManager.setTaskListStateListener(this);
 
         /**
          * Get our tasks.  Note: we don't care how we get our tasks.  We simply count on the
-         * getTasks() method to honor the contract of returning a List<Task>.
+         * getTasks() method to honor the contract of returning a List<Task>.  The list we get
+         * never changes; the TaskManager replaces it with a new one instead.
          */
-        tasks = TaskManager.getInstance().getTasks();
+        tasks = taskManager.getTasks();
 
         /**
          * If our adapter is null then set it up and assign the adapter to our view.
@@ -232,8 +421,101 @@ public class ToDoListActivity extends AppCompatActivity implements TaskRecyclerA
             /**
              * If we already had an adapter then just make sure we refresh the view.
              */
-            taskRecyclerAdapter.notifyDataSetChanged();
+            taskRecyclerAdapter.refreshTasks(tasks);
+        }
+    }
+
+    /**
+     * onPause() is the last callback we are guaranteed to get before our process may be killed so
+     * make sure any tasks that are still waiting to be written get written now.
+     */
+    @Override
+    protected void onPause() {
+        super.onPause();
+        TaskManager.removeReadyCallback(this);
+        if (taskManager != null) {
+            taskManager.flush();
+        }
+    }
+
+    /**
+     * Let the user pick one of our lists or make a new one.  Only the names are needed here; a
+     * list's tasks aren't loaded until it is opened.
+     */
+    private void showTaskLists() {
+        final Map<String, String> names = TaskLists.getNames(this);
+        final List<String> listIds = new ArrayList<>();
+        final List<CharSequence> items = new ArrayList<>();
+        listIds.add(TaskLists.DEFAULT_LIST_ID);
+        items.add(getString(R.string.default_list_name));
+        for (Map.Entry<String, String> entry : names.entrySet()) {
+            listIds.add(entry.getKey());
+            items.add(entry.getValue());
         }
+        items.add(getString(R.string.new_list));
+
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.lists)
+                .setItems(items.toArray(new CharSequence[items.size()]), new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        if (which < listIds.size()) {
+                            openTaskList(listIds.get(which));
+                        } else {
+                            showNewTaskList();
+                        }
+                    }
+                })
+                .show();
+    }
+
+    /**
+     * Ask for the name of a new list and open it.
+     */
+    private void showNewTaskList() {
+        final EditText nameEditText = new EditText(this);
+        nameEditText.setInputType(InputType.TYPE_CLASS_TEXT | InputType.TYPE_TEXT_FLAG_CAP_SENTENCES);
+
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.new_list)
+                .setView(nameEditText)
+                .setPositiveButton(android.R.string.ok, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        final String name = nameEditText.getText().toString().trim();
+                        if (!TextUtils.isEmpty(name)) {
+                            openTaskList(TaskLists.createList(ToDoListActivity.this, name));
+                        }
+                    }
+                })
+                .setNegativeButton(android.R.string.cancel, null)
+                .show();
+    }
+
+    /**
+     * Show another list.  We keep showing the current one until the new one is ready and then
+     * onTaskManagerReady() swaps it in.
+     *
+     * @param listId the id of the list to show
+     */
+    private void openTaskList(@NonNull String listId) {
+        TaskLists.setOpenListId(this, listId);
+        setTitle(getListName(listId));
+        TaskManager.openList(listId);
+        TaskManager.whenReady(this);
+    }
+
+    /**
+     * @return true if the list we're showing is the open one and is ready to be changed
+     */
+    private boolean isShowingOpenList() {
+        return TaskManager.isOpen(taskManager);
+    }
+
+    @NonNull
+    private String getListName(@NonNull String listId) {
+        final String name = TaskLists.getNames(this).get(listId);
+        return name != null ? name : getString(R.string.default_list_name);
     }
 
     /**
@@ -0,0 +1,171 @@
+package com.chscodecamp.android.firetodo;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A small JMH-style harness for benchmarks that run as local unit tests on a plain JVM.  Each
+ * benchmark is set up once per list size, run for a few warm-up iterations and then for a few
+ * measured iterations of fixed length.  The report gives operations per second, their spread
+ * across iterations and the bytes allocated per operation, one line per benchmark and list size.
+ * <p>
+ * By default only a quick sweep runs so the unit tests stay fast.  Run the unit tests with
+ * -Pbenchmark.full for every list size and longer iterations; the report is then also written to
+ * build/reports/benchmarks so it can be compared from release to release.  Benchmarks should use a
+ * fixed Random seed so every run does the same work.
+ * <p>
+ * Only allocations on the benchmark's own thread are counted, e.g. not those of a state manager's
+ * persistence thread.
+ */
+class BenchmarkRunner {
+    static final boolean FULL = Boolean.getBoolean("benchmark.full");
+    static final int[] LIST_SIZES = FULL ? new int[]{10, 100, 1000, 10000, 100000} : new int[]{10, 1000};
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int WARM_UP_ITERATIONS = FULL ? 3 : 1;
+    private static final int MEASURED_ITERATIONS = FULL ? 5 : 3;
+    private static final long WARM_UP_ITERATION_NANOS = (FULL ? 200 : 20) * 1000000L;
+    private static final long MEASURED_ITERATION_NANOS = (FULL ? 500 : 50) * 1000000L;
+
+    /**
+     * Results are added here so the JIT can't drop the work that produced them.
+     */
+    static volatile long sink;
+
+    private final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+    private final String suite;
+    private final List<String> lines = new ArrayList<>();
+
+    /**
+     * @param suite names the report, e.g. "data-layer"
+     */
+    BenchmarkRunner(String suite) {
+        this.suite = suite;
+        lines.add(String.format(Locale.US, "# %s, java %s, %s", suite,
+                System.getProperty("java.version"), FULL ? "full" : "quick"));
+        lines.add(String.format(Locale.US, "%-32s %7s %14s %8s %12s", "benchmark", "size", "ops/s", "+-%", "bytes/op"));
+    }
+
+    /**
+     * Run a benchmark at every list size and add its results to the report.
+     *
+     * @param name      what is measured, e.g. "TaskManager.updateTask"
+     * @param benchmark the work
+     */
+    void run(String name, Benchmark benchmark) throws Exception {
+        for (int size : LIST_SIZES) {
+            benchmark.setUp(size);
+            for (int i = 0; i < WARM_UP_ITERATIONS; i++) {
+                iterate(benchmark, WARM_UP_ITERATION_NANOS);
+            }
+            final double[] opsPerSecond = new double[MEASURED_ITERATIONS];
+            long totalOps = 0;
+            long totalBytes = 0;
+            for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+                final long startBytes = allocatedBytes();
+                final long startNanos = System.nanoTime();
+                final long ops = iterate(benchmark, MEASURED_ITERATION_NANOS);
+                final long elapsedNanos = System.nanoTime() - startNanos;
+                totalBytes += allocatedBytes() - startBytes;
+                totalOps += ops;
+                opsPerSecond[i] = ops * 1e9 / elapsedNanos;
+            }
+            lines.add(String.format(Locale.US, "%-32s %7d %14.1f %8.1f %12d", name, size,
+                    mean(opsPerSecond), relativeDeviation(opsPerSecond), totalBytes / totalOps));
+        }
+    }
+
+    /**
+     * Print the report and, for a full run, write it to the report directory.
+     */
+    void report() throws IOException {
+        final StringBuilder report = new StringBuilder();
+        for (String line : lines) {
+            report.append(line).append('\n');
+        }
+        System.out.print(report);
+
+        final String reportDir = System.getProperty("benchmark.reportDir");
+        if (!FULL || reportDir == null) {
+            return;
+        }
+        final File dir = new File(reportDir);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Could not create " + dir);
+        }
+        final Writer writer = new OutputStreamWriter(new FileOutputStream(new File(dir, suite + ".txt")), UTF_8);
+        try {
+            writer.write(report.toString());
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Run operations until the time is up, checking the clock only every so often.
+     */
+    private static long iterate(Benchmark benchmark, long nanos) throws Exception {
+        final long deadline = System.nanoTime() + nanos;
+        long ops = 0;
+        long result = 0;
+        do {
+            for (int i = 0; i < 16; i++) {
+                result += benchmark.run();
+            }
+            ops += 16;
+        } while (System.nanoTime() < deadline);
+        sink += result;
+        return ops;
+    }
+
+    private long allocatedBytes() {
+        if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threadMXBean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+
+    private static double mean(double[] values) {
+        double sum = 0;
+        for (double value : values) {
+            sum += value;
+        }
+        return sum / values.length;
+    }
+
+    /**
+     * @return the standard deviation as a percentage of the mean
+     */
+    private static double relativeDeviation(double[] values) {
+        final double mean = mean(values);
+        double squares = 0;
+        for (double value : values) {
+            squares += (value - mean) * (value - mean);
+        }
+        return mean == 0 ? 0 : Math.sqrt(squares / values.length) * 100 / mean;
+    }
+
+    /**
+     * The work to measure.  setUp() isn't measured; run() is called over and over.
+     */
+    abstract static class Benchmark {
+        /**
+         * @param size the number of tasks to work with
+         */
+        abstract void setUp(int size) throws Exception;
+
+        /**
+         * @return anything computed from the result, so the work can't be optimised away
+         */
+        abstract long run() throws Exception;
+    }
+}
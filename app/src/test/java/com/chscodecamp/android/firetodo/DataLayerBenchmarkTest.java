@@ -0,0 +1,400 @@
+package com.chscodecamp.android.firetodo;
+
+import android.support.annotation.NonNull;
+import android.support.v7.util.ListUpdateCallback;
+
+import com.google.gson.Gson;
+
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Benchmarks the data layer at list sizes from 10 to 100k tasks: TaskManager, Task.equals() and
+ * hashCode(), SharedPreferenceStateManager's JSON save and load, TaskCodec against the reflective
+ * Gson and bean mapping it replaced, whole-list against delta writes to Firebase, the
+ * FilteredTaskList that keeps the incomplete tasks for our adapter and TaskSearchIndex.  Android
+ * and Firebase classes are replaced by the fakes our other tests use.  See BenchmarkRunner for how
+ * to run the full sweep.
+ */
+public class DataLayerBenchmarkTest {
+    private static final FilteredTaskList.Filter INCOMPLETE_TASKS = new FilteredTaskList.Filter() {
+        @Override
+        public boolean accept(@NonNull Task task) {
+            return !task.getCompleted();
+        }
+    };
+
+    private static final ListUpdateCallback IGNORE_UPDATES = new ListUpdateCallback() {
+        @Override
+        public void onInserted(int position, int count) {
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+        }
+
+        @Override
+        public void onMoved(int fromPosition, int toPosition) {
+        }
+
+        @Override
+        public void onChanged(int position, int count, Object payload) {
+        }
+    };
+
+    @Test
+    public void dataLayer() throws Exception {
+        BenchmarkRunner runner = new BenchmarkRunner("data-layer");
+
+        runner.run("TaskManager.load", new BenchmarkRunner.Benchmark() {
+            private FakeStateManager stateManager;
+
+            @Override
+            void setUp(int size) {
+                stateManager = new FakeStateManager();
+                stateManager.setStoredTasks(createTasks(size));
+            }
+
+            @Override
+            long run() {
+                TaskManager.init(stateManager);
+                return TaskManager.getInstance().getTasks().size();
+            }
+        });
+
+        runner.run("TaskManager.updateTask", new BenchmarkRunner.Benchmark() {
+            private final Random random = new Random(42);
+            private TaskManager taskManager;
+            private List<Task> taskList;
+
+            @Override
+            void setUp(int size) {
+                taskList = createTasks(size);
+                FakeStateManager stateManager = new FakeStateManager();
+                stateManager.setStoredTasks(taskList);
+                TaskManager.init(stateManager);
+                taskManager = TaskManager.getInstance();
+            }
+
+            @Override
+            long run() {
+                int position = random.nextInt(taskList.size());
+                Task updatedTask = toggle(taskList, position);
+                taskManager.updateTask(updatedTask);
+                return taskManager.getTasks().getVersion();
+            }
+        });
+
+        runner.run("Task.hashCode+equals (HashSet)", new BenchmarkRunner.Benchmark() {
+            private List<Task> taskList;
+
+            @Override
+            void setUp(int size) {
+                taskList = createTasks(size);
+            }
+
+            @Override
+            long run() {
+                return new HashSet<>(taskList).size();
+            }
+        });
+
+        runner.run("Task.equals (indexOf)", new BenchmarkRunner.Benchmark() {
+            private List<Task> taskList;
+            private Task lastTask;
+
+            @Override
+            void setUp(int size) {
+                taskList = createTasks(size);
+                Task last = taskList.get(size - 1);
+                lastTask = new Task(last.getId(), last.getTitle(), last.getCompleted());
+            }
+
+            @Override
+            long run() {
+                return taskList.indexOf(lastTask);
+            }
+        });
+
+        runner.run("SharedPreferences.save", new BenchmarkRunner.Benchmark() {
+            private SharedPreferenceStateManager stateManager;
+            private List<Task> taskList;
+
+            @Override
+            void setUp(int size) {
+                stateManager = new SharedPreferenceStateManager(new FakeContext(), FireToDoApplication.DATA_SCHEMA_VERSION);
+                taskList = createTasks(size);
+            }
+
+            @Override
+            long run() {
+                stateManager.saveTasks(taskList);
+                stateManager.flush();
+                return taskList.size();
+            }
+        });
+
+        runner.run("SharedPreferences.load", new BenchmarkRunner.Benchmark() {
+            private SharedPreferenceStateManager stateManager;
+
+            @Override
+            void setUp(int size) {
+                stateManager = new SharedPreferenceStateManager(new FakeContext(), FireToDoApplication.DATA_SCHEMA_VERSION);
+                stateManager.saveTasks(createTasks(size));
+                stateManager.flush();
+            }
+
+            @Override
+            long run() {
+                return stateManager.readSavedTasks().size();
+            }
+        });
+
+        runner.run("Gson.toJson (reflective)", new BenchmarkRunner.Benchmark() {
+            private List<Task> taskList;
+
+            @Override
+            void setUp(int size) {
+                taskList = createTasks(size);
+            }
+
+            @Override
+            long run() {
+                return new Gson().toJson(taskList).length();
+            }
+        });
+
+        runner.run("TaskCodec.toJson", new BenchmarkRunner.Benchmark() {
+            private List<Task> taskList;
+
+            @Override
+            void setUp(int size) {
+                taskList = createTasks(size);
+            }
+
+            @Override
+            long run() {
+                return TaskCodec.toJson(taskList).length();
+            }
+        });
+
+        runner.run("Gson.fromJson (reflective)", new BenchmarkRunner.Benchmark() {
+            private String json;
+
+            @Override
+            void setUp(int size) {
+                json = new Gson().toJson(createTasks(size));
+            }
+
+            @Override
+            long run() {
+                return new Gson().fromJson(json, Task[].class).length;
+            }
+        });
+
+        runner.run("TaskCodec.fromJson", new BenchmarkRunner.Benchmark() {
+            private String json;
+
+            @Override
+            void setUp(int size) {
+                json = new Gson().toJson(createTasks(size));
+            }
+
+            @Override
+            long run() throws Exception {
+                return TaskCodec.fromJson(json).size();
+            }
+        });
+
+        runner.run("Firebase map (reflective)", new BenchmarkRunner.Benchmark() {
+            private Map<String, Object> children;
+
+            @Override
+            void setUp(int size) {
+                children = createChildren(size);
+            }
+
+            @Override
+            long run() throws Exception {
+                return mapReflectively(children).size();
+            }
+        });
+
+        runner.run("TaskCodec.fromMap", new BenchmarkRunner.Benchmark() {
+            private Map<String, Object> children;
+
+            @Override
+            void setUp(int size) {
+                children = createChildren(size);
+            }
+
+            @Override
+            long run() {
+                long count = 0;
+                for (Map.Entry<String, Object> child : children.entrySet()) {
+                    count += TaskCodec.fromMap(child.getKey(), child.getValue()).getTitle().length();
+                }
+                return count;
+            }
+        });
+
+        runner.run("Firebase whole list write", new BenchmarkRunner.Benchmark() {
+            private final Random random = new Random(42);
+            private final FakeDatabaseReference databaseReference = new FakeDatabaseReference();
+            private List<Task> taskList;
+
+            @Override
+            void setUp(int size) {
+                taskList = createTasks(size);
+            }
+
+            @Override
+            long run() {
+                toggle(taskList, random.nextInt(taskList.size()));
+                databaseReference.setValue(FirebaseStateManager.toTaskMap(taskList));
+                return databaseReference.getBytesWritten();
+            }
+        });
+
+        runner.run("Firebase delta write", new BenchmarkRunner.Benchmark() {
+            private final Random random = new Random(42);
+            private final FakeDatabaseReference databaseReference = new FakeDatabaseReference();
+            private List<Task> taskList;
+
+            @Override
+            void setUp(int size) {
+                taskList = createTasks(size);
+            }
+
+            @Override
+            long run() {
+                Task task = toggle(taskList, random.nextInt(taskList.size()));
+                databaseReference.updateChildren(FirebaseStateManager.toChildUpdates(TaskChangeSet.of(task)));
+                return databaseReference.getBytesWritten();
+            }
+        });
+
+        runner.run("FilteredTaskList.rebuild", new BenchmarkRunner.Benchmark() {
+            private FilteredTaskList incompleteTasks;
+
+            @Override
+            void setUp(int size) {
+                incompleteTasks = new FilteredTaskList(createTasks(size), INCOMPLETE_TASKS, IGNORE_UPDATES);
+            }
+
+            @Override
+            long run() {
+                incompleteTasks.rebuild();
+                return incompleteTasks.size();
+            }
+        });
+
+        runner.run("FilteredTaskList.onSourceChanged", new BenchmarkRunner.Benchmark() {
+            private final Random random = new Random(42);
+            private List<Task> taskList;
+            private FilteredTaskList incompleteTasks;
+
+            @Override
+            void setUp(int size) {
+                taskList = createTasks(size);
+                incompleteTasks = new FilteredTaskList(taskList, INCOMPLETE_TASKS, IGNORE_UPDATES);
+            }
+
+            @Override
+            long run() {
+                int position = random.nextInt(taskList.size());
+                toggle(taskList, position);
+                incompleteTasks.onSourceChanged(position);
+                return incompleteTasks.size();
+            }
+        });
+
+        runner.run("TaskSearchIndex.find", new BenchmarkRunner.Benchmark() {
+            private final String[] queries = {"t", "task n", "number 1", "42", "nothing"};
+            private List<Task> taskList;
+            private TaskSearchIndex searchIndex;
+            private int next;
+
+            @Override
+            void setUp(int size) {
+                taskList = createTasks(size);
+                searchIndex = new TaskSearchIndex();
+                for (int i = 0; i < taskList.size(); i++) {
+                    searchIndex.put(taskList.get(i), i);
+                }
+            }
+
+            @Override
+            long run() {
+                next = (next + 1) % queries.length;
+                return searchIndex.find(TaskSearch.parse(queries[next]), taskList).length;
+            }
+        });
+
+        runner.report();
+
+        int size = BenchmarkRunner.LIST_SIZES[BenchmarkRunner.LIST_SIZES.length - 1];
+        FilteredTaskList incompleteTasks = new FilteredTaskList(createTasks(size), INCOMPLETE_TASKS, IGNORE_UPDATES);
+        assertEquals(size - (size + 2) / 3, incompleteTasks.size());
+    }
+
+    /**
+     * The same tasks every run: every third one is completed.
+     */
+    @NonNull
+    private static List<Task> createTasks(int size) {
+        List<Task> taskList = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            taskList.add(new Task(String.format("task-%06d", i), "Task number " + i, i % 3 == 0));
+        }
+        return taskList;
+    }
+
+    /**
+     * The raw values of a Firebase snapshot of the same tasks, by id.
+     */
+    @NonNull
+    private static Map<String, Object> createChildren(int size) {
+        Map<String, Object> children = new HashMap<>();
+        for (Task task : createTasks(size)) {
+            children.put(task.getId(), TaskCodec.toMap(task));
+        }
+        return children;
+    }
+
+    /**
+     * Looks up each property's Field by name and sets it reflectively, the way
+     * DataSnapshot.getValue(Task.class) does.
+     */
+    @NonNull
+    private static List<Task> mapReflectively(Map<String, Object> children) throws Exception {
+        List<Task> tasks = new ArrayList<>(children.size());
+        for (Map.Entry<String, Object> child : children.entrySet()) {
+            Task task = Task.class.newInstance();
+            for (Map.Entry<?, ?> property : ((Map<?, ?>) child.getValue()).entrySet()) {
+                Field field = Task.class.getField((String) property.getKey());
+                field.set(task, property.getValue());
+            }
+            task.restoreId(child.getKey());
+            tasks.add(task);
+        }
+        return tasks;
+    }
+
+    @NonNull
+    private static Task toggle(List<Task> taskList, int position) {
+        Task task = taskList.get(position);
+        Task updatedTask = new Task(task.getId(), task.getTitle(), !task.getCompleted());
+        taskList.set(position, updatedTask);
+        return updatedTask;
+    }
+}
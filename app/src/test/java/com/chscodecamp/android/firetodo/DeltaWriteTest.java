@@ -0,0 +1,63 @@
+package com.chscodecamp.android.firetodo;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that writing only the changed Task, the way FirebaseStateManager does, puts a small
+ * fixed number of bytes on the wire however long the list is.  DataLayerBenchmarkTest times both
+ * kinds of write.
+ */
+public class DeltaWriteTest {
+    private static final int TASK_COUNT = 10000;
+    private static final int MUTATIONS = 100;
+
+    private final List<Task> taskList = new ArrayList<>();
+    private final FakeDatabaseReference databaseReference = new FakeDatabaseReference();
+
+    @Before
+    public void setUp() throws Exception {
+        for (int i = 0; i < TASK_COUNT; i++) {
+            taskList.add(new Task("Task number " + i));
+        }
+    }
+
+    @Test
+    public void deltaWriteIsIndependentOfListSize() throws Exception {
+        for (int i = 0; i < MUTATIONS; i++) {
+            Task task = taskList.get(i * (TASK_COUNT / MUTATIONS));
+            task.setCompleted(!task.getCompleted());
+            databaseReference.setValue(FirebaseStateManager.toTaskMap(taskList));
+        }
+        long fullBytesPerMutation = databaseReference.getBytesWritten() / MUTATIONS;
+
+        databaseReference.reset();
+        for (int i = 0; i < MUTATIONS; i++) {
+            Task task = taskList.get(i * (TASK_COUNT / MUTATIONS));
+            task.setCompleted(!task.getCompleted());
+            databaseReference.updateChildren(FirebaseStateManager.toChildUpdates(TaskChangeSet.of(task)));
+        }
+        long deltaBytesPerMutation = databaseReference.getBytesWritten() / MUTATIONS;
+
+        assertEquals(MUTATIONS, databaseReference.getWriteCount());
+        assertTrue(deltaBytesPerMutation < 200);
+        assertTrue(fullBytesPerMutation > deltaBytesPerMutation * (TASK_COUNT / 2));
+    }
+
+    @Test
+    public void changeSetWritesEachTaskOnce() throws Exception {
+        Task task = taskList.get(0);
+        TaskChangeSet changeSet = TaskChangeSet.of(task);
+        task.setCompleted(true);
+        changeSet.addUpdatedTask(task);
+
+        assertEquals(1, FirebaseStateManager.toChildUpdates(changeSet).size());
+        assertTrue(FirebaseStateManager.toChildUpdates(changeSet).containsKey(task.getId()));
+    }
+}
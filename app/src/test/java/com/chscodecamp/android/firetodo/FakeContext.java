@@ -0,0 +1,63 @@
+package com.chscodecamp.android.firetodo;
+
+import android.content.ContextWrapper;
+import android.content.SharedPreferences;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A Context for local unit tests that hands out in-memory SharedPreferences and a files directory,
+ * a new temporary one unless it is given one.  Relies on unitTests.returnDefaultValues so the
+ * Android classes it extends do not throw.
+ */
+class FakeContext extends ContextWrapper {
+    private final Map<String, FakeSharedPreferences> sharedPreferences = new HashMap<>();
+    private final File filesDir;
+
+    FakeContext() {
+        this(createTempDir());
+    }
+
+    FakeContext(File filesDir) {
+        super(null);
+        this.filesDir = filesDir;
+    }
+
+    private static File createTempDir() {
+        try {
+            File dir = Files.createTempDirectory("files").toFile();
+            return dir;
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public File getFilesDir() {
+        return filesDir;
+    }
+
+    @Override
+    public FakeSharedPreferences getSharedPreferences(String name, int mode) {
+        FakeSharedPreferences preferences = sharedPreferences.get(name);
+        if (preferences == null) {
+            preferences = new FakeSharedPreferences();
+            sharedPreferences.put(name, preferences);
+        }
+        return preferences;
+    }
+
+    @Override
+    public String getPackageName() {
+        return "com.chscodecamp.android.firetodo";
+    }
+
+    @Override
+    public FakeContext getApplicationContext() {
+        return this;
+    }
+}
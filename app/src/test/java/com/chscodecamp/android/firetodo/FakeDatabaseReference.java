@@ -0,0 +1,43 @@
+package com.chscodecamp.android.firetodo;
+
+import com.google.gson.Gson;
+
+import java.nio.charset.Charset;
+import java.util.Map;
+
+/**
+ * Stands in for a Firebase DatabaseReference in local unit tests.  Rather than storing anything it
+ * counts how many bytes each write would put on the wire as JSON.
+ */
+class FakeDatabaseReference {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private final Gson gson = new Gson();
+    private long bytesWritten;
+    private int writeCount;
+
+    void setValue(Object value) {
+        record(value);
+    }
+
+    void updateChildren(Map<String, Object> childUpdates) {
+        record(childUpdates);
+    }
+
+    long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    int getWriteCount() {
+        return writeCount;
+    }
+
+    void reset() {
+        bytesWritten = 0;
+        writeCount = 0;
+    }
+
+    private void record(Object value) {
+        bytesWritten += gson.toJson(value).getBytes(UTF_8).length;
+        writeCount++;
+    }
+}
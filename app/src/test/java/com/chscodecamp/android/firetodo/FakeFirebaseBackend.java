@@ -0,0 +1,651 @@
+package com.chscodecamp.android.firetodo;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.google.gson.Gson;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * An in-process stand-in for the Firebase server that any number of clients, each a TaskDatabase,
+ * talk to over simulated connections.  Every message takes the configured latency plus the time
+ * its JSON takes to cross a link of the configured bandwidth; each client has its own up and down
+ * link, and messages on a link arrive in the order they were sent.  Clients can be disconnected
+ * and reconnected at any time.
+ * <p>
+ * A write is a multi-path update: each path is either a Task id, which replaces the whole Task, or
+ * "id/field", which sets one field and leaves the others alone.
+ * <p>
+ * Like a Firebase client, each Client shows its own writes right away, keeps them until the
+ * server confirms them and, while it has writes waiting, shows them on top of the server's
+ * values.  Writes made or still on their way while a client is offline are sent again when it
+ * reconnects.  Like FirebaseTaskDatabase, a client that has everything loaded removes a Task it
+ * finds partly written, i.e. one that got a field written after it was removed.  The server keeps the last write to arrive and counts a conflict whenever a write
+ * replaces another client's value that its writer had not seen.
+ * <p>
+ * Time is virtual and nothing happens until advance() or runUntilIdle() is called, which runs
+ * every message due on the calling thread, so load tests are fast and give the same result every
+ * run.
+ */
+class FakeFirebaseBackend {
+    private static final int MAX_EVENTS = 10000000;
+
+    private final Gson gson = new Gson();
+    private final Map<String, Map<String, Object>> values = new TreeMap<>();
+    private final Map<String, Long> versions = new HashMap<>();
+    private final Map<String, Client> lastWriters = new HashMap<>();
+    private final Set<Long> appliedWriteIds = new HashSet<>();
+    private final PriorityQueue<Event> events = new PriorityQueue<>();
+    private final List<Client> clients = new ArrayList<>();
+    private long latencyMillis;
+    private long bytesPerSecond;
+    private long now;
+    private long eventSequence;
+    private long writeSequence;
+    private long bytesUploaded;
+    private long bytesDownloaded;
+    private int writeCount;
+    private int conflictCount;
+
+    /**
+     * @param latencyMillis  how long each message takes to arrive, one way
+     * @param bytesPerSecond the bandwidth of each client's up and down link, or 0 for no limit
+     */
+    FakeFirebaseBackend(long latencyMillis, long bytesPerSecond) {
+        this.latencyMillis = latencyMillis;
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    void setLatencyMillis(long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+    }
+
+    void setBytesPerSecond(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * @return a new client, connected and with nothing cached
+     */
+    @NonNull
+    Client newClient() {
+        Client client = new Client();
+        clients.add(client);
+        return client;
+    }
+
+    /**
+     * Store Tasks on the server directly, e.g. to start a test with a large list.
+     */
+    void seed(@NonNull List<Task> tasks) {
+        for (Task task : tasks) {
+            values.put(task.getId(), TaskCodec.toMap(task));
+            versions.put(task.getId(), ++writeSequence);
+        }
+    }
+
+    /**
+     * Run every message due in the next few milliseconds.
+     */
+    void advance(long millis) {
+        runEvents(now + millis);
+    }
+
+    /**
+     * Run messages until there are none left.
+     */
+    void runUntilIdle() {
+        runEvents(Long.MAX_VALUE);
+    }
+
+    long now() {
+        return now;
+    }
+
+    @Nullable
+    Task getStoredTask(String id) {
+        return TaskCodec.fromMap(id, values.get(id));
+    }
+
+    int size() {
+        return values.size();
+    }
+
+    @NonNull
+    Map<String, Map<String, Object>> getValues() {
+        return values;
+    }
+
+    long getBytesUploaded() {
+        return bytesUploaded;
+    }
+
+    long getBytesDownloaded() {
+        return bytesDownloaded;
+    }
+
+    /**
+     * @return the number of writes the server applied
+     */
+    int getWriteCount() {
+        return writeCount;
+    }
+
+    /**
+     * @return the number of values overwritten by a client that hadn't seen them
+     */
+    int getConflictCount() {
+        return conflictCount;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%d ms, %d writes, %d conflicts, %d KB up, %d KB down",
+                now, writeCount, conflictCount, bytesUploaded / 1024, bytesDownloaded / 1024);
+    }
+
+    private void runEvents(long until) {
+        int count = 0;
+        while (!events.isEmpty() && events.peek().time <= until) {
+            if (++count > MAX_EVENTS) {
+                throw new IllegalStateException("The backend never became idle");
+            }
+            Event event = events.poll();
+            now = Math.max(now, event.time);
+            event.runnable.run();
+        }
+        if (until != Long.MAX_VALUE) {
+            now = Math.max(now, until);
+        }
+    }
+
+    private void schedule(long time, Runnable runnable) {
+        events.add(new Event(time, eventSequence++, runnable));
+    }
+
+    private long transmitMillis(long bytes) {
+        return bytesPerSecond == 0 ? 0 : (bytes * 1000 + bytesPerSecond - 1) / bytesPerSecond;
+    }
+
+    private long sizeOf(@NonNull Map<String, ?> children) {
+        long bytes = 2;
+        for (Map.Entry<String, ?> entry : children.entrySet()) {
+            bytes += entry.getKey().length() + 4 + (entry.getValue() == null ? 4 : gson.toJson(entry.getValue()).length());
+        }
+        return bytes;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Nullable
+    private static Map<String, Object> copy(@Nullable Object value) {
+        return value == null ? null : new HashMap<>((Map<String, Object>) value);
+    }
+
+    @NonNull
+    private static String idOf(@NonNull String path) {
+        int slash = path.indexOf('/');
+        return slash < 0 ? path : path.substring(0, slash);
+    }
+
+    @NonNull
+    private static Set<String> idsOf(@NonNull Map<String, Object> children) {
+        Set<String> ids = new LinkedHashSet<>();
+        for (String path : children.keySet()) {
+            ids.add(idOf(path));
+        }
+        return ids;
+    }
+
+    /**
+     * Apply one path of a write to a Task's value.  Like Firebase, a Task left without fields is
+     * gone.
+     *
+     * @return the new value, or null if there is no Task
+     */
+    @Nullable
+    private static Map<String, Object> applyPath(@Nullable Map<String, Object> value, @NonNull String path, @Nullable Object newValue) {
+        int slash = path.indexOf('/');
+        if (slash < 0) {
+            return copy(newValue);
+        }
+        Map<String, Object> fields = value == null ? new HashMap<String, Object>() : copy(value);
+        if (newValue == null) {
+            fields.remove(path.substring(slash + 1));
+        } else {
+            fields.put(path.substring(slash + 1), newValue);
+        }
+        return fields.isEmpty() ? null : fields;
+    }
+
+    private static void applyPathTo(@NonNull Map<String, Map<String, Object>> values, @NonNull String path, @Nullable Object newValue) {
+        String id = idOf(path);
+        Map<String, Object> value = applyPath(values.get(id), path, newValue);
+        if (value == null) {
+            values.remove(id);
+        } else {
+            values.put(id, value);
+        }
+    }
+
+    /**
+     * Apply a write that reached the server, tell its writer and pass it on to everybody else.
+     */
+    private void apply(@NonNull Client writer, @NonNull Write write) {
+        if (!appliedWriteIds.add(write.id)) {
+            return;
+        }
+        writeCount++;
+        Map<String, Long> appliedVersions = new HashMap<>();
+        for (String id : idsOf(write.children)) {
+            Long seenVersion = write.seenVersions.get(id);
+            Long version = versions.get(id);
+            if (version != null && !version.equals(seenVersion) && lastWriters.get(id) != writer) {
+                conflictCount++;
+            }
+            lastWriters.put(id, writer);
+            long newVersion = ++writeSequence;
+            versions.put(id, newVersion);
+            appliedVersions.put(id, newVersion);
+        }
+        for (Map.Entry<String, Object> entry : write.children.entrySet()) {
+            applyPathTo(values, entry.getKey(), entry.getValue());
+        }
+        writer.deliverAck(write, appliedVersions);
+        for (Client client : clients) {
+            if (client != writer) {
+                client.deliverRemoteWrite(write.children, appliedVersions);
+            }
+        }
+    }
+
+    private static class Event implements Comparable<Event> {
+        final long time;
+        final long sequence;
+        final Runnable runnable;
+
+        Event(long time, long sequence, Runnable runnable) {
+            this.time = time;
+            this.sequence = sequence;
+            this.runnable = runnable;
+        }
+
+        @Override
+        public int compareTo(@NonNull Event other) {
+            if (time != other.time) {
+                return time < other.time ? -1 : 1;
+            }
+            return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+        }
+    }
+
+    private static class Write {
+        final long id;
+        final Map<String, Object> children;
+        final Map<String, Long> seenVersions;
+        final TaskDatabase.WriteListener listener;
+
+        Write(long id, Map<String, Object> children, Map<String, Long> seenVersions, TaskDatabase.WriteListener listener) {
+            this.id = id;
+            this.children = children;
+            this.seenVersions = seenVersions;
+            this.listener = listener;
+        }
+    }
+
+    /**
+     * One device's connection to the backend.
+     */
+    class Client implements TaskDatabase {
+        /**
+         * What the server had when we last heard from it.
+         */
+        private final Map<String, Map<String, Object>> serverValues = new TreeMap<>();
+        private final Map<String, Long> serverVersions = new HashMap<>();
+
+        /**
+         * What we show: the server's values with our unconfirmed writes on top.
+         */
+        private final Map<String, Map<String, Object>> view = new TreeMap<>();
+
+        /**
+         * Our writes the server hasn't confirmed yet, oldest first.
+         */
+        private final List<Write> unconfirmedWrites = new ArrayList<>();
+        private final Map<String, Integer> unconfirmedCounts = new HashMap<>();
+        private SyncListener syncListener;
+        private ConnectionListener connectionListener;
+        private boolean connected = true;
+        private boolean initialTasksDelivered;
+
+        /**
+         * Goes up on every disconnect and reconnect.  Messages sent in an earlier connection are
+         * lost.
+         */
+        private int connection;
+        private long uplinkFreeAt;
+        private long downlinkFreeAt;
+
+        void setConnected(boolean connected) {
+            if (this.connected == connected) {
+                return;
+            }
+            this.connected = connected;
+            connection++;
+            if (connectionListener != null) {
+                connectionListener.onConnectionChanged(connected);
+            }
+            if (connected) {
+                resync();
+                for (Write write : new ArrayList<>(unconfirmedWrites)) {
+                    send(write);
+                }
+            }
+        }
+
+        boolean isConnected() {
+            return connected;
+        }
+
+        @Nullable
+        Task getTask(String id) {
+            return TaskCodec.fromMap(id, view.get(id));
+        }
+
+        /**
+         * @return what this client shows, keyed by Task id
+         */
+        @NonNull
+        Map<String, Map<String, Object>> getValues() {
+            return view;
+        }
+
+        int getUnconfirmedWriteCount() {
+            return unconfirmedWrites.size();
+        }
+
+        @Override
+        public void setTasks(@NonNull Map<String, Object> tasks) {
+            Map<String, Object> childUpdates = new HashMap<>(tasks);
+            for (String id : view.keySet()) {
+                if (!tasks.containsKey(id)) {
+                    childUpdates.put(id, null);
+                }
+            }
+            updateTasks(childUpdates);
+        }
+
+        @Override
+        public void updateTasks(@NonNull Map<String, Object> childUpdates) {
+            updateTasks(childUpdates, new WriteListener() {
+                @Override
+                public void onWriteComplete(@Nullable String errorMessage) {
+                }
+            });
+        }
+
+        @Override
+        public void updateTasks(@NonNull Map<String, Object> childUpdates, @NonNull WriteListener listener) {
+            Map<String, Object> children = new LinkedHashMap<>();
+            for (Map.Entry<String, Object> entry : childUpdates.entrySet()) {
+                children.put(entry.getKey(), entry.getValue() instanceof Map ? copy(entry.getValue()) : entry.getValue());
+            }
+            Map<String, Long> seenVersions = new HashMap<>();
+            for (String id : idsOf(children)) {
+                seenVersions.put(id, serverVersions.get(id));
+            }
+            Write write = new Write(++writeSequence, children, seenVersions, listener);
+            unconfirmedWrites.add(write);
+            for (String id : idsOf(children)) {
+                Integer count = unconfirmedCounts.get(id);
+                unconfirmedCounts.put(id, count == null ? 1 : count + 1);
+                show(id, overlay(id));
+            }
+            if (connected) {
+                send(write);
+            }
+        }
+
+        @Override
+        public void setConnectionListener(@Nullable ConnectionListener listener) {
+            connectionListener = listener;
+            if (listener != null) {
+                listener.onConnectionChanged(connected);
+            }
+        }
+
+        /**
+         * Offline we start from whatever we have cached, like Firebase with persistence enabled.
+         * Online the server's values arrive after a round trip.
+         */
+        @Override
+        public void startSync(@NonNull SyncListener listener) {
+            syncListener = listener;
+            initialTasksDelivered = false;
+            if (connected) {
+                resync();
+            } else {
+                deliverInitialTasks();
+            }
+        }
+
+        @Override
+        public void stopSync() {
+            syncListener = null;
+        }
+
+        private void send(final Write write) {
+            final int sentOn = connection;
+            long bytes = sizeOf(write.children);
+            bytesUploaded += bytes;
+            uplinkFreeAt = Math.max(now, uplinkFreeAt) + transmitMillis(bytes);
+            schedule(uplinkFreeAt + latencyMillis, new Runnable() {
+                @Override
+                public void run() {
+                    if (sentOn == connection) {
+                        apply(Client.this, write);
+                    }
+                }
+            });
+        }
+
+        /**
+         * Send a message from the server down our link.  It is lost if we disconnect before it
+         * arrives.
+         */
+        private void receive(long bytes, final Runnable message) {
+            if (!connected) {
+                return;
+            }
+            final int sentOn = connection;
+            bytesDownloaded += bytes;
+            downlinkFreeAt = Math.max(now, downlinkFreeAt) + transmitMillis(bytes);
+            schedule(downlinkFreeAt + latencyMillis, new Runnable() {
+                @Override
+                public void run() {
+                    if (sentOn == connection) {
+                        message.run();
+                    }
+                }
+            });
+        }
+
+        /**
+         * Ask the server for everything it has.  Writes the server already applied but never
+         * confirmed, because we disconnected, are confirmed now.
+         */
+        private void resync() {
+            final int sentOn = connection;
+            schedule(now + latencyMillis, new Runnable() {
+                @Override
+                public void run() {
+                    if (sentOn != connection) {
+                        return;
+                    }
+                    final Map<String, Map<String, Object>> snapshot = new TreeMap<>();
+                    for (Map.Entry<String, Map<String, Object>> entry : values.entrySet()) {
+                        snapshot.put(entry.getKey(), copy(entry.getValue()));
+                    }
+                    final Map<String, Long> snapshotVersions = new HashMap<>(versions);
+                    final List<Write> applied = new ArrayList<>();
+                    for (Write write : unconfirmedWrites) {
+                        if (appliedWriteIds.contains(write.id)) {
+                            applied.add(write);
+                        }
+                    }
+                    receive(sizeOf(snapshot), new Runnable() {
+                        @Override
+                        public void run() {
+                            serverValues.clear();
+                            serverValues.putAll(snapshot);
+                            serverVersions.clear();
+                            serverVersions.putAll(snapshotVersions);
+                            for (Write write : applied) {
+                                confirm(write);
+                            }
+                            Set<String> ids = new HashSet<>(view.keySet());
+                            ids.addAll(serverValues.keySet());
+                            for (String id : ids) {
+                                show(id, overlay(id));
+                            }
+                            deliverInitialTasks();
+                        }
+                    });
+                }
+            });
+        }
+
+        private void deliverAck(final Write write, final Map<String, Long> appliedVersions) {
+            receive(16, new Runnable() {
+                @Override
+                public void run() {
+                    putServerValues(write.children, appliedVersions);
+                    confirm(write);
+                }
+            });
+        }
+
+        private void deliverRemoteWrite(final Map<String, Object> children, final Map<String, Long> appliedVersions) {
+            receive(sizeOf(children), new Runnable() {
+                @Override
+                public void run() {
+                    putServerValues(children, appliedVersions);
+                    for (String id : idsOf(children)) {
+                        show(id, overlay(id));
+                    }
+                }
+            });
+        }
+
+        private void putServerValues(Map<String, Object> children, Map<String, Long> appliedVersions) {
+            for (Map.Entry<String, Object> entry : children.entrySet()) {
+                applyPathTo(serverValues, entry.getKey(), entry.getValue());
+            }
+            for (String id : idsOf(children)) {
+                serverVersions.put(id, appliedVersions.get(id));
+            }
+        }
+
+        /**
+         * @return the server's value of a Task with our unconfirmed writes on top, oldest first
+         */
+        @Nullable
+        private Map<String, Object> overlay(String id) {
+            Map<String, Object> value = copy(serverValues.get(id));
+            for (Write write : unconfirmedWrites) {
+                for (Map.Entry<String, Object> entry : write.children.entrySet()) {
+                    if (idOf(entry.getKey()).equals(id)) {
+                        value = applyPath(value, entry.getKey(), entry.getValue());
+                    }
+                }
+            }
+            return value;
+        }
+
+        /**
+         * Drop a confirmed write.  Tasks with no other write waiting show the server's value
+         * again.
+         */
+        private void confirm(Write write) {
+            if (!unconfirmedWrites.remove(write)) {
+                return;
+            }
+            for (String id : idsOf(write.children)) {
+                int count = unconfirmedCounts.get(id) - 1;
+                if (count == 0) {
+                    unconfirmedCounts.remove(id);
+                } else {
+                    unconfirmedCounts.put(id, count);
+                }
+                show(id, overlay(id));
+            }
+            write.listener.onWriteComplete(null);
+        }
+
+        /**
+         * Change what we show and tell the sync listener, if anything changed.
+         */
+        private void show(String id, @Nullable Map<String, Object> value) {
+            Map<String, Object> oldValue = value == null ? view.remove(id) : view.put(id, copy(value));
+            if (syncListener == null || !initialTasksDelivered) {
+                return;
+            }
+
+            /**
+             * Like FirebaseTaskDatabase we skip values that are not Tasks.  Once everything has
+             * been loaded a partly written Task is one that was removed before a field of it was
+             * written, so it is gone and we remove what is left of it.
+             */
+            Task task = TaskCodec.fromMap(id, value);
+            Task oldTask = TaskCodec.fromMap(id, oldValue);
+            if (task == null) {
+                if (oldTask != null) {
+                    syncListener.onTaskRemoved(id);
+                }
+                if (TaskCodec.isPartlyWritten(value)) {
+                    removePartlyWritten(id);
+                }
+            } else if (oldTask == null) {
+                syncListener.onTaskAdded(task);
+            } else if (!oldValue.equals(value)) {
+                syncListener.onTaskChanged(task);
+            }
+        }
+
+        private void deliverInitialTasks() {
+            if (syncListener == null || initialTasksDelivered) {
+                return;
+            }
+            initialTasksDelivered = true;
+            List<Task> tasks = new ArrayList<>(view.size());
+            List<String> partlyWrittenIds = new ArrayList<>();
+            for (Map.Entry<String, Map<String, Object>> entry : view.entrySet()) {
+                Task task = TaskCodec.fromMap(entry.getKey(), entry.getValue());
+                if (task != null) {
+                    tasks.add(task);
+                } else if (TaskCodec.isPartlyWritten(entry.getValue())) {
+                    partlyWrittenIds.add(entry.getKey());
+                }
+            }
+            for (String id : partlyWrittenIds) {
+                removePartlyWritten(id);
+            }
+            syncListener.onInitialTasks(tasks);
+        }
+
+        private void removePartlyWritten(String id) {
+            updateTasks(Collections.singletonMap(id, (Object) null));
+        }
+    }
+}
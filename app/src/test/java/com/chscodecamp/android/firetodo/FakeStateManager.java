@@ -0,0 +1,93 @@
+package com.chscodecamp.android.firetodo;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An in-memory TaskListStateManager for local unit tests.  loadTasks() hands back whatever list
+ * was last given to setStoredTasks(), or after setLoadDeferred(true) waits for deliverStoredTasks()
+ * like a database that answers later.
+ */
+class FakeStateManager implements TaskListStateManager {
+    private final List<Task> storedTasks = new ArrayList<>();
+    private DataSetChangedListener dataSetChangedListener;
+    private int saveCount;
+    private int changeSetCount;
+    private int loadCount;
+    private boolean closed;
+    private boolean loadDeferred;
+
+    void setStoredTasks(@NonNull List<Task> taskList) {
+        storedTasks.clear();
+        storedTasks.addAll(taskList);
+    }
+
+    void setLoadDeferred(boolean loadDeferred) {
+        this.loadDeferred = loadDeferred;
+    }
+
+    void deliverStoredTasks() {
+        if (dataSetChangedListener != null) {
+            dataSetChangedListener.onDataSetChanged(new ArrayList<>(storedTasks));
+        }
+    }
+
+    int getSaveCount() {
+        return saveCount;
+    }
+
+    int getChangeSetCount() {
+        return changeSetCount;
+    }
+
+    int getLoadCount() {
+        return loadCount;
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public void onUpgrade(@NonNull Context context, int newVersion, int oldVersion) {
+    }
+
+    @Override
+    public void saveTasks(@NonNull List<Task> taskList) {
+        saveCount++;
+    }
+
+    @Override
+    public void saveTaskChanges(@NonNull TaskChangeSet changeSet, @NonNull List<Task> taskList) {
+        changeSetCount++;
+    }
+
+    @Override
+    public void loadTasks() {
+        loadCount++;
+        if (!loadDeferred) {
+            deliverStoredTasks();
+        }
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+    }
+
+    @Override
+    public void setDataSetChangedListener(@NonNull DataSetChangedListener listener) {
+        this.dataSetChangedListener = listener;
+    }
+
+    @Override
+    public void setTaskChangedListener(@NonNull TaskChangedListener listener) {
+    }
+}
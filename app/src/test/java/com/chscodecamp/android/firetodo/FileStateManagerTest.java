@@ -0,0 +1,159 @@
+package com.chscodecamp.android.firetodo;
+
+import android.support.annotation.NonNull;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that FileStateManager's log replays to the list that was saved.
+ */
+public class FileStateManagerTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private FakeContext context;
+    private File logFile;
+
+    @Before
+    public void setUp() throws Exception {
+        context = new FakeContext(temporaryFolder.getRoot());
+        logFile = new File(temporaryFolder.getRoot(), "tasks.log");
+    }
+
+    @Test
+    public void changesAreAppendedAndReplayed() throws Exception {
+        FileStateManager stateManager = new FileStateManager(context, FireToDoApplication.DATA_SCHEMA_VERSION);
+        List<Task> taskList = load(stateManager);
+        stateManager.flush();
+        int records = countLines();
+
+        Task task = new Task("Appended");
+        taskList.add(task);
+        stateManager.saveTaskChanges(TaskChangeSet.of(task), taskList);
+        task.setCompleted(true);
+        stateManager.saveTaskChanges(TaskChangeSet.of(task), taskList);
+        stateManager.flush();
+
+        assertEquals(records + 2, countLines());
+
+        List<Task> replayed = load(new FileStateManager(context, FireToDoApplication.DATA_SCHEMA_VERSION));
+        assertEquals(taskList, replayed);
+        assertTrue(replayed.get(replayed.size() - 1).getCompleted());
+    }
+
+    @Test
+    public void batchIsAppendedInOneGo() throws Exception {
+        FileStateManager stateManager = new FileStateManager(context, FireToDoApplication.DATA_SCHEMA_VERSION);
+        List<Task> taskList = load(stateManager);
+        stateManager.flush();
+        int records = countLines();
+
+        TaskChangeSet changeSet = new TaskChangeSet();
+        Task removed = taskList.remove(0);
+        changeSet.addRemovedTask(removed.getId());
+        Task task = new Task("Added in a batch");
+        taskList.add(task);
+        changeSet.addUpdatedTask(task);
+        stateManager.saveTaskChanges(changeSet, taskList);
+        stateManager.flush();
+
+        assertEquals(records + 2, countLines());
+        assertEquals(taskList, load(new FileStateManager(context, FireToDoApplication.DATA_SCHEMA_VERSION)));
+    }
+
+    @Test
+    public void logIsCompactedOnceItOutgrowsTheList() throws Exception {
+        FileStateManager stateManager = new FileStateManager(context, FireToDoApplication.DATA_SCHEMA_VERSION);
+        List<Task> taskList = load(stateManager);
+        Task task = taskList.get(0);
+        for (int i = 0; i < 500; i++) {
+            task.setCompleted(!task.getCompleted());
+            stateManager.saveTaskChanges(TaskChangeSet.of(task), taskList);
+        }
+        stateManager.flush();
+
+        assertTrue(countLines() <= 100);
+        assertEquals(taskList, load(new FileStateManager(context, FireToDoApplication.DATA_SCHEMA_VERSION)));
+    }
+
+    @Test
+    public void recordCutShortByACrashIsSkipped() throws Exception {
+        FileStateManager stateManager = new FileStateManager(context, FireToDoApplication.DATA_SCHEMA_VERSION);
+        List<Task> taskList = load(stateManager);
+        stateManager.flush();
+
+        FileOutputStream outputStream = new FileOutputStream(logFile, true);
+        outputStream.write("{\"put\":{\"title\":\"Cut sh".getBytes("UTF-8"));
+        outputStream.close();
+
+        assertEquals(taskList, load(new FileStateManager(context, FireToDoApplication.DATA_SCHEMA_VERSION)));
+    }
+
+    @Test
+    public void recordAppendedAfterOneCutShortSurvives() throws Exception {
+        FileStateManager stateManager = new FileStateManager(context, FireToDoApplication.DATA_SCHEMA_VERSION);
+        load(stateManager);
+        stateManager.flush();
+
+        FileOutputStream outputStream = new FileOutputStream(logFile, true);
+        outputStream.write("{\"put\":{\"title\":\"Cut sh".getBytes("UTF-8"));
+        outputStream.close();
+
+        stateManager = new FileStateManager(context, FireToDoApplication.DATA_SCHEMA_VERSION);
+        List<Task> taskList = load(stateManager);
+        Task task = new Task("Appended after a crash");
+        taskList.add(task);
+        stateManager.saveTaskChanges(TaskChangeSet.of(task), taskList);
+        stateManager.flush();
+
+        assertEquals(taskList, load(new FileStateManager(context, FireToDoApplication.DATA_SCHEMA_VERSION)));
+    }
+
+    @Test
+    public void tasksInSharedPreferencesMoveToTheLogOnUpgrade() throws Exception {
+        SharedPreferenceStateManager oldStateManager = new SharedPreferenceStateManager(context, 2);
+        List<Task> saved = new ArrayList<>();
+        saved.add(new Task("Saved before the upgrade"));
+        oldStateManager.saveTasks(saved);
+        oldStateManager.flush();
+
+        List<Task> loaded = load(new FileStateManager(context, 3));
+
+        assertEquals(saved, loaded);
+        assertTrue(new SharedPreferenceStateManager(context, 3).readSavedTasks().isEmpty());
+    }
+
+    private List<Task> load(FileStateManager stateManager) {
+        final List<Task> loaded = new ArrayList<>();
+        stateManager.setDataSetChangedListener(new DataSetChangedListener() {
+            @Override
+            public void onDataSetChanged(@NonNull List<Task> taskList) {
+                loaded.addAll(taskList);
+            }
+        });
+        stateManager.loadTasks();
+        return loaded;
+    }
+
+    private int countLines() throws Exception {
+        int lines = 0;
+        for (byte b : Files.readAllBytes(logFile.toPath())) {
+            if (b == '\n') {
+                lines++;
+            }
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,101 @@
+package com.chscodecamp.android.firetodo;
+
+import android.support.annotation.NonNull;
+import android.support.v7.util.ListUpdateCallback;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Checks FilteredTaskList against a plain copy of the incomplete tasks that is kept in step using
+ * the callbacks it reports.
+ */
+public class FilteredTaskListTest {
+    private static final FilteredTaskList.Filter INCOMPLETE_TASKS = new FilteredTaskList.Filter() {
+        @Override
+        public boolean accept(@NonNull Task task) {
+            return !task.getCompleted();
+        }
+    };
+
+    @Test
+    public void callbacksKeepViewInStepWithSource() throws Exception {
+        final List<Task> source = new ArrayList<>();
+        final List<Task> view = new ArrayList<>();
+        Random random = new Random(7);
+        for (int i = 0; i < 100; i++) {
+            Task task = new Task("Task " + i);
+            task.setCompleted(random.nextBoolean());
+            source.add(task);
+            if (!task.getCompleted()) {
+                view.add(task);
+            }
+        }
+
+        FilteredTaskList filteredTaskList = new FilteredTaskList(source, INCOMPLETE_TASKS, new ListUpdateCallback() {
+            @Override
+            public void onInserted(int position, int count) {
+                view.add(position, findInserted(source, view, position));
+            }
+
+            @Override
+            public void onRemoved(int position, int count) {
+                view.remove(position);
+            }
+
+            @Override
+            public void onMoved(int fromPosition, int toPosition) {
+                view.add(toPosition, view.remove(fromPosition));
+            }
+
+            @Override
+            public void onChanged(int position, int count, Object payload) {
+            }
+        });
+
+        for (int i = 0; i < 5000; i++) {
+            int choice = random.nextInt(10);
+            if (choice == 0) {
+                source.add(new Task("Added " + i));
+                filteredTaskList.onSourceAppended();
+            } else if (choice == 1 && !source.isEmpty()) {
+                int sourcePosition = random.nextInt(source.size());
+                source.remove(sourcePosition);
+                filteredTaskList.onSourceRemoved(sourcePosition);
+            } else if (!source.isEmpty()) {
+                int sourcePosition = random.nextInt(source.size());
+                Task task = source.get(sourcePosition);
+                task.setCompleted(!task.getCompleted());
+                filteredTaskList.onSourceChanged(sourcePosition);
+            }
+            assertEquals(view.size(), filteredTaskList.size());
+        }
+
+        for (int i = 0; i < view.size(); i++) {
+            assertSame(view.get(i), filteredTaskList.get(i));
+            assertEquals(i, filteredTaskList.getPosition(source.indexOf(view.get(i))));
+        }
+    }
+
+    /**
+     * Work out which Task the filtered list just inserted by walking the source list.
+     */
+    private static Task findInserted(List<Task> source, List<Task> view, int position) {
+        int seen = 0;
+        for (Task task : source) {
+            if (!task.getCompleted()) {
+                if (seen == position && (position >= view.size() || view.get(position) != task)) {
+                    return task;
+                }
+                seen++;
+            }
+        }
+        throw new AssertionError("No task was inserted at " + position);
+    }
+}
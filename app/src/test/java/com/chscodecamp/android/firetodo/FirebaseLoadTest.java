@@ -0,0 +1,191 @@
+package com.chscodecamp.android.firetodo;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Load and conflict tests of FirebaseStateManager's sync against FakeFirebaseBackend, with the
+ * latency and bandwidth of a slow mobile connection.  They check that large lists and many writers
+ * converge, not how long it takes; DataLayerBenchmarkTest does the timing.
+ */
+public class FirebaseLoadTest {
+    private static final long LATENCY_MILLIS = 150;
+    private static final long BYTES_PER_SECOND = 128 * 1024;
+
+    @Test
+    public void largeListLoadsAndSyncsToOtherClients() throws Exception {
+        FakeFirebaseBackend backend = new FakeFirebaseBackend(LATENCY_MILLIS, BYTES_PER_SECOND);
+        backend.seed(createTasks(10000));
+        FakeFirebaseBackend.Client observer = backend.newClient();
+        CountingSyncListener observed = new CountingSyncListener();
+        observer.startSync(observed);
+
+        FirebaseStateManager stateManager = open(backend.newClient(), "load");
+        TaskManager taskManager = TaskManager.getInstance();
+        backend.runUntilIdle();
+
+        assertEquals(10000, taskManager.getTasks().size());
+
+        Random random = new Random(42);
+        for (int i = 0; i < 1000; i++) {
+            Task task = taskManager.getTasks().get(random.nextInt(10000));
+            taskManager.updateTask(new Task(task.getId(), task.getTitle(), !task.getCompleted()));
+        }
+        backend.runUntilIdle();
+
+        assertEquals(0, stateManager.getOutbox().getPendingCount());
+
+        /**
+         * The first toggle goes out on its own; the rest pile up behind it and follow in a single
+         * update, since we were connected all along.
+         */
+        assertEquals(2, stateManager.getOutbox().getBatchCount());
+        assertEquals(backend.getValues(), observer.getValues());
+        assertTrue(observed.changes > 0);
+        for (Task task : taskManager.getTasks()) {
+            assertEquals(task.getCompleted(), backend.getStoredTask(task.getId()).getCompleted());
+        }
+        taskManager.close();
+    }
+
+    @Test
+    public void offlineEditsConvergeAfterReconnect() throws Exception {
+        FakeFirebaseBackend backend = new FakeFirebaseBackend(LATENCY_MILLIS, BYTES_PER_SECOND);
+        backend.seed(createTasks(100));
+        FakeFirebaseBackend.Client phone = backend.newClient();
+        FakeFirebaseBackend.Client tablet = backend.newClient();
+        open(phone, "phone");
+        TaskManager phoneTasks = TaskManager.getInstance();
+        open(tablet, "tablet");
+        TaskManager tabletTasks = TaskManager.getInstance();
+        backend.runUntilIdle();
+
+        phone.setConnected(false);
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 10; i++) {
+                toggle(phoneTasks, i);
+            }
+        }
+        backend.advance(1000);
+        for (int i = 5; i < 15; i++) {
+            toggle(tabletTasks, i);
+        }
+        backend.runUntilIdle();
+
+        assertFalse(phone.isConnected());
+        assertTrue(phoneTasks.getTasks().get(0).getCompleted());
+        assertTrue(backend.getStoredTask(phoneTasks.getTasks().get(12).getId()).getCompleted());
+
+        phone.setConnected(true);
+        backend.runUntilIdle();
+
+        assertEquals(backend.getValues(), phone.getValues());
+        assertEquals(backend.getValues(), tablet.getValues());
+        for (int i = 0; i < 15; i++) {
+            Task stored = backend.getStoredTask(phoneTasks.getTasks().get(i).getId());
+            assertTrue(stored.getCompleted());
+            assertEquals(stored.getCompleted(), phoneTasks.getTasks().get(i).getCompleted());
+            assertEquals(stored.getCompleted(), tabletTasks.getTasks().get(i).getCompleted());
+        }
+
+        /**
+         * Tasks 5 to 9 were changed on both devices; the phone's writes arrived last and won.
+         */
+        assertEquals(5, backend.getConflictCount());
+        phoneTasks.close();
+        tabletTasks.close();
+    }
+
+    @Test
+    public void concurrentWritersConverge() throws Exception {
+        FakeFirebaseBackend backend = new FakeFirebaseBackend(LATENCY_MILLIS, BYTES_PER_SECOND);
+        List<Task> tasks = createTasks(500);
+        backend.seed(tasks);
+        List<FakeFirebaseBackend.Client> clients = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            FakeFirebaseBackend.Client client = backend.newClient();
+            client.startSync(new CountingSyncListener());
+            clients.add(client);
+        }
+        backend.runUntilIdle();
+
+        Random random = new Random(42);
+        for (int i = 0; i < 5000; i++) {
+            FakeFirebaseBackend.Client client = clients.get(random.nextInt(clients.size()));
+            if (random.nextInt(50) == 0) {
+                client.setConnected(!client.isConnected());
+            }
+            Task task = tasks.get(random.nextInt(tasks.size()));
+            Object value = random.nextInt(10) == 0 ? null
+                    : TaskCodec.toMap(new Task(task.getId(), task.getTitle(), random.nextBoolean()));
+            client.updateTasks(Collections.singletonMap(task.getId(), value));
+            backend.advance(random.nextInt(20));
+        }
+        for (FakeFirebaseBackend.Client client : clients) {
+            client.setConnected(true);
+        }
+        backend.runUntilIdle();
+
+        assertEquals(5000, backend.getWriteCount());
+        assertTrue(backend.getConflictCount() > 0);
+        for (FakeFirebaseBackend.Client client : clients) {
+            assertEquals(0, client.getUnconfirmedWriteCount());
+            assertEquals(backend.getValues(), client.getValues());
+        }
+    }
+
+    private static FirebaseStateManager open(FakeFirebaseBackend.Client client, String listId) {
+        FirebaseStateManager stateManager = new FirebaseStateManager(new FakeContext(), client, listId, FireToDoApplication.DATA_SCHEMA_VERSION);
+        TaskManager.init(listId, stateManager);
+        return stateManager;
+    }
+
+    private static void toggle(TaskManager taskManager, int position) {
+        Task task = taskManager.getTasks().get(position);
+        taskManager.updateTask(new Task(task.getId(), task.getTitle(), !task.getCompleted()));
+    }
+
+    private static List<Task> createTasks(int count) {
+        List<Task> tasks = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            tasks.add(new Task(String.format("task-%06d", i), "Task number " + i, false));
+        }
+        return tasks;
+    }
+
+    private static class CountingSyncListener implements TaskDatabase.SyncListener {
+        int changes;
+
+        @Override
+        public void onInitialTasks(List<Task> tasks) {
+        }
+
+        @Override
+        public void onTaskAdded(Task task) {
+            changes++;
+        }
+
+        @Override
+        public void onTaskChanged(Task task) {
+            changes++;
+        }
+
+        @Override
+        public void onTaskRemoved(String id) {
+            changes++;
+        }
+
+        @Override
+        public void onCancelled(String message) {
+        }
+    }
+}
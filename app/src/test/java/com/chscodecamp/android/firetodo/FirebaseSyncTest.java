@@ -0,0 +1,172 @@
+package com.chscodecamp.android.firetodo;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs FirebaseStateManager's live sync against an in-memory database standing in for Firebase.
+ */
+public class FirebaseSyncTest {
+    private InMemoryTaskDatabase database;
+    private TaskManager taskManager;
+    private int listUpdates;
+    private final List<String> taskUpdates = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        database = new InMemoryTaskDatabase();
+        for (int i = 0; i < 100; i++) {
+            Task task = new Task("Task " + i);
+            database.updateTasks(Collections.<String, Object>singletonMap(task.getId(), TaskCodec.toMap(task)));
+        }
+        TaskManager.init(new FirebaseStateManager(new FakeContext(), database, TaskLists.DEFAULT_LIST_ID, FireToDoApplication.DATA_SCHEMA_VERSION));
+        taskManager = TaskManager.getInstance();
+        taskManager.setTaskListStateListener(new TaskListStateListener() {
+            @Override
+            public void onTaskListUpdated() {
+                listUpdates++;
+            }
+
+            @Override
+            public void onTaskAdded(Task task) {
+                taskUpdates.add("added " + task.getTitle());
+            }
+
+            @Override
+            public void onTaskChanged(int position, Task task) {
+                taskUpdates.add("changed " + position);
+            }
+
+            @Override
+            public void onTaskRemoved(int position, String id) {
+                taskUpdates.add("removed " + position);
+            }
+
+            @Override
+            public void onTaskListClosed() {
+                taskUpdates.add("closed");
+            }
+        });
+        listUpdates = 0;
+    }
+
+    @Test
+    public void initialLoadDeliversEveryTask() throws Exception {
+        assertEquals(100, taskManager.getTasks().size());
+    }
+
+    @Test
+    public void remoteChangesAreAppliedIncrementally() throws Exception {
+        Task remoteTask = database.getStoredTask(taskManager.getTasks().get(10).getId());
+        remoteTask.setCompleted(true);
+        database.updateTasks(Collections.<String, Object>singletonMap(remoteTask.getId(), TaskCodec.toMap(remoteTask)));
+
+        assertTrue(taskManager.getTasks().get(10).getCompleted());
+
+        Task newTask = new Task("Added on another device");
+        database.updateTasks(Collections.<String, Object>singletonMap(newTask.getId(), TaskCodec.toMap(newTask)));
+
+        assertEquals(101, taskManager.getTasks().size());
+        assertTrue(taskManager.hasTaskWithTitle("Added on another device"));
+
+        database.updateTasks(Collections.<String, Object>singletonMap(newTask.getId(), null));
+
+        assertEquals(100, taskManager.getTasks().size());
+        assertNull(taskManager.getTask(newTask.getId()));
+        assertFalse(taskManager.hasTaskWithTitle("Added on another device"));
+
+        /**
+         * Each change reached the listener on its own; the whole list was never refreshed.
+         */
+        assertEquals(0, listUpdates);
+        assertEquals(Arrays.asList("changed 10", "added Added on another device", "removed 100"), taskUpdates);
+    }
+
+    @Test
+    public void changeToATaskRemovedElsewhereIsDropped() throws Exception {
+        Task task = taskManager.getTasks().get(3);
+        database.updateTasks(Collections.<String, Object>singletonMap(task.getId(), null));
+        int writes = database.getWriteCount();
+
+        taskManager.updateTask(new Task(task.getId(), task.getTitle(), true));
+
+        assertEquals(99, taskManager.getTasks().size());
+        assertNull(taskManager.getTask(task.getId()));
+        assertNull(database.getStoredTask(task.getId()));
+        assertEquals(writes, database.getWriteCount());
+    }
+
+    @Test
+    public void ownWritesDoNotReloadTheList() throws Exception {
+        int writes = database.getWriteCount();
+        Task oldTask = taskManager.getTasks().get(5);
+        Task task = new Task(oldTask.getId(), oldTask.getTitle(), true);
+        taskManager.updateTask(task);
+        taskManager.addTask(new Task("Added here"));
+
+        assertEquals(writes + 2, database.getWriteCount());
+        assertTrue(database.getStoredTask(task.getId()).getCompleted());
+        assertEquals(0, listUpdates);
+        assertTrue(taskUpdates.isEmpty());
+    }
+
+    @Test
+    public void batchIsOneWriteAndOneListUpdate() throws Exception {
+        int writes = database.getWriteCount();
+        TaskListSnapshot before = taskManager.getTasks();
+
+        TaskManager.Batch batch = taskManager.beginBatch();
+        for (int i = 0; i < 50; i++) {
+            Task task = before.get(i);
+            batch.updateTask(new Task(task.getId(), task.getTitle(), true));
+        }
+        batch.removeTask(before.get(99).getId());
+        Task added = new Task("Imported");
+        batch.addTask(added);
+        batch.commit();
+
+        assertEquals(writes + 1, database.getWriteCount());
+        assertEquals(1, listUpdates);
+        assertEquals(100, taskManager.getTasks().size());
+        assertTrue(taskManager.getTasks().get(49).getCompleted());
+        assertFalse(taskManager.getTasks().get(50).getCompleted());
+        assertEquals(added, taskManager.getTasks().get(99));
+        assertTrue(database.getStoredTask(before.get(0).getId()).getCompleted());
+        assertNull(database.getStoredTask(before.get(99).getId()));
+        assertNull(taskManager.getTask(before.get(99).getId()));
+        assertTrue(taskManager.hasTaskWithTitle("Imported"));
+    }
+
+    @Test
+    public void bulkActionsAreOneWriteEach() throws Exception {
+        int writes = database.getWriteCount();
+        Task first = taskManager.getTasks().get(0);
+        taskManager.updateTask(new Task(first.getId(), first.getTitle(), true));
+
+        taskManager.clearCompletedTasks();
+
+        assertEquals(writes + 2, database.getWriteCount());
+        assertEquals(1, listUpdates);
+        assertEquals(99, taskManager.getTasks().size());
+        assertNull(database.getStoredTask(first.getId()));
+
+        taskManager.completeAllTasks();
+
+        assertEquals(writes + 3, database.getWriteCount());
+        assertEquals(2, listUpdates);
+        for (Task task : taskManager.getTasks()) {
+            assertTrue(task.getCompleted());
+            assertTrue(database.getStoredTask(task.getId()).getCompleted());
+        }
+    }
+}
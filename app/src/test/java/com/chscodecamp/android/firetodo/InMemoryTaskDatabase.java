@@ -0,0 +1,160 @@
+package com.chscodecamp.android.firetodo;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A TaskDatabase that lives in memory so sync can be tested without Firebase.  Like Firebase it
+ * stores plain values ordered by key, decodes a new Task for every event and reports every write,
+ * including our own, to the sync listener.  Updates may write a whole Task under its id or single
+ * fields under "id/field" paths; like FirebaseTaskDatabase, fields written to a Task that is gone
+ * are dropped with it.  It starts out connected and finishes every write right away.
+ * Like Firebase's rules it can be told to reject every update that touches a Task, in which case
+ * none of the update is written.
+ */
+class InMemoryTaskDatabase implements TaskDatabase {
+    private final Map<String, Map<String, Object>> values = new TreeMap<>();
+    private SyncListener syncListener;
+    private ConnectionListener connectionListener;
+    private boolean connected = true;
+    private int writeCount;
+    private String rejectedId;
+
+    void rejectWritesTo(String id) {
+        rejectedId = id;
+    }
+
+    void setConnected(boolean connected) {
+        this.connected = connected;
+        if (connectionListener != null) {
+            connectionListener.onConnectionChanged(connected);
+        }
+    }
+
+    int getWriteCount() {
+        return writeCount;
+    }
+
+    Task getStoredTask(String id) {
+        return TaskCodec.fromMap(id, values.get(id));
+    }
+
+    int size() {
+        return values.size();
+    }
+
+    @Override
+    public void setTasks(@NonNull Map<String, Object> tasks) {
+        writeCount++;
+        for (String id : new ArrayList<>(values.keySet())) {
+            if (!tasks.containsKey(id)) {
+                remove(id);
+            }
+        }
+        for (Map.Entry<String, Object> entry : tasks.entrySet()) {
+            put(entry.getKey(), copy(entry.getValue()));
+        }
+    }
+
+    @Override
+    public void updateTasks(@NonNull Map<String, Object> childUpdates) {
+        writeCount++;
+        Map<String, Map<String, Object>> tasks = new LinkedHashMap<>();
+        for (Map.Entry<String, Object> entry : childUpdates.entrySet()) {
+            int slash = entry.getKey().indexOf('/');
+            String id = slash < 0 ? entry.getKey() : entry.getKey().substring(0, slash);
+            if (slash < 0) {
+                tasks.put(id, copy(entry.getValue()));
+                continue;
+            }
+            Map<String, Object> fields = tasks.containsKey(id) ? tasks.get(id) : copy(values.get(id));
+            if (fields == null) {
+                fields = new HashMap<>();
+            }
+            fields.put(entry.getKey().substring(slash + 1), entry.getValue());
+            tasks.put(id, fields);
+        }
+        for (Map.Entry<String, Map<String, Object>> entry : tasks.entrySet()) {
+            if (entry.getValue() == null) {
+                remove(entry.getKey());
+            } else {
+                put(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    @Override
+    public void updateTasks(@NonNull Map<String, Object> childUpdates, @NonNull WriteListener listener) {
+        if (rejectedId != null && (childUpdates.containsKey(rejectedId) || containsPathUnder(childUpdates, rejectedId))) {
+            listener.onWriteComplete("Permission denied");
+            return;
+        }
+        updateTasks(childUpdates);
+        listener.onWriteComplete(null);
+    }
+
+    @Override
+    public void setConnectionListener(@Nullable ConnectionListener listener) {
+        connectionListener = listener;
+        if (listener != null) {
+            listener.onConnectionChanged(connected);
+        }
+    }
+
+    @Override
+    public void startSync(@NonNull SyncListener listener) {
+        syncListener = listener;
+        List<Task> initialTasks = new ArrayList<>();
+        for (Map.Entry<String, Map<String, Object>> entry : values.entrySet()) {
+            initialTasks.add(TaskCodec.fromMap(entry.getKey(), entry.getValue()));
+        }
+        listener.onInitialTasks(initialTasks);
+    }
+
+    @Override
+    public void stopSync() {
+        syncListener = null;
+    }
+
+    private static boolean containsPathUnder(Map<String, Object> childUpdates, String id) {
+        for (String path : childUpdates.keySet()) {
+            if (path.startsWith(id + "/")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> copy(Object value) {
+        return value == null ? null : new HashMap<>((Map<String, Object>) value);
+    }
+
+    private void put(String id, Map<String, Object> value) {
+        if (TaskCodec.isPartlyWritten(value)) {
+            remove(id);
+            return;
+        }
+        boolean added = values.put(id, value) == null;
+        if (syncListener != null) {
+            if (added) {
+                syncListener.onTaskAdded(getStoredTask(id));
+            } else {
+                syncListener.onTaskChanged(getStoredTask(id));
+            }
+        }
+    }
+
+    private void remove(String id) {
+        if (values.remove(id) != null && syncListener != null) {
+            syncListener.onTaskRemoved(id);
+        }
+    }
+}
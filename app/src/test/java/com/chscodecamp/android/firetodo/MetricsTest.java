@@ -0,0 +1,63 @@
+package com.chscodecamp.android.firetodo;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the counters and latency histograms of Metrics.
+ */
+public class MetricsTest {
+
+    @Before
+    public void setUp() throws Exception {
+        Metrics.reset();
+    }
+
+    @Test
+    public void percentilesAreBucketUpperBounds() throws Exception {
+        for (int i = 0; i < 98; i++) {
+            Metrics.record(Metrics.Timer.ADAPTER_BIND, 3000);
+        }
+        Metrics.record(Metrics.Timer.ADAPTER_BIND, 100000);
+        Metrics.record(Metrics.Timer.ADAPTER_BIND, 5000000);
+
+        assertEquals(100, Metrics.getCount(Metrics.Timer.ADAPTER_BIND));
+        assertEquals(4000, Metrics.getPercentileNanos(Metrics.Timer.ADAPTER_BIND, 0.5));
+        assertEquals(4000, Metrics.getPercentileNanos(Metrics.Timer.ADAPTER_BIND, 0.9));
+        assertEquals(128000, Metrics.getPercentileNanos(Metrics.Timer.ADAPTER_BIND, 0.99));
+        assertEquals(8192000, Metrics.getPercentileNanos(Metrics.Timer.ADAPTER_BIND, 1));
+    }
+
+    @Test
+    public void summaryListsOnlyWhatWasRecorded() throws Exception {
+        Metrics.record(Metrics.Timer.TASK_MUTATION, 2000000);
+        Metrics.add(Metrics.Counter.TASKS_CHANGED, 3);
+
+        String summary = Metrics.getSummary();
+
+        assertTrue(summary, summary.contains("TASK_MUTATION n=1 mean=2.00 ms"));
+        assertTrue(summary, summary.contains("max=2.00 ms"));
+        assertTrue(summary, summary.endsWith("TASKS_CHANGED 3"));
+        assertFalse(summary, summary.contains("ADAPTER_BIND"));
+
+        Metrics.reset();
+
+        assertEquals(0, Metrics.getCount(Metrics.Timer.TASK_MUTATION));
+        assertEquals(0, Metrics.getCount(Metrics.Counter.TASKS_CHANGED));
+    }
+
+    @Test
+    public void taskManagerMutationsAreTimed() throws Exception {
+        TaskManager.init(new FakeStateManager());
+        TaskManager.getInstance().addTask(new Task("Timed"));
+
+        assertEquals(1, Metrics.getCount(Metrics.Timer.TASK_MUTATION));
+        assertEquals(1, Metrics.getCount(Metrics.Timer.SAVE_TASKS));
+        assertEquals(1, Metrics.getCount(Metrics.Timer.LOAD_TASKS));
+        assertEquals(1, Metrics.getCount(Metrics.Counter.TASKS_CHANGED));
+    }
+}
@@ -0,0 +1,72 @@
+package com.chscodecamp.android.firetodo;
+
+import android.support.annotation.NonNull;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that SharedPreferenceStateManager writes in the background without losing saves.
+ */
+public class SharedPreferenceStateManagerTest {
+    private FakeContext context;
+    private SharedPreferenceStateManager stateManager;
+
+    @Before
+    public void setUp() throws Exception {
+        context = new FakeContext();
+        stateManager = new SharedPreferenceStateManager(context, FireToDoApplication.DATA_SCHEMA_VERSION);
+    }
+
+    /**
+     * The window is longer than the test so nothing is written until flush(), however slow the
+     * machine running the test is.
+     */
+    @Test
+    public void savesWithinTheWindowAreCoalesced() throws Exception {
+        stateManager = new SharedPreferenceStateManager(context, FireToDoApplication.DATA_SCHEMA_VERSION, TimeUnit.HOURS.toMillis(1));
+        FakeSharedPreferences sharedPreferences = context.getSharedPreferences(context.getPackageName(), 0);
+        List<Task> taskList = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            taskList.add(new Task("Task " + i));
+            stateManager.saveTasks(taskList);
+        }
+        assertEquals(0, sharedPreferences.getCommitCount());
+
+        stateManager.flush();
+
+        assertEquals(1, sharedPreferences.getCommitCount());
+        assertEquals(50, load().size());
+    }
+
+    @Test
+    public void loadSeesTasksThatWereNotWrittenYet() throws Exception {
+        List<Task> taskList = new ArrayList<>();
+        Task task = new Task("Not written yet");
+        taskList.add(task);
+        stateManager.saveTasks(taskList);
+
+        List<Task> loaded = load();
+        assertEquals(1, loaded.size());
+        assertTrue(loaded.contains(task));
+    }
+
+    private List<Task> load() {
+        final List<Task> loaded = new ArrayList<>();
+        stateManager.setDataSetChangedListener(new DataSetChangedListener() {
+            @Override
+            public void onDataSetChanged(@NonNull List<Task> taskList) {
+                loaded.addAll(taskList);
+            }
+        });
+        stateManager.loadTasks();
+        return loaded;
+    }
+}
@@ -0,0 +1,60 @@
+package com.chscodecamp.android.firetodo;
+
+import com.google.gson.Gson;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that TaskCodec reads and writes the same Tasks as the reflective Firebase and Gson
+ * mapping it replaced.  DataLayerBenchmarkTest compares their speed.
+ */
+public class TaskCodecTest {
+
+    @Test
+    public void codecRoundTripsTasks() throws Exception {
+        Task task = new Task("Round trip");
+        task.setCompleted(true);
+
+        Task decoded = TaskCodec.fromMap(task.getId(), TaskCodec.toMap(task));
+
+        assertEquals(task, decoded);
+        assertEquals(task.getTitle(), decoded.getTitle());
+        assertEquals(task.getCompleted(), decoded.getCompleted());
+    }
+
+    @Test
+    public void codecRoundTripsJson() throws Exception {
+        List<Task> taskList = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            Task task = new Task("Task number " + i);
+            task.setCompleted(i % 3 == 0);
+            taskList.add(task);
+        }
+
+        List<Task> loaded = TaskCodec.fromJson(TaskCodec.toJson(taskList));
+
+        assertEquals(taskList, loaded);
+        for (int i = 0; i < taskList.size(); i++) {
+            assertEquals(taskList.get(i).getTitle(), loaded.get(i).getTitle());
+            assertEquals(taskList.get(i).getCompleted(), loaded.get(i).getCompleted());
+        }
+    }
+
+    @Test
+    public void codecReadsWhatReflectiveGsonWrote() throws Exception {
+        Task task = new Task("Written by Gson");
+        task.setCompleted(true);
+
+        List<Task> loaded = TaskCodec.fromJson(new Gson().toJson(new Task[]{task}));
+
+        assertEquals(1, loaded.size());
+        assertEquals(task.getId(), loaded.get(0).getId());
+        assertEquals(task.getTitle(), loaded.get(0).getTitle());
+        assertEquals(task.getCompleted(), loaded.get(0).getCompleted());
+    }
+}
@@ -0,0 +1,185 @@
+package com.chscodecamp.android.firetodo;
+
+import android.content.ComponentCallbacks2;
+import android.support.annotation.NonNull;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that loaded lists are evicted once they take too much memory and when the system asks us
+ * to trim memory, and that the cache counts what it does.
+ */
+public class TaskListCacheTest {
+
+    @Test
+    public void largeListIsEvictedByByteSize() throws Exception {
+        FakeStateManager large = createStateManager(20000);
+        FakeStateManager small = createStateManager(10);
+        TaskListCache loadedLists = TaskManager.getLoadedLists();
+
+        TaskManager.init("large", large);
+        assertTrue(TaskManager.getInstance().getApproximateBytes() > TaskManager.MAX_LOADED_BYTES);
+        assertFalse(large.isClosed());
+        int evictions = loadedLists.getEvictionCount();
+
+        TaskManager.init("small", small);
+
+        assertTrue(large.isClosed());
+        assertFalse(small.isClosed());
+        assertEquals(evictions + 1, loadedLists.getEvictionCount());
+        assertTrue(loadedLists.getApproximateBytes() <= TaskManager.MAX_LOADED_BYTES);
+    }
+
+    @Test
+    public void trimMemoryDropsColdListsAndThenTheOpenOne() throws Exception {
+        FakeStateManager cold = createStateManager(10);
+        FakeStateManager open = createStateManager(10);
+        TaskManager.init("cold", cold);
+        TaskManager.init("open", open);
+
+        TaskManager.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW);
+
+        assertTrue(cold.isClosed());
+        assertFalse(open.isClosed());
+        assertTrue(TaskManager.isReady());
+        assertEquals(1, TaskManager.getLoadedLists().size());
+
+        TaskManager.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_BACKGROUND);
+
+        assertTrue(open.isClosed());
+        assertFalse(TaskManager.isReady());
+        assertEquals(0, TaskManager.getLoadedLists().size());
+    }
+
+    /**
+     * A screen that kept the TaskManager of a list that was dropped must hear about it; changing
+     * that TaskManager would throw since its tasks are gone.
+     */
+    @Test
+    public void trimmedListTellsItsScreenBeforeATaskIsToggled() throws Exception {
+        FakeStateManager stateManager = createStateManager(10);
+        TaskManager.init("toggled", stateManager);
+        TaskManager shown = TaskManager.getInstance();
+        ClosedListener listener = new ClosedListener();
+        shown.setTaskListStateListener(listener);
+
+        TaskManager.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_BACKGROUND);
+
+        assertEquals(1, listener.closedCount);
+        assertFalse(TaskManager.isOpen(shown));
+        assertTrue(stateManager.isClosed());
+
+        /**
+         * Coming back loads the list again, and its new TaskManager takes the toggle.
+         */
+        TaskManager.init("toggled", createStateManager(10));
+        TaskManager reloaded = TaskManager.getInstance();
+        assertTrue(TaskManager.isOpen(reloaded));
+        Task task = reloaded.getTasks().get(0);
+        task.setCompleted(true);
+        reloaded.updateTask(task);
+        assertTrue(reloaded.getTasks().get(0).getCompleted());
+    }
+
+    @Test
+    public void listOnScreenIsKeptWhileAnotherIsOpened() throws Exception {
+        FakeStateManager leaving = createStateManager(10);
+        TaskManager.init("leaving", leaving);
+        TaskManager shown = TaskManager.getInstance();
+        ClosedListener listener = new ClosedListener();
+        shown.setTaskListStateListener(listener);
+
+        final CountDownLatch created = new CountDownLatch(1);
+        final FakeStateManager opening = createStateManager(10);
+        TaskManager.initAsync(new TaskManager.StateManagerFactory() {
+            @NonNull
+            @Override
+            public TaskListStateManager create(@NonNull String listId) {
+                try {
+                    created.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return opening;
+            }
+        }, "opening");
+
+        /**
+         * While we're showing it the list isn't dropped, but it can't be changed either.
+         */
+        TaskManager.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW);
+        assertFalse(leaving.isClosed());
+        assertEquals(0, listener.closedCount);
+        assertFalse(TaskManager.isOpen(shown));
+
+        TaskManager.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_BACKGROUND);
+        assertTrue(leaving.isClosed());
+        assertEquals(1, listener.closedCount);
+
+        final CountDownLatch ready = new CountDownLatch(1);
+        TaskManager.whenReady(new TaskManager.ReadyCallback() {
+            @Override
+            public void onTaskManagerReady(@NonNull TaskManager taskManager) {
+                ready.countDown();
+            }
+        });
+        created.countDown();
+        assertTrue(ready.await(5, TimeUnit.SECONDS));
+        assertEquals("opening", TaskManager.getInstance().getListId());
+        assertEquals(1, listener.closedCount);
+    }
+
+    @Test
+    public void lookupsAreCounted() throws Exception {
+        TaskListCache cache = new TaskListCache(2, Long.MAX_VALUE);
+
+        cache.get("missing");
+
+        assertEquals(0, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    private static FakeStateManager createStateManager(int taskCount) {
+        List<Task> taskList = new ArrayList<>(taskCount);
+        for (int i = 0; i < taskCount; i++) {
+            taskList.add(new Task("Task number " + i));
+        }
+        FakeStateManager stateManager = new FakeStateManager();
+        stateManager.setStoredTasks(taskList);
+        return stateManager;
+    }
+
+    private static class ClosedListener implements TaskListStateListener {
+        private int closedCount;
+
+        @Override
+        public void onTaskListUpdated() {
+        }
+
+        @Override
+        public void onTaskAdded(@NonNull Task task) {
+        }
+
+        @Override
+        public void onTaskChanged(int position, @NonNull Task task) {
+        }
+
+        @Override
+        public void onTaskRemoved(int position, @NonNull String id) {
+        }
+
+        @Override
+        public void onTaskListClosed() {
+            closedCount++;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.chscodecamp.android.firetodo;
+
+import android.support.v7.util.ListUpdateCallback;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that the updates a TaskListDiff reports turn the old list into the new one, however many
+ * ranges a bulk change of a long list takes, and that neighbouring changes share a range.
+ */
+public class TaskListDiffTest {
+
+    @Test
+    public void changesRemovalsAndAppendsAreReplayed() throws Exception {
+        List<Task> oldTasks = createTasks(20);
+        List<Task> newTasks = new ArrayList<>(oldTasks);
+        newTasks.remove(15);
+        newTasks.remove(3);
+        newTasks.remove(3);
+        Task changed = newTasks.get(7);
+        newTasks.set(7, new Task(changed.getId(), changed.getTitle(), true));
+        newTasks.add(new Task("Appended"));
+
+        TaskListDiff diff = TaskListDiff.calculate(oldTasks, newTasks);
+
+        assertEquals(newTasks, replay(diff, oldTasks, newTasks));
+    }
+
+    @Test
+    public void movedTaskIsRemovedAndAppended() throws Exception {
+        List<Task> oldTasks = createTasks(5);
+        List<Task> newTasks = new ArrayList<>(oldTasks);
+        newTasks.add(newTasks.remove(1));
+
+        TaskListDiff diff = TaskListDiff.calculate(oldTasks, newTasks);
+
+        assertEquals(newTasks, replay(diff, oldTasks, newTasks));
+    }
+
+    @Test
+    public void clearingEveryOtherTaskOfALongListIsReplayed() throws Exception {
+        List<Task> oldTasks = createTasks(10000);
+        List<Task> newTasks = new ArrayList<>();
+        for (int i = 0; i < oldTasks.size(); i += 2) {
+            newTasks.add(oldTasks.get(i));
+        }
+
+        TaskListDiff diff = TaskListDiff.calculate(oldTasks, newTasks);
+
+        assertEquals(5000, diff.getUpdateCount());
+        assertEquals(newTasks, replay(diff, oldTasks, newTasks));
+    }
+
+    @Test
+    public void reversedListIsReplayedWithoutMoves() throws Exception {
+        List<Task> oldTasks = createTasks(1000);
+        List<Task> newTasks = new ArrayList<>(oldTasks);
+        Collections.reverse(newTasks);
+
+        TaskListDiff diff = TaskListDiff.calculate(oldTasks, newTasks);
+
+        assertEquals(newTasks, replay(diff, oldTasks, newTasks));
+    }
+
+    @Test
+    public void completingATailOfALongListIsOneRange() throws Exception {
+        List<Task> oldTasks = createTasks(50000);
+        List<Task> newTasks = new ArrayList<>(oldTasks);
+        for (int i = 25000; i < newTasks.size(); i++) {
+            Task task = newTasks.get(i);
+            newTasks.set(i, new Task(task.getId(), task.getTitle(), true));
+        }
+
+        TaskListDiff diff = TaskListDiff.calculate(oldTasks, newTasks);
+        RecordingCallback callback = new RecordingCallback(new ArrayList<>(oldTasks), newTasks);
+        diff.dispatchUpdatesTo(callback);
+
+        assertEquals(1, callback.calls);
+        assertEquals(newTasks, callback.tasks);
+    }
+
+    private static List<Task> createTasks(int count) {
+        List<Task> tasks = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            tasks.add(new Task("Task " + i));
+        }
+        return tasks;
+    }
+
+    private static List<Task> replay(TaskListDiff diff, List<Task> oldTasks, List<Task> newTasks) {
+        RecordingCallback callback = new RecordingCallback(new ArrayList<>(oldTasks), newTasks);
+        diff.dispatchUpdatesTo(callback);
+        for (int i = 0; i < callback.tasks.size(); i++) {
+            assertTrue(callback.tasks.get(i).hasSameContent(newTasks.get(i)));
+        }
+        return callback.tasks;
+    }
+
+    /**
+     * Applies each update to a copy of the old list, taking inserted and changed Tasks from the
+     * new list at the same position.  There are no moves to apply.
+     */
+    private static class RecordingCallback implements ListUpdateCallback {
+        final List<Task> tasks;
+        final List<Task> newTasks;
+        int calls;
+
+        RecordingCallback(List<Task> tasks, List<Task> newTasks) {
+            this.tasks = tasks;
+            this.newTasks = newTasks;
+        }
+
+        @Override
+        public void onInserted(int position, int count) {
+            calls++;
+            for (int i = 0; i < count; i++) {
+                tasks.add(position + i, newTasks.get(position + i));
+            }
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+            calls++;
+            for (int i = 0; i < count; i++) {
+                tasks.remove(position);
+            }
+        }
+
+        @Override
+        public void onMoved(int fromPosition, int toPosition) {
+            fail("A TaskListDiff never reports moves");
+        }
+
+        @Override
+        public void onChanged(int position, int count, Object payload) {
+            calls++;
+            for (int i = 0; i < count; i++) {
+                tasks.set(position + i, newTasks.get(position + i));
+            }
+        }
+    }
+}
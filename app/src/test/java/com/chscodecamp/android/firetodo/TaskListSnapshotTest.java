@@ -0,0 +1,129 @@
+package com.chscodecamp.android.firetodo;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that a snapshot handed out by the TaskManager never changes, whatever happens to the task
+ * list afterwards, that every change publishes a newer version, and that the tree a snapshot keeps
+ * its Tasks in holds the same list as an ArrayList would.
+ */
+public class TaskListSnapshotTest {
+    private TaskManager taskManager;
+
+    @Before
+    public void setUp() throws Exception {
+        List<Task> taskList = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            taskList.add(new Task("Task " + i));
+        }
+        FakeStateManager stateManager = new FakeStateManager();
+        stateManager.setStoredTasks(taskList);
+        TaskManager.init(stateManager);
+        taskManager = TaskManager.getInstance();
+    }
+
+    @Test
+    public void oldSnapshotsDoNotChange() throws Exception {
+        TaskListSnapshot before = taskManager.getTasks();
+        Task first = before.get(0);
+
+        taskManager.addTask(new Task("Task 10"));
+        taskManager.updateTask(new Task(first.getId(), first.getTitle(), true));
+        taskManager.onTaskRemoved(before.get(1).getId());
+
+        assertEquals(10, before.size());
+        assertSame(first, before.get(0));
+        assertFalse(before.get(0).getCompleted());
+
+        TaskListSnapshot after = taskManager.getTasks();
+        assertEquals(10, after.size());
+        assertTrue(after.get(0).getCompleted());
+        assertEquals("Task 2", after.get(1).getTitle());
+        assertEquals("Task 10", after.get(9).getTitle());
+        assertEquals(before.getVersion() + 3, after.getVersion());
+    }
+
+    @Test
+    public void sameContentDoesNotPublish() throws Exception {
+        TaskListSnapshot before = taskManager.getTasks();
+        Task first = before.get(0);
+
+        taskManager.onTaskChanged(new Task(first.getId(), first.getTitle(), first.getCompleted()));
+
+        assertSame(before, taskManager.getTasks());
+    }
+
+    @Test
+    public void updatesReplaceTheTaskWhereItIs() throws Exception {
+        for (int i = 10; i < 100; i++) {
+            taskManager.addTask(new Task("Task " + i));
+        }
+        for (int position : new int[]{0, 31, 32, 99}) {
+            Task task = taskManager.getTasks().get(position);
+            Task updatedTask = new Task(task.getId(), task.getTitle(), !task.getCompleted());
+
+            taskManager.updateTask(updatedTask);
+
+            assertSame(updatedTask, taskManager.getTasks().get(position));
+            assertSame(updatedTask, taskManager.getTask(task.getId()));
+            assertEquals(100, taskManager.getTasks().size());
+        }
+    }
+
+    /**
+     * Appends, replacements and removals across the ends of leaves and levels of the tree give the
+     * same list as an ArrayList, and leave the snapshots they started from as they were.
+     */
+    @Test
+    public void snapshotsMatchAList() throws Exception {
+        Random random = new Random(42);
+        List<Task> expected = new ArrayList<>();
+        TaskListSnapshot snapshot = TaskListSnapshot.EMPTY;
+        for (int i = 0; i < 2200; i++) {
+            Task task = new Task("Task " + i);
+            expected.add(task);
+            snapshot = snapshot.withTaskAppended(task);
+        }
+        assertEquals(expected, snapshot);
+        assertEquals(snapshot, TaskListSnapshot.EMPTY.withTasks(expected));
+
+        for (int i = 0; i < 1000; i++) {
+            TaskListSnapshot before = snapshot;
+            List<Task> expectedBefore = new ArrayList<>(expected);
+            int position = random.nextInt(expected.size());
+            if (i % 2 == 0) {
+                Task task = new Task("Changed " + i);
+                expected.set(position, task);
+                snapshot = snapshot.withTaskReplaced(position, task);
+            } else {
+                expected.remove(position);
+                snapshot = snapshot.withTaskRemoved(position);
+            }
+            assertEquals(expectedBefore, before);
+        }
+        assertEquals(expected, snapshot);
+
+        while (!expected.isEmpty()) {
+            expected.remove(expected.size() - 1);
+            snapshot = snapshot.withTaskRemoved(snapshot.size() - 1);
+        }
+        assertEquals(0, snapshot.size());
+        assertEquals(0, snapshot.getApproximateBytes());
+        for (int i = 0; i < 40; i++) {
+            Task task = new Task("Task " + i);
+            expected.add(task);
+            snapshot = snapshot.withTaskAppended(task);
+        }
+        assertEquals(expected, snapshot);
+    }
+}
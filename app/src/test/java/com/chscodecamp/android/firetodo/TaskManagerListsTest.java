@@ -0,0 +1,64 @@
+package com.chscodecamp.android.firetodo;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that each list has a TaskManager of its own and that no more than MAX_LOADED_LISTS lists
+ * stay loaded, closing the one used least recently first.
+ */
+public class TaskManagerListsTest {
+
+    @Test
+    public void leastRecentlyUsedListIsClosed() throws Exception {
+        List<FakeStateManager> stateManagers = new ArrayList<>();
+        for (int i = 0; i <= TaskManager.MAX_LOADED_LISTS; i++) {
+            FakeStateManager stateManager = new FakeStateManager();
+            stateManager.setStoredTasks(Collections.singletonList(new Task("Task in list " + i)));
+            stateManagers.add(stateManager);
+        }
+
+        for (int i = 0; i < TaskManager.MAX_LOADED_LISTS; i++) {
+            TaskManager.init("list" + i, stateManagers.get(i));
+            assertEquals("list" + i, TaskManager.getInstance().getListId());
+            assertEquals("Task in list " + i, TaskManager.getInstance().getTasks().get(0).getTitle());
+        }
+
+        /**
+         * Use the first list again so the second one is now the least recently used.
+         */
+        TaskManager.init("list0", stateManagers.get(0));
+        TaskManager.init("list" + TaskManager.MAX_LOADED_LISTS, stateManagers.get(TaskManager.MAX_LOADED_LISTS));
+
+        assertFalse(stateManagers.get(0).isClosed());
+        assertTrue(stateManagers.get(1).isClosed());
+        for (int i = 2; i <= TaskManager.MAX_LOADED_LISTS; i++) {
+            assertFalse(stateManagers.get(i).isClosed());
+        }
+    }
+
+    @Test
+    public void listsDoNotShareTasks() throws Exception {
+        FakeStateManager first = new FakeStateManager();
+        FakeStateManager second = new FakeStateManager();
+        TaskManager.init("first", first);
+        TaskManager firstTaskManager = TaskManager.getInstance();
+        firstTaskManager.addTask(new Task("Only in the first list"));
+
+        TaskManager.init("second", second);
+
+        assertTrue(TaskManager.getInstance().getTasks().isEmpty());
+        assertFalse(TaskManager.getInstance().hasTaskWithTitle("Only in the first list"));
+        assertNotSame(firstTaskManager, TaskManager.getInstance());
+        assertEquals(1, firstTaskManager.getTasks().size());
+        assertEquals(1, first.getLoadCount());
+    }
+}
@@ -0,0 +1,149 @@
+package com.chscodecamp.android.firetodo;
+
+import android.support.annotation.NonNull;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the TaskManager is only ready once the open list's tasks have arrived, that whenReady()
+ * callbacks are made once and can be taken back, and that initAsync() creates the state manager off
+ * the calling thread.
+ */
+public class TaskManagerReadyTest {
+
+    @Test
+    public void readyOnceTheTasksArrive() throws Exception {
+        FakeStateManager stateManager = new FakeStateManager();
+        stateManager.setStoredTasks(Collections.singletonList(new Task("Arrives later")));
+        stateManager.setLoadDeferred(true);
+        TaskManager.init("later", stateManager);
+        RecordingCallback callback = new RecordingCallback();
+
+        TaskManager.whenReady(callback);
+
+        assertFalse(TaskManager.isReady());
+        assertTrue(callback.taskManagers.isEmpty());
+
+        stateManager.deliverStoredTasks();
+
+        assertTrue(TaskManager.isReady());
+        assertEquals(Collections.singletonList(TaskManager.getInstance()), callback.taskManagers);
+        assertEquals("Arrives later", callback.taskManagers.get(0).getTasks().get(0).getTitle());
+
+        /**
+         * Tasks arriving again don't call back again, but waiting once it's ready is answered right
+         * away.
+         */
+        stateManager.deliverStoredTasks();
+        assertEquals(1, callback.taskManagers.size());
+        TaskManager.whenReady(callback);
+        assertEquals(2, callback.taskManagers.size());
+    }
+
+    @Test
+    public void removedCallbackIsNotCalled() throws Exception {
+        FakeStateManager stateManager = new FakeStateManager();
+        stateManager.setLoadDeferred(true);
+        TaskManager.init("removed", stateManager);
+        RecordingCallback removed = new RecordingCallback();
+        RecordingCallback kept = new RecordingCallback();
+        TaskManager.whenReady(removed);
+        TaskManager.whenReady(kept);
+
+        TaskManager.removeReadyCallback(removed);
+        stateManager.deliverStoredTasks();
+
+        assertTrue(removed.taskManagers.isEmpty());
+        assertEquals(1, kept.taskManagers.size());
+    }
+
+    @Test
+    public void listThatIsNoLongerOpenDoesNotMakeUsReady() throws Exception {
+        FakeStateManager first = new FakeStateManager();
+        first.setLoadDeferred(true);
+        TaskManager.init("first-slow", first);
+        TaskManager firstTaskManager = TaskManager.getInstance();
+        FakeStateManager second = new FakeStateManager();
+        second.setLoadDeferred(true);
+        TaskManager.init("second-slow", second);
+        RecordingCallback callback = new RecordingCallback();
+        TaskManager.whenReady(callback);
+
+        first.deliverStoredTasks();
+
+        assertFalse(TaskManager.isReady());
+        assertTrue(callback.taskManagers.isEmpty());
+
+        second.deliverStoredTasks();
+
+        assertEquals(1, callback.taskManagers.size());
+        assertNotSame(firstTaskManager, callback.taskManagers.get(0));
+    }
+
+    @Test
+    public void initAsyncCreatesTheStateManagerOnAnotherThread() throws Exception {
+        final CountDownLatch waiting = new CountDownLatch(1);
+        final CountDownLatch ready = new CountDownLatch(1);
+        final Thread testThread = Thread.currentThread();
+        final List<Thread> factoryThreads = new ArrayList<>();
+        final FakeStateManager stateManager = new FakeStateManager();
+        stateManager.setStoredTasks(Collections.singletonList(new Task("Loaded in the background")));
+
+        TaskManager.initAsync(new TaskManager.StateManagerFactory() {
+            @NonNull
+            @Override
+            public TaskListStateManager create(@NonNull String listId) {
+                factoryThreads.add(Thread.currentThread());
+                try {
+                    waiting.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return stateManager;
+            }
+        }, "async");
+        assertFalse(TaskManager.isReady());
+
+        /**
+         * The state manager isn't created until we're waiting, so we're told rather than finding it
+         * ready already.
+         */
+        final List<TaskManager> taskManagers = new ArrayList<>();
+        TaskManager.whenReady(new TaskManager.ReadyCallback() {
+            @Override
+            public void onTaskManagerReady(@NonNull TaskManager taskManager) {
+                taskManagers.add(taskManager);
+                ready.countDown();
+            }
+        });
+        waiting.countDown();
+
+        assertTrue(ready.await(5, TimeUnit.SECONDS));
+        assertEquals(1, factoryThreads.size());
+        assertNotSame(testThread, factoryThreads.get(0));
+        assertSame(TaskManager.getInstance(), taskManagers.get(0));
+        assertEquals("async", taskManagers.get(0).getListId());
+        assertEquals("Loaded in the background", taskManagers.get(0).getTasks().get(0).getTitle());
+    }
+
+    private static class RecordingCallback implements TaskManager.ReadyCallback {
+        private final List<TaskManager> taskManagers = new ArrayList<>();
+
+        @Override
+        public void onTaskManagerReady(@NonNull TaskManager taskManager) {
+            taskManagers.add(taskManager);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.chscodecamp.android.firetodo;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the TaskManager's title index finds duplicate titles exactly as they are written and
+ * keeps up as Tasks are loaded, added, renamed and removed.
+ */
+public class TaskManagerTitleTest {
+
+    @Test
+    public void titlesMustMatchExactly() {
+        FakeStateManager stateManager = new FakeStateManager();
+        stateManager.setStoredTasks(Collections.singletonList(new Task("1", "Milk", true)));
+        TaskManager.init("titles", stateManager);
+        TaskManager taskManager = TaskManager.getInstance();
+
+        assertTrue(taskManager.hasTaskWithTitle("Milk"));
+        assertFalse(taskManager.hasTaskWithTitle("milk"));
+        assertFalse(taskManager.hasTaskWithTitle("Milk "));
+        assertFalse(taskManager.hasTaskWithTitle(null));
+
+        taskManager.addTask(new Task("milk"));
+        assertTrue(taskManager.hasTaskWithTitle("milk"));
+        taskManager.close();
+    }
+
+    @Test
+    public void renamedAndRemovedTasksAreReindexed() {
+        FakeStateManager stateManager = new FakeStateManager();
+        stateManager.setStoredTasks(Arrays.asList(new Task("1", "Buy milk", false), new Task("2", "Buy milk", false),
+                new Task("3", "Buy bread", false)));
+        TaskManager.init("titles", stateManager);
+        TaskManager taskManager = TaskManager.getInstance();
+
+        /**
+         * Two Tasks share a title, so it stays in use until both have moved on.
+         */
+        taskManager.updateTask(new Task("1", "Buy eggs", false));
+        assertTrue(taskManager.hasTaskWithTitle("Buy milk"));
+        taskManager.onTaskRemoved("2");
+        assertFalse(taskManager.hasTaskWithTitle("Buy milk"));
+        assertTrue(taskManager.hasTaskWithTitle("Buy eggs"));
+
+        /**
+         * Changing only whether a Task is completed keeps its title.
+         */
+        taskManager.updateTask(new Task("3", "Buy bread", true));
+        assertTrue(taskManager.hasTaskWithTitle("Buy bread"));
+
+        taskManager.onDataSetChanged(Collections.singletonList(new Task("4", "Walk the dog", false)));
+        assertFalse(taskManager.hasTaskWithTitle("Buy eggs"));
+        assertFalse(taskManager.hasTaskWithTitle("Buy bread"));
+        assertTrue(taskManager.hasTaskWithTitle("Walk the dog"));
+        taskManager.close();
+    }
+}
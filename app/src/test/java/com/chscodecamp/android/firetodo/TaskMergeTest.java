@@ -0,0 +1,147 @@
+package com.chscodecamp.android.firetodo;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the per-field merge of Tasks changed on more than one device, on their own and through
+ * FakeFirebaseBackend.
+ */
+public class TaskMergeTest {
+
+    @Test
+    public void newerFieldsWinOnEitherSide() {
+        Task local = new Task("id", "Renamed", false, 5, 1);
+        Task remote = new Task("id", "Buy milk", true, 2, 3);
+
+        Task merged = Task.merge(local, remote);
+
+        assertEquals("Renamed", merged.getTitle());
+        assertTrue(merged.getCompleted());
+        assertEquals(5, merged.getTitleClock());
+        assertEquals(3, merged.getCompletedClock());
+    }
+
+    @Test
+    public void tiesGoToTheRemoteTask() {
+        Task local = new Task("id", "Buy milk", true);
+        Task remote = new Task("id", "Buy bread", false);
+
+        assertSame(remote, Task.merge(local, remote));
+    }
+
+    @Test
+    public void clocksSurviveTheCodec() {
+        Task task = new Task("id", "Buy milk", true, 1L << 40, 7);
+
+        assertTrue(task.hasSameState(TaskCodec.fromMap("id", TaskCodec.toMap(task))));
+        assertFalse(TaskCodec.toMap(new Task("id", "Buy milk", true)).containsKey(TaskCodec.FIELD_TITLE_CLOCK));
+    }
+
+    @Test
+    public void concurrentEditsToDifferentFieldsBothSurvive() throws Exception {
+        FakeFirebaseBackend backend = new FakeFirebaseBackend(150, 128 * 1024);
+        backend.seed(Collections.singletonList(new Task("task-1", "Buy milk", false)));
+        FakeFirebaseBackend.Client phone = backend.newClient();
+        FakeFirebaseBackend.Client tablet = backend.newClient();
+        TaskManager.init("phone", new FirebaseStateManager(new FakeContext(), phone, "phone", FireToDoApplication.DATA_SCHEMA_VERSION));
+        TaskManager phoneTasks = TaskManager.getInstance();
+        TaskManager.init("tablet", new FirebaseStateManager(new FakeContext(), tablet, "tablet", FireToDoApplication.DATA_SCHEMA_VERSION));
+        TaskManager tabletTasks = TaskManager.getInstance();
+        backend.runUntilIdle();
+
+        /**
+         * Both devices change the same Task before either hears about the other's change.
+         */
+        phoneTasks.updateTask(new Task("task-1", "Buy oat milk", false));
+        tabletTasks.updateTask(new Task("task-1", "Buy milk", true));
+        backend.runUntilIdle();
+
+        for (Task task : new Task[]{phoneTasks.getTask("task-1"), tabletTasks.getTask("task-1"), backend.getStoredTask("task-1")}) {
+            assertEquals("Buy oat milk", task.getTitle());
+            assertTrue(task.getCompleted());
+        }
+        assertEquals(backend.getValues(), phone.getValues());
+        assertEquals(backend.getValues(), tablet.getValues());
+        phoneTasks.close();
+        tabletTasks.close();
+    }
+
+    @Test
+    public void offlineEditSurvivesWhenTheOtherDeviceIsGone() throws Exception {
+        FakeFirebaseBackend backend = new FakeFirebaseBackend(150, 128 * 1024);
+        backend.seed(Collections.singletonList(new Task("task-1", "Buy milk", false)));
+        FakeContext phoneContext = new FakeContext();
+        FakeFirebaseBackend.Client phone = backend.newClient();
+        FakeFirebaseBackend.Client tablet = backend.newClient();
+        TaskManager.init("phone", new FirebaseStateManager(phoneContext, phone, "phone", FireToDoApplication.DATA_SCHEMA_VERSION));
+        TaskManager phoneTasks = TaskManager.getInstance();
+        TaskManager.init("tablet", new FirebaseStateManager(new FakeContext(), tablet, "tablet", FireToDoApplication.DATA_SCHEMA_VERSION));
+        TaskManager tabletTasks = TaskManager.getInstance();
+        backend.runUntilIdle();
+
+        /**
+         * The phone completes the Task offline, the tablet renames it and goes away for good, and
+         * the phone is restarted, so only its outbox remembers the change when it reconnects.
+         */
+        phone.setConnected(false);
+        phoneTasks.updateTask(new Task("task-1", "Buy milk", true));
+        tabletTasks.updateTask(new Task("task-1", "Buy oat milk", false));
+        backend.runUntilIdle();
+        tabletTasks.close();
+        tablet.setConnected(false);
+        phoneTasks.close();
+        FakeFirebaseBackend.Client restartedPhone = backend.newClient();
+        TaskManager.init("phone", new FirebaseStateManager(phoneContext, restartedPhone, "phone", FireToDoApplication.DATA_SCHEMA_VERSION));
+        phoneTasks = TaskManager.getInstance();
+        backend.runUntilIdle();
+
+        for (Task task : new Task[]{phoneTasks.getTask("task-1"), backend.getStoredTask("task-1")}) {
+            assertEquals("Buy oat milk", task.getTitle());
+            assertTrue(task.getCompleted());
+        }
+        assertEquals(backend.getValues(), restartedPhone.getValues());
+        phoneTasks.close();
+    }
+
+    @Test
+    public void removalWinsOverAFieldChangedAtTheSameTime() throws Exception {
+        FakeFirebaseBackend backend = new FakeFirebaseBackend(150, 128 * 1024);
+        backend.seed(Arrays.asList(new Task("task-1", "Buy milk", true), new Task("task-2", "Buy bread", false)));
+        FakeFirebaseBackend.Client phone = backend.newClient();
+        FakeFirebaseBackend.Client tablet = backend.newClient();
+        TaskManager.init("phone", new FirebaseStateManager(new FakeContext(), phone, "phone", FireToDoApplication.DATA_SCHEMA_VERSION));
+        TaskManager phoneTasks = TaskManager.getInstance();
+        TaskManager.init("tablet", new FirebaseStateManager(new FakeContext(), tablet, "tablet", FireToDoApplication.DATA_SCHEMA_VERSION));
+        TaskManager tabletTasks = TaskManager.getInstance();
+        backend.runUntilIdle();
+
+        /**
+         * The tablet clears the completed Task and the phone renames it before hearing about it,
+         * so the rename reaches the server after the Task is gone.
+         */
+        tabletTasks.clearCompletedTasks();
+        backend.advance(50);
+        phoneTasks.updateTask(new Task("task-1", "Buy oat milk", true));
+        backend.runUntilIdle();
+
+        assertNull(backend.getStoredTask("task-1"));
+        assertFalse(backend.getValues().containsKey("task-1"));
+        assertNull(phoneTasks.getTask("task-1"));
+        assertNull(tabletTasks.getTask("task-1"));
+        assertEquals(1, phoneTasks.getTasks().size());
+        assertEquals(1, tabletTasks.getTasks().size());
+        assertEquals(backend.getValues(), phone.getValues());
+        assertEquals(backend.getValues(), tablet.getValues());
+        phoneTasks.close();
+        tabletTasks.close();
+    }
+}
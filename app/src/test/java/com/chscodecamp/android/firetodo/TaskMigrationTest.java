@@ -0,0 +1,122 @@
+package com.chscodecamp.android.firetodo;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that TaskMigration moves tasks in batches and picks up after the last committed batch
+ * when an earlier attempt died part way through.
+ */
+public class TaskMigrationTest {
+    private static final int TASK_COUNT = TaskMigration.BATCH_SIZE * 2 + 50;
+
+    private FakeContext context;
+
+    @Before
+    public void setUp() throws Exception {
+        context = new FakeContext();
+
+        /**
+         * Version 1 saved Tasks without ids.
+         */
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < TASK_COUNT; i++) {
+            json.append(i == 0 ? "" : ",").append("{\"title\":\"Task ").append(i).append("\",\"completed\":false}");
+        }
+        json.append(']');
+        context.getSharedPreferences(context.getPackageName(), Context.MODE_PRIVATE).edit().putString("savedTasks", json.toString()).commit();
+        TaskMigration.addPendingSource(context, TaskMigration.SOURCE_SHARED_PREFERENCES);
+    }
+
+    @Test
+    public void migrationResumesAfterTheLastCommittedBatch() throws Exception {
+        RecordingDestination dying = new RecordingDestination(2);
+        try {
+            TaskMigration.run(context, dying);
+            fail("The destination should have died");
+        } catch (RuntimeException expected) {
+            // The process died after two batches
+        }
+        assertEquals(TaskMigration.BATCH_SIZE * 2, dying.tasks.size());
+        assertNotNull(SharedPreferenceStateManager.openMigrationSource(context).next());
+
+        RecordingDestination destination = new RecordingDestination(Integer.MAX_VALUE);
+        TaskMigration.run(context, destination);
+
+        assertEquals(TASK_COUNT - TaskMigration.BATCH_SIZE * 2, destination.tasks.size());
+        assertEquals(1, destination.batchCount);
+        Task first = destination.tasks.get(0);
+        assertEquals("Task " + TaskMigration.BATCH_SIZE * 2, first.getTitle());
+        assertEquals(Task.legacyId(TaskMigration.BATCH_SIZE * 2), first.getId());
+
+        /**
+         * The source is gone and nothing is left to migrate.
+         */
+        assertNull(SharedPreferenceStateManager.openMigrationSource(context).next());
+        RecordingDestination again = new RecordingDestination(Integer.MAX_VALUE);
+        TaskMigration.run(context, again);
+        assertTrue(again.tasks.isEmpty());
+    }
+
+    @Test
+    public void batchesAreBounded() throws Exception {
+        RecordingDestination destination = new RecordingDestination(Integer.MAX_VALUE);
+        TaskMigration.run(context, destination);
+
+        assertEquals(TASK_COUNT, destination.tasks.size());
+        assertEquals(3, destination.batchCount);
+        assertTrue(destination.largestBatch <= TaskMigration.BATCH_SIZE);
+    }
+
+    @Test
+    public void destinationCanAskForASingleBatch() throws Exception {
+        RecordingDestination destination = new RecordingDestination(Integer.MAX_VALUE);
+        destination.batchSize = Integer.MAX_VALUE;
+        TaskMigration.run(context, destination);
+
+        assertEquals(TASK_COUNT, destination.tasks.size());
+        assertEquals(1, destination.batchCount);
+    }
+
+    /**
+     * Keeps copies of what it is given and dies, like a killed process, after a number of batches.
+     */
+    private static class RecordingDestination implements TaskMigration.Destination {
+        final List<Task> tasks = new ArrayList<>();
+        final int batchesBeforeDying;
+        int batchSize = TaskMigration.BATCH_SIZE;
+        int batchCount;
+        int largestBatch;
+
+        RecordingDestination(int batchesBeforeDying) {
+            this.batchesBeforeDying = batchesBeforeDying;
+        }
+
+        @Override
+        public void commitMigratedTasks(@NonNull List<Task> batch) {
+            if (batchCount == batchesBeforeDying) {
+                throw new RuntimeException("Killed");
+            }
+            tasks.addAll(batch);
+            batchCount++;
+            largestBatch = Math.max(largestBatch, batch.size());
+        }
+
+        @Override
+        public int getMigrationBatchSize() {
+            return batchSize;
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package com.chscodecamp.android.firetodo;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Edits made while offline, written through FirebaseStateManager's outbox to an in-memory database
+ * standing in for Firebase.
+ */
+public class TaskOutboxTest {
+    private FakeContext context;
+    private InMemoryTaskDatabase database;
+    private FirebaseStateManager stateManager;
+    private TaskManager taskManager;
+
+    @Before
+    public void setUp() throws Exception {
+        context = new FakeContext();
+        database = new InMemoryTaskDatabase();
+        for (int i = 0; i < 100; i++) {
+            Task task = new Task("Task " + i);
+            database.updateTasks(Collections.<String, Object>singletonMap(task.getId(), TaskCodec.toMap(task)));
+        }
+        open();
+    }
+
+    @Test
+    public void togglingOfflineIsOneWrite() throws Exception {
+        database.setConnected(false);
+        int writes = database.getWriteCount();
+        Task task = taskManager.getTasks().get(3);
+        for (int i = 1; i <= 10; i++) {
+            taskManager.updateTask(new Task(task.getId(), task.getTitle(), i % 2 == 1));
+        }
+
+        assertEquals(writes, database.getWriteCount());
+        assertEquals(1, stateManager.getOutbox().getPendingCount());
+        assertEquals(9, stateManager.getOutbox().getCoalescedCount());
+
+        database.setConnected(true);
+
+        assertEquals(writes + 1, database.getWriteCount());
+        assertFalse(database.getStoredTask(task.getId()).getCompleted());
+        assertEquals(0, stateManager.getOutbox().getPendingCount());
+    }
+
+    @Test
+    public void changedThenRemovedOfflineIsOneRemoval() throws Exception {
+        database.setConnected(false);
+        Task task = taskManager.getTasks().get(7);
+        taskManager.updateTask(new Task(task.getId(), task.getTitle(), true));
+        TaskManager.Batch batch = taskManager.beginBatch();
+        batch.removeTask(task.getId());
+        batch.commit();
+
+        database.setConnected(true);
+
+        assertNull(database.getStoredTask(task.getId()));
+        assertEquals(99, database.size());
+    }
+
+    @Test
+    public void replayIsSentInBoundedBatches() throws Exception {
+        database.setConnected(false);
+        int writes = database.getWriteCount();
+        for (int i = 0; i < 450; i++) {
+            taskManager.addTask(new Task("Offline " + i));
+        }
+        taskManager.completeAllTasks();
+
+        database.setConnected(true);
+
+        assertEquals(writes + 3, database.getWriteCount());
+        assertEquals(550, database.size());
+        assertEquals(0, stateManager.getOutbox().getPendingCount());
+        for (Task task : taskManager.getTasks()) {
+            assertTrue(database.getStoredTask(task.getId()).getCompleted());
+        }
+    }
+
+    @Test
+    public void changesMadeWhileConnectedAreOneWrite() throws Exception {
+        int writes = database.getWriteCount();
+        TaskManager.Batch batch = taskManager.beginBatch();
+        for (int i = 0; i < 450; i++) {
+            batch.addTask(new Task("Online " + i));
+        }
+        batch.commit();
+        taskManager.completeAllTasks();
+
+        assertEquals(writes + 2, database.getWriteCount());
+        assertEquals(550, database.size());
+        assertEquals(0, stateManager.getOutbox().getPendingCount());
+    }
+
+    @Test
+    public void changesAreAppendedToTheLog() throws Exception {
+        database.setConnected(false);
+        TaskManager.Batch batch = taskManager.beginBatch();
+        for (int i = 0; i < 1000; i++) {
+            batch.addTask(new Task("Offline " + i));
+        }
+        batch.commit();
+        taskManager.flush();
+        File log = new File(context.getFilesDir(), "outbox-" + TaskLists.DEFAULT_LIST_ID + ".log");
+        long length = log.length();
+
+        Task task = taskManager.getTasks().get(500);
+        taskManager.updateTask(new Task(task.getId(), task.getTitle(), true));
+        taskManager.flush();
+
+        assertTrue(log.length() > length);
+        assertTrue(log.length() - length < 200);
+
+        database.setConnected(true);
+        taskManager.flush();
+
+        assertEquals(0, log.length());
+    }
+
+    @Test
+    public void offlineEditsSurviveARestart() throws Exception {
+        database.setConnected(false);
+        Task task = taskManager.getTasks().get(0);
+        taskManager.updateTask(new Task(task.getId(), task.getTitle(), true));
+        Task added = new Task("Added offline");
+        taskManager.addTask(added);
+        taskManager.close();
+
+        open();
+
+        assertTrue(taskManager.getTask(task.getId()).getCompleted());
+        assertEquals(added, taskManager.getTask(added.getId()));
+        assertFalse(database.getStoredTask(task.getId()).getCompleted());
+
+        database.setConnected(true);
+
+        assertTrue(database.getStoredTask(task.getId()).getCompleted());
+        assertEquals(101, database.size());
+    }
+
+    @Test
+    public void remoteChangeDoesNotHidePendingWrite() throws Exception {
+        database.setConnected(false);
+        Task task = taskManager.getTasks().get(0);
+        taskManager.updateTask(new Task(task.getId(), task.getTitle(), true));
+
+        database.updateTasks(Collections.<String, Object>singletonMap(task.getId(),
+                TaskCodec.toMap(new Task(task.getId(), "Changed elsewhere", false))));
+
+        assertTrue(taskManager.getTask(task.getId()).getCompleted());
+    }
+
+    @Test
+    public void rejectedTaskIsQuarantinedAndTheRestAreWritten() throws Exception {
+        InMemoryTaskDatabase rejecting = new InMemoryTaskDatabase();
+        RecordingScheduler scheduler = new RecordingScheduler();
+        TaskOutbox outbox = new TaskOutbox(context, "rejecting", rejecting, scheduler);
+        TaskChangeSet changeSet = new TaskChangeSet();
+        for (int i = 0; i < 10; i++) {
+            changeSet.addUpdatedTask(new Task("Task " + i));
+        }
+        Task rejected = changeSet.getUpdatedTasks().iterator().next();
+        rejecting.rejectWritesTo(rejected.getId());
+        outbox.add(changeSet);
+
+        outbox.setConnected(true);
+        for (int i = 0; i < 100 && !scheduler.retries.isEmpty(); i++) {
+            scheduler.retries.remove(0).run();
+        }
+
+        assertEquals(1, outbox.getQuarantinedCount());
+        assertEquals(0, outbox.getPendingCount());
+        assertEquals(9, rejecting.size());
+        assertNull(rejecting.getStoredTask(rejected.getId()));
+        outbox.flush();
+        assertEquals(1, countRecords(new File(context.getFilesDir(), "outbox-rejecting.quarantine.log")));
+
+        /**
+         * The rejected Task comes first, so batches of 10, 5 and 2 Tasks fail before it is tried on
+         * its own MAX_ATTEMPTS times.  Every failure is one more in a row and waits twice as long as
+         * the one before, except the last, which quarantines the Task instead.
+         */
+        assertEquals(3 + TaskOutbox.MAX_ATTEMPTS - 1, scheduler.delays.size());
+        for (int i = 0; i < scheduler.delays.size(); i++) {
+            assertEquals(TaskOutbox.INITIAL_RETRY_DELAY_MS << i, (long) scheduler.delays.get(i));
+        }
+    }
+
+    @Test
+    public void migratedTasksAreCommitted() throws Exception {
+        FakeContext upgraded = new FakeContext();
+        upgraded.getSharedPreferences(upgraded.getPackageName(), Context.MODE_PRIVATE).edit()
+                .putString("savedTasks", "[{\"title\":\"Saved by version 1\",\"completed\":false}]").commit();
+        TaskMigration.addPendingSource(upgraded, TaskMigration.SOURCE_SHARED_PREFERENCES);
+
+        FirebaseStateManager upgradedStateManager = new FirebaseStateManager(upgraded, new InMemoryTaskDatabase(), TaskLists.DEFAULT_LIST_ID, FireToDoApplication.DATA_SCHEMA_VERSION);
+
+        /**
+         * No flush(): the record must be on the disk as soon as the migration has committed it.
+         */
+        assertEquals(1, countRecords(new File(upgraded.getFilesDir(), "outbox-" + TaskLists.DEFAULT_LIST_ID + ".log")));
+        assertEquals(1, upgradedStateManager.getOutbox().getPendingCount());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void connectedOutboxRefusesMigratedTasks() throws Exception {
+        stateManager.commitMigratedTasks(Collections.singletonList(new Task("Migrated too late")));
+    }
+
+    private static int countRecords(File file) throws IOException {
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        try {
+            int count = 0;
+            while (reader.readLine() != null) {
+                count++;
+            }
+            return count;
+        } finally {
+            reader.close();
+        }
+    }
+
+    private void open() {
+        stateManager = new FirebaseStateManager(context, database, TaskLists.DEFAULT_LIST_ID, FireToDoApplication.DATA_SCHEMA_VERSION);
+        TaskManager.init(stateManager);
+        taskManager = TaskManager.getInstance();
+    }
+
+    /**
+     * Keeps the retries so the test can run them instead of waiting.
+     */
+    private static class RecordingScheduler implements TaskOutbox.RetryScheduler {
+        private final List<Runnable> retries = new ArrayList<>();
+        private final List<Long> delays = new ArrayList<>();
+
+        @Override
+        public void schedule(@NonNull Runnable retry, long delayMs) {
+            retries.add(retry);
+            delays.add(delayMs);
+        }
+    }
+}
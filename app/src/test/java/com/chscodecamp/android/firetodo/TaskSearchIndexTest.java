@@ -0,0 +1,190 @@
+package com.chscodecamp.android.firetodo;
+
+import android.support.v7.util.ListUpdateCallback;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that searches find Tasks by the starts of the words in their titles and that the
+ * TaskManager keeps its TaskSearchIndex up to date as Tasks are loaded, added, changed and removed.
+ */
+public class TaskSearchIndexTest {
+    private static final ListUpdateCallback IGNORE_UPDATES = new ListUpdateCallback() {
+        @Override
+        public void onInserted(int position, int count) {
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+        }
+
+        @Override
+        public void onMoved(int fromPosition, int toPosition) {
+        }
+
+        @Override
+        public void onChanged(int position, int count, Object payload) {
+        }
+    };
+
+    @Test
+    public void everyTermMustStartAWord() {
+        List<Task> tasks = Arrays.asList(new Task("1", "Buy milk", false), new Task("2", "Build a mind map", false),
+                new Task("3", "Submit a bug", false), new Task("4", "Call Bob (re: milk-run)", false));
+        TaskSearchIndex index = new TaskSearchIndex();
+        for (int i = 0; i < tasks.size(); i++) {
+            index.put(tasks.get(i), i);
+        }
+
+        assertEquals(ids("1", "2"), find(index, "bu mi", tasks));
+        assertEquals(ids("1", "4"), find(index, "MILK", tasks));
+        assertEquals(ids("4"), find(index, "run, bob!", tasks));
+        assertEquals(ids(), find(index, "ug", tasks));
+        assertNull(TaskSearch.parse(" .,; "));
+    }
+
+    @Test
+    public void changedAndRemovedTasksAreReindexed() {
+        TaskSearchIndex index = new TaskSearchIndex();
+        index.put(new Task("1", "Buy milk", false), 0);
+        index.put(new Task("2", "Buy bread", false), 1);
+
+        index.put(new Task("1", "Walk the dog", true), 0);
+        index.remove("2");
+        index.put(new Task("3", "Buy a dog bed", false), 2);
+
+        List<Task> tasks = Arrays.asList(new Task("1", "", false), new Task("2", "", false), new Task("3", "", false));
+        assertEquals(ids("3"), find(index, "buy", tasks));
+        assertEquals(ids("1", "3"), find(index, "dog", tasks));
+        assertEquals(ids(), find(index, "bread", tasks));
+    }
+
+    @Test
+    public void taskManagerKeepsTheIndexUpToDate() {
+        FakeStateManager stateManager = new FakeStateManager();
+        stateManager.setStoredTasks(Arrays.asList(new Task("1", "Buy milk", false), new Task("2", "Buy bread", false)));
+        TaskManager.init("search", stateManager);
+        TaskManager taskManager = TaskManager.getInstance();
+        TaskSearchIndex index = taskManager.getSearchIndex();
+        assertEquals(ids("1", "2"), find(index, "buy", taskManager.getTasks()));
+
+        Task added = new Task("Buy eggs");
+        taskManager.addTask(added);
+        taskManager.updateTask(new Task("1", "Sell milk", false));
+        taskManager.onTaskRemoved("2");
+        taskManager.onTaskChanged(new Task("3", "Buy bread rolls", false));
+
+        assertEquals(ids(added.getId(), "3"), find(index, "buy", taskManager.getTasks()));
+        assertEquals(ids("1"), find(index, "sel", taskManager.getTasks()));
+        assertEquals(ids("3"), find(index, "bread", taskManager.getTasks()));
+        assertPositions(index, "buy sell", taskManager);
+
+        TaskManager.Batch batch = taskManager.beginBatch();
+        batch.removeTask(added.getId());
+        batch.commit();
+        assertEquals(ids("3"), find(index, "buy", taskManager.getTasks()));
+        assertPositions(index, "buy", taskManager);
+        assertEquals(ids(), find(index, "eggs", Collections.singletonList(added)));
+
+        taskManager.onDataSetChanged(Collections.singletonList(new Task("4", "Buy milk", false)));
+        assertEquals(ids("4"), find(index, "buy", taskManager.getTasks()));
+        taskManager.close();
+    }
+
+    /**
+     * Each keystroke of a query against 100,000 tasks: the search on the search thread plus placing
+     * its matches in the adapter's list on the main thread, the way TaskRecyclerAdapter does.
+     */
+    @Test
+    public void keystrokesAt100000Tasks() {
+        List<Task> tasks = new ArrayList<>();
+        TaskSearchIndex index = new TaskSearchIndex();
+        for (int i = 0; i < 100000; i++) {
+            Task task = new Task(String.format("task-%06d", i), "Task number " + i, i % 3 == 0);
+            tasks.add(task);
+            index.put(task, i);
+        }
+        FilteredTaskList searchResults = new FilteredTaskList(tasks, new FilteredTaskList.Filter() {
+            @Override
+            public boolean accept(Task task) {
+                return false;
+            }
+        }, IGNORE_UPDATES);
+
+        /**
+         * The fastest of a few rounds for each keystroke, so a busy machine doesn't skew it.
+         */
+        String query = "number 4242";
+        long[] fastestNanos = new long[query.length()];
+        Arrays.fill(fastestNanos, Long.MAX_VALUE);
+        for (int round = 0; round < 10; round++) {
+            for (int length = 1; length <= query.length(); length++) {
+                long startNanos = System.nanoTime();
+                TaskSearch search = TaskSearch.parse(query.substring(0, length));
+                boolean[] results = new boolean[tasks.size()];
+                TaskSearchIndex.Matches matches = index.find(search);
+                for (int i = 0; i < matches.size(); i++) {
+                    int position = matches.getPosition(i);
+                    results[position] = tasks.get(position).getId().equals(matches.getId(i));
+                }
+                searchResults.rebuild(results);
+                fastestNanos[length - 1] = Math.min(fastestNanos[length - 1], System.nanoTime() - startNanos);
+            }
+        }
+
+        /**
+         * The first keystrokes match every task and have to look at every row; the rest only look
+         * at their matches.  Every keystroke has to fit in a frame.
+         */
+        for (int length = 1; length <= query.length(); length++) {
+            assertTrue(String.format(Locale.US, "\"%s\" took %.1f ms", query.substring(0, length), fastestNanos[length - 1] / 1e6),
+                    fastestNanos[length - 1] < TimeUnit.MILLISECONDS.toNanos(16));
+        }
+
+        /**
+         * 4242 and 42420 to 42429.
+         */
+        assertEquals(11, searchResults.size());
+        assertEquals("Task number 4242", searchResults.get(0).getTitle());
+        assertEquals(100000, index.find(TaskSearch.parse("n")).size());
+        assertTrue(find(index, "n 4", tasks).contains("task-000004"));
+    }
+
+    private static Set<String> find(TaskSearchIndex index, String query, List<Task> tasks) {
+        boolean[] matches = index.find(TaskSearch.parse(query), tasks);
+        Set<String> ids = new HashSet<>();
+        for (int i = 0; i < matches.length; i++) {
+            if (matches[i]) {
+                ids.add(tasks.get(i).getId());
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Every match of a search is where the TaskManager has it.
+     */
+    private static void assertPositions(TaskSearchIndex index, String query, TaskManager taskManager) {
+        TaskSearchIndex.Matches matches = index.find(TaskSearch.parse(query));
+        for (int i = 0; i < matches.size(); i++) {
+            assertEquals(taskManager.getPosition(matches.getId(i)), matches.getPosition(i));
+        }
+    }
+
+    private static Set<String> ids(String... ids) {
+        return new HashSet<>(Arrays.asList(ids));
+    }
+}
@@ -0,0 +1,126 @@
+package com.chscodecamp.android.firetodo;
+
+import android.support.annotation.NonNull;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that a TaskSnapshot reads back what was written and is ignored when it should not be
+ * trusted.
+ */
+public class TaskSnapshotTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void snapshotRoundTrips() throws Exception {
+        File file = temporaryFolder.newFile();
+        List<Task> taskList = createTasks();
+
+        TaskSnapshot.write(file, taskList, 3);
+        List<Task> read = TaskSnapshot.read(file, 3);
+
+        assertEquals(taskList.size(), read.size());
+        for (int i = 0; i < taskList.size(); i++) {
+            assertEquals(taskList.get(i).getId(), read.get(i).getId());
+            assertTrue(taskList.get(i).hasSameState(read.get(i)));
+        }
+    }
+
+    @Test
+    public void snapshotFromAnotherSchemaVersionIsIgnored() throws Exception {
+        File file = temporaryFolder.newFile();
+        TaskSnapshot.write(file, createTasks(), 3);
+
+        assertNull(TaskSnapshot.read(file, 4));
+    }
+
+    @Test
+    public void damagedSnapshotIsIgnored() throws Exception {
+        File file = temporaryFolder.newFile();
+        TaskSnapshot.write(file, createTasks(), 3);
+
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        randomAccessFile.seek(file.length() - 2);
+        randomAccessFile.write('!');
+        randomAccessFile.close();
+        assertNull(TaskSnapshot.read(file, 3));
+
+        randomAccessFile = new RandomAccessFile(file, "rw");
+        randomAccessFile.setLength(file.length() / 2);
+        randomAccessFile.close();
+        assertNull(TaskSnapshot.read(file, 3));
+    }
+
+    @Test
+    public void snapshotIsShownBeforeTheRealList() throws Exception {
+        FakeContext context = new FakeContext(temporaryFolder.getRoot());
+        FakeStateManager storage = new FakeStateManager();
+        storage.setStoredTasks(createTasks());
+        SnapshotStateManager stateManager = new SnapshotStateManager(context, TaskLists.DEFAULT_LIST_ID, storage, 3);
+        assertEquals(1, load(stateManager).size());
+        stateManager.flush();
+
+        List<List<Task>> loads = load(new SnapshotStateManager(context, TaskLists.DEFAULT_LIST_ID, storage, 3));
+
+        assertEquals(2, loads.size());
+        assertEquals(loads.get(1), loads.get(0));
+        assertFalse(loads.get(0).isEmpty());
+    }
+
+    @Test
+    public void changeBeforeTheRealListArrivesIsNewerThanTheSnapshot() throws Exception {
+        FakeContext context = new FakeContext(temporaryFolder.getRoot());
+        Task stored = new Task("task-1", "Buy milk", false, 1L << 45, 1L << 45);
+        TaskSnapshot.write(new File(context.getFilesDir(), "tasks.snapshot"), Collections.singletonList(stored), 3);
+        FakeStateManager storage = new FakeStateManager();
+        storage.setLoadDeferred(true);
+
+        TaskManager.init(new SnapshotStateManager(context, TaskLists.DEFAULT_LIST_ID, storage, 3));
+        TaskManager taskManager = TaskManager.getInstance();
+        taskManager.updateTask(new Task("task-1", "Buy milk", true));
+
+        Task changed = taskManager.getTask("task-1");
+        assertEquals(stored.getTitleClock(), changed.getTitleClock());
+        assertTrue(changed.getCompletedClock() > stored.getCompletedClock());
+        assertTrue(Task.merge(stored, changed).getCompleted());
+        taskManager.close();
+    }
+
+    private static List<List<Task>> load(SnapshotStateManager stateManager) {
+        final List<List<Task>> loads = new ArrayList<>();
+        stateManager.setDataSetChangedListener(new DataSetChangedListener() {
+            @Override
+            public void onDataSetChanged(@NonNull List<Task> taskList) {
+                loads.add(taskList);
+            }
+        });
+        stateManager.loadTasks();
+        return loads;
+    }
+
+    private static List<Task> createTasks() {
+        List<Task> taskList = new ArrayList<>();
+        taskList.add(new Task("Buy milk"));
+        taskList.add(new Task("Pay the caf\u00e9 \u2615"));
+        Task completed = new Task("Done already");
+        completed.setCompleted(true);
+        taskList.add(completed);
+        taskList.add(new Task(null));
+        taskList.add(new Task("edited", "Changed on two devices", true, 1L << 40, 7));
+        return taskList;
+    }
+}